@@ -0,0 +1,187 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** Allocation-budget regression tests for the conversion hot path.
+ *  Each test warms up an operation, then measures the bytes allocated
+ *  by the current thread per character (or per settings line) and
+ *  fails if that exceeds its budget.  Budgets may be overridden with
+ *  the system property enigma.alloc.NAME, where NAME is the name given
+ *  to checkBudget.
+ *  @author Vidhi Chander
+ */
+public class AllocationTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Allocation counters for this JVM. */
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** Return the number of bytes allocated so far by this thread. */
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(
+            Thread.currentThread().getId());
+    }
+
+    /** Fail if BYTES allocated for UNITS units of work exceed the budget
+     *  named NAME, whose default is DEFAULTBUDGET bytes per unit. */
+    private static void checkBudget(String name, double defaultBudget,
+                                    long bytes, long units) {
+        double budget = Double.parseDouble(
+            System.getProperty("enigma.alloc." + name,
+                               Double.toString(defaultBudget)));
+        double perUnit = (double) bytes / units;
+        assertTrue(msg(name, "%.3f bytes per unit exceeds budget %.3f",
+                       perUnit, budget),
+                   perUnit <= budget);
+    }
+
+    /** The text of a configuration file with the naval rotors. */
+    private static String config() {
+        String result = "A-Z\n 5 3\n";
+        String[] moving = { "I", "II", "III", "IV", "V" };
+        String[] notches = { "Q", "E", "V", "J", "Z" };
+        for (int i = 0; i < moving.length; i += 1) {
+            result += moving[i] + " M" + notches[i] + " "
+                + NAVALA.get(moving[i]) + "\n";
+        }
+        result += "Beta N " + NAVALA.get("Beta") + "\n";
+        result += "Gamma N " + NAVALA.get("Gamma") + "\n";
+        result += "B R " + NAVALA.get("B") + "\n";
+        return result;
+    }
+
+    /** Return a machine read from config(), set up for SETTINGS. */
+    private static Machine machine(String settings) throws IOException {
+        Machine m = Main.readConfig(fileContaining(config()).getPath());
+        Main.applySettings(m, settings);
+        return m;
+    }
+
+    /** Return a Main reading configuration CONF and input INPUT, and
+     *  writing to a temporary file. */
+    private static Main newMain(File conf, File input) throws IOException {
+        return new Main(new String[] {
+            conf.getPath(), input.getPath(), tempFile(".out").getPath() });
+    }
+
+    /** Settings used throughout. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void convertIntAllocatesNothing() throws IOException {
+        Machine m = machine(SETTINGS);
+        int sum = 0;
+        for (int i = 0; i < 200_000; i += 1) {
+            sum += m.convert(i % 26);
+        }
+        int n = 2_000_000;
+        long before = allocated();
+        for (int i = 0; i < n; i += 1) {
+            sum += m.convert(i % 26);
+        }
+        checkBudget("convertInt", 0.01, allocated() - before, n);
+        assertTrue(sum >= 0);
+    }
+
+    @Test
+    public void bulkConvertAllocatesNothing() throws IOException {
+        Machine m = machine(SETTINGS);
+        char[] msg = new char[1 << 20];
+        Random random = new Random(61);
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = UPPER_STRING.charAt(random.nextInt(26));
+        }
+        m.convert(msg, 0, msg.length);
+        long before = allocated();
+        for (int k = 0; k < 4; k += 1) {
+            m.convert(msg, 0, msg.length);
+        }
+        checkBudget("bulkConvert", 0.01, allocated() - before,
+                    4L * msg.length);
+    }
+
+    @Test
+    public void convertStringAllocatesOnlyResult() throws IOException {
+        Machine m = machine(SETTINGS);
+        String msg = UPPER_STRING.repeat(4000);
+        m.convert(msg);
+        long before = allocated();
+        for (int k = 0; k < 20; k += 1) {
+            m.convert(msg);
+        }
+        checkBudget("convertString", 4.0, allocated() - before,
+                    20L * msg.length());
+    }
+
+    @Test
+    public void setUpBudget() throws IOException {
+        File conf = fileContaining(config());
+        Main main = newMain(conf, conf);
+        Machine m = Main.readConfig(conf.getPath());
+        try {
+            for (int i = 0; i < 2000; i += 1) {
+                main.setUp(m, SETTINGS);
+            }
+            int n = 10_000;
+            long before = allocated();
+            for (int i = 0; i < n; i += 1) {
+                main.setUp(m, SETTINGS);
+            }
+            checkBudget("setUp", 4096, allocated() - before, n);
+        } finally {
+            main.close();
+        }
+    }
+
+    @Test
+    public void processBudget() throws IOException {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(61);
+        while (text.length() < 4_000_000) {
+            text.append(SETTINGS).append('\n');
+            for (int line = 0; line < 200; line += 1) {
+                for (int i = 0; i < 70; i += 1) {
+                    text.append(UPPER_STRING.charAt(random.nextInt(26)));
+                    if (random.nextInt(6) == 0) {
+                        text.append(' ');
+                    }
+                }
+                text.append('\n');
+            }
+            text.append('\n');
+        }
+        File conf = fileContaining(config());
+        File input = fileContaining(text.toString());
+        runMain(conf.getPath(), input.getPath(),
+                tempFile(".out").getPath());
+        Main main = newMain(conf, input);
+        long before = allocated();
+        try {
+            main.process();
+            checkBudget("process", 8.0, allocated() - before,
+                        text.length());
+        } finally {
+            main.close();
+        }
+    }
+
+}
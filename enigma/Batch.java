@@ -0,0 +1,180 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+
+/** Runs many Enigma jobs in one JVM.  Each non-blank line of a manifest
+ *  that does not start with '#' describes one job as the arguments of
+ *  a run of Main: options, then a configuration file, an input file
+ *  and an output file.  Jobs run on a pool of worker threads and share
+ *  configurations read from the same file.  Each job succeeds or fails
+ *  on its own, exactly as "java enigma.Main ARGS" would, and a summary
+ *  line is written for each, in manifest order.
+ *  @author Vidhi Chander
+ */
+public final class Batch {
+
+    /** Run the jobs in a manifest, as specified by ARGS, which consists
+     *  of options followed by the manifest file name.  The options are
+     *      --threads=N    use N worker threads (default: one per
+     *                     processor);
+     *      --summary=FILE write the summary to FILE rather than the
+     *                     standard output.
+     *  Exits normally if every job succeeds; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (new Batch(args).run()) {
+                return;
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Check ARGS and read the manifest (see comment on main). */
+    Batch(String[] args) {
+        int first;
+        for (first = 0; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            if (args[first].startsWith("--threads=")) {
+                try {
+                    _threads = Integer.parseInt(args[first].substring(10));
+                } catch (NumberFormatException excp) {
+                    throw error("bad thread count: %s", args[first]);
+                }
+            } else if (args[first].startsWith("--summary=")) {
+                _summary = args[first].substring(10);
+            } else {
+                throw error("unknown option: %s", args[first]);
+            }
+        }
+        if (args.length != first + 1) {
+            throw error("Usage: java enigma.Batch [OPTIONS] MANIFEST");
+        }
+        if (_threads < 1) {
+            throw error("need at least one thread");
+        }
+        try {
+            for (String line : Files.readAllLines(Paths.get(args[first]))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    _jobs.add(WHITESPACE.split(line));
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", args[first]);
+        }
+    }
+
+    /** Run all jobs and write the summary.  Returns true iff every job
+     *  succeeded. */
+    boolean run() {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (String[] job : _jobs) {
+            results.add(pool.submit(() -> runJob(job)));
+        }
+        pool.shutdown();
+
+        int failures = 0;
+        PrintStream out = summaryStream();
+        try {
+            for (int i = 0; i < results.size(); i += 1) {
+                String error = results.get(i).get();
+                if (error != null) {
+                    failures += 1;
+                }
+                out.printf("%d %s %s%s%n", i + 1,
+                           error == null ? "OK" : "FAILED",
+                           String.join(" ", _jobs.get(i)),
+                           error == null ? "" : ": Error: " + error);
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            throw error("job failed unexpectedly: %s", excp.getCause());
+        }
+        out.printf("%d jobs, %d failed, %d configurations, %.3f s%n",
+                   _jobs.size(), failures, _configs.size(),
+                   (System.nanoTime() - start) * 1e-9);
+        if (out != System.out) {
+            out.close();
+        }
+        return failures == 0;
+    }
+
+    /** Run the job with arguments ARGS, returning null if it succeeds,
+     *  and otherwise the message that Main.main would report. */
+    private String runJob(String[] args) {
+        if (args.length == 0
+            || args.length - countOptions(args) != 3) {
+            return "a job needs a configuration, input and output file";
+        }
+        Main main = null;
+        try {
+            main = new Main(args, _configs);
+            main.process();
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        } catch (RuntimeException excp) {
+            return "internal error: " + excp;
+        } finally {
+            if (main != null) {
+                main.close();
+            }
+        }
+    }
+
+    /** Return the number of leading options in ARGS. */
+    private static int countOptions(String[] args) {
+        int n;
+        for (n = 0; n < args.length && args[n].startsWith("--"); n += 1) {
+            continue;
+        }
+        return n;
+    }
+
+    /** Return the stream to which to write the summary. */
+    private PrintStream summaryStream() {
+        if (_summary == null) {
+            return System.out;
+        }
+        try {
+            return new PrintStream(new File(_summary));
+        } catch (IOException excp) {
+            throw error("could not open %s", _summary);
+        }
+    }
+
+    /** Separator of the fields of a manifest line. */
+    private static final Pattern WHITESPACE =
+        Pattern.compile("\\p{javaWhitespace}+");
+
+    /** Number of worker threads. */
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
+    /** Summary file name, or null for the standard output. */
+    private String _summary;
+
+    /** The arguments of each job, in manifest order. */
+    private final List<String[]> _jobs = new ArrayList<String[]>();
+
+    /** Configurations shared by the jobs. */
+    private final ConfigCache _configs = new ConfigCache();
+}
@@ -0,0 +1,85 @@
+package enigma;
+
+/** An engine that converts messages in blocks.  For each block, it
+ *  first steps the rotors through the whole block, recording every
+ *  slot's position for every character, and then passes the entire
+ *  block through one slot at a time.  The inner loops then have no
+ *  data-dependent control flow and work on contiguous arrays, which
+ *  suits the JIT's loop unrolling (the incubating Vector API is not
+ *  used, so this runs on any JDK).
+ *  @author Vidhi Chander
+ */
+class BatchEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "batch";
+    }
+
+    @Override
+    public Engine copy() {
+        return new BatchEngine();
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int from, int to) {
+        MachineTables t = m.tables();
+        int slots = t.slots();
+        if (_pos.length != slots) {
+            _pos = new int[slots];
+            _offsets = new int[slots][BLOCK];
+        }
+        int[] pos = _pos;
+        t.loadPositions(m, pos);
+        for (int start = from; start < to; start += BLOCK) {
+            int len = Math.min(BLOCK, to - start);
+            for (int i = 0; i < len; i += 1) {
+                t.step(pos);
+                for (int j = 0; j < slots; j += 1) {
+                    _offsets[j][i] = pos[j];
+                }
+            }
+            convertBlock(t, msg, start, len);
+        }
+        t.storePositions(m, pos);
+    }
+
+    /** Convert MSG[START .. START+LEN-1] by T, using the positions
+     *  recorded in _offsets. */
+    private void convertBlock(MachineTables t, int[] msg, int start,
+                              int len) {
+        int[] mod = t.mod();
+        int[] plug = t.plug();
+        int end = start + len;
+        for (int i = start; i < end; i += 1) {
+            msg[i] = plug[msg[i]];
+        }
+        for (int j = t.slots() - 1; j >= 0; j -= 1) {
+            int[] table = t.forward(j);
+            int[] off = _offsets[j];
+            for (int i = 0; i < len; i += 1) {
+                msg[start + i] = mod[table[msg[start + i] + off[i]] - off[i]];
+            }
+        }
+        for (int j = 1; j < t.slots(); j += 1) {
+            int[] table = t.backward(j);
+            int[] off = _offsets[j];
+            for (int i = 0; i < len; i += 1) {
+                msg[start + i] = mod[table[msg[start + i] + off[i]] - off[i]];
+            }
+        }
+        for (int i = start; i < end; i += 1) {
+            msg[i] = plug[msg[i]];
+        }
+    }
+
+    /** Number of characters per block. */
+    private static final int BLOCK = 1024;
+
+    /** Rotor positions during conversion. */
+    private int[] _pos = new int[0];
+
+    /** _offsets[J][I] is the position of slot J for character I of the
+     *  current block. */
+    private int[][] _offsets;
+}
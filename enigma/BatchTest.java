@@ -0,0 +1,107 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Batch and ConfigCache classes.
+ *  @author Vidhi Chander
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the error Main reports for ARGS, or null if there is
+     *  none, leaving its output in the output file named by ARGS. */
+    private static String failure(String... args) {
+        try {
+            runMain(args);
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void jobsMatchSeparateRuns() throws IOException {
+        File[] files = traffic("--seed=30", "--settings=6", "--messages=5");
+        File conf = files[0], whole = files[1];
+        List<String> lines = Files.readAllLines(whole.toPath());
+        int half = lines.size() / 2;
+        while (!lines.get(half).startsWith("*")) {
+            half += 1;
+        }
+        File part = tempFile(".inp"), bad = tempFile(".inp");
+        Files.write(part.toPath(), lines.subList(half, lines.size()));
+        Files.write(bad.toPath(), Arrays.asList(lines.get(0),
+                                                "HELLO", "* B Nope",
+                                                "WORLD"));
+        String missing = new File(conf.getParentFile(),
+                                  conf.getName() + ".d/out").getPath();
+
+        File[] outputs = {
+            tempFile(".out"), tempFile(".out"), tempFile(".out"),
+            tempFile(".out") };
+        List<String[]> jobs = Arrays.asList(
+            new String[] { conf.getPath(), whole.getPath(),
+                           outputs[0].getPath() },
+            new String[] { "--engine=table", conf.getPath(), part.getPath(),
+                           outputs[1].getPath() },
+            new String[] { conf.getPath(), bad.getPath(),
+                           outputs[2].getPath() },
+            new String[] { conf.getPath(), whole.getPath(),
+                           outputs[3].getPath() },
+            new String[] { conf.getPath(), whole.getPath(), missing });
+        File manifest = tempFile(".txt"), summary = tempFile(".txt");
+        List<String> manifestLines = new ArrayList<String>();
+        manifestLines.add("# shared configuration, two failures");
+        for (String[] job : jobs) {
+            manifestLines.add(String.join(" ", job));
+        }
+        Files.write(manifest.toPath(), manifestLines);
+
+        assertFalse(new Batch(new String[] {
+            "--threads=3", "--summary=" + summary.getPath(),
+            manifest.getPath() }).run());
+
+        List<String> report = Files.readAllLines(summary.toPath());
+        assertEquals(jobs.size() + 1, report.size());
+        for (int i = 0; i < jobs.size(); i += 1) {
+            String[] job = jobs.get(i);
+            byte[] batchOutput = i < outputs.length
+                ? Files.readAllBytes(outputs[i].toPath()) : null;
+            String error = failure(job);
+            String expected = String.format(
+                "%d %s %s%s", i + 1, error == null ? "OK" : "FAILED",
+                String.join(" ", job),
+                error == null ? "" : ": Error: " + error);
+            assertEquals(expected, report.get(i));
+            if (error == null) {
+                assertArrayEquals(Files.readAllBytes(outputs[i].toPath()),
+                                  batchOutput);
+            }
+        }
+        assertTrue(report.get(2).contains("FAILED"));
+        assertTrue(report.get(4).contains("FAILED"));
+        assertTrue(report.get(jobs.size()),
+                   report.get(jobs.size())
+                   .startsWith("5 jobs, 2 failed, 1 configurations"));
+    }
+
+}
@@ -0,0 +1,172 @@
+package enigma;
+
+/** A collector of the best K (score, key) pairs found by many threads at
+ *  once, ranked as by Candidates.  Each thread adds to its own Local
+ *  collector, a heap of its best candidates in primitive arrays, which
+ *  it merges into the shared best candidates every so often and when
+ *  flushed.  The shared candidates' threshold (the lowest score they
+ *  might still accept) is published in a volatile field after each
+ *  merge, so once the collector is full, most candidates are rejected
+ *  by a thread without locking or writing to shared memory.  The shared
+ *  candidates may be read with snapshot at any time, and include all
+ *  candidates from Locals that have been flushed.
+ *  @author Vidhi Chander
+ */
+class CandidateCollector {
+
+    /** A collector of the best K candidates. */
+    CandidateCollector(int k) {
+        _best = new Candidates(k);
+    }
+
+    /** Return the maximum number of candidates kept. */
+    int capacity() {
+        return _best.capacity();
+    }
+
+    /** Return a new collector for the use of one thread. */
+    Local local() {
+        return new Local();
+    }
+
+    /** Return the lowest score that the shared candidates might
+     *  currently accept. */
+    long threshold() {
+        return _threshold;
+    }
+
+    /** Return a copy of the best candidates merged so far. */
+    Candidates snapshot() {
+        Candidates result = new Candidates(capacity());
+        synchronized (_best) {
+            result.addAll(_best);
+        }
+        return result;
+    }
+
+    /** Merge the first N candidates whose scores and keys are SCORES and
+     *  KEYS into the shared candidates. */
+    private void merge(long[] scores, long[] keys, int n) {
+        synchronized (_best) {
+            for (int i = 0; i < n; i += 1) {
+                _best.add(scores[i], keys[i]);
+            }
+            _threshold = _best.threshold();
+        }
+    }
+
+    /** The candidates found by one thread and not yet merged.  Not
+     *  thread-safe.  A key that is added more than once to the same
+     *  Local may take more than one place in it until it is merged. */
+    final class Local {
+
+        /** An empty collector. */
+        private Local() {
+            _scores = new long[capacity()];
+            _keys = new long[capacity()];
+        }
+
+        /** Return the lowest score that add might currently accept. */
+        long threshold() {
+            long shared = _threshold;
+            if (_size < _keys.length) {
+                return shared;
+            }
+            return Math.max(shared, _scores[0]);
+        }
+
+        /** Consider KEY, whose score is SCORE, for inclusion. */
+        void add(long score, long key) {
+            if (score < _threshold) {
+                return;
+            }
+            if (_size < _keys.length) {
+                _size += 1;
+                up(_size - 1, score, key);
+            } else if (worse(_scores[0], _keys[0], score, key)) {
+                down(0, score, key);
+            } else {
+                return;
+            }
+            _admitted += 1;
+            if (_admitted == MERGE_INTERVAL) {
+                flush();
+            }
+        }
+
+        /** Merge my candidates into the shared ones, and clear them. */
+        void flush() {
+            if (_size > 0) {
+                merge(_scores, _keys, _size);
+            }
+            _size = 0;
+            _admitted = 0;
+        }
+
+        /** Place (SCORE, KEY) at heap index I or above, moving worse
+         *  ancestors down. */
+        private void up(int i, long score, long key) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(score, key, _scores[parent], _keys[parent])) {
+                    break;
+                }
+                _scores[i] = _scores[parent];
+                _keys[i] = _keys[parent];
+                i = parent;
+            }
+            _scores[i] = score;
+            _keys[i] = key;
+        }
+
+        /** Place (SCORE, KEY) at heap index I or below, moving worse
+         *  descendants up. */
+        private void down(int i, long score, long key) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= _size) {
+                    break;
+                }
+                if (child + 1 < _size
+                    && worse(_scores[child + 1], _keys[child + 1],
+                             _scores[child], _keys[child])) {
+                    child += 1;
+                }
+                if (!worse(_scores[child], _keys[child], score, key)) {
+                    break;
+                }
+                _scores[i] = _scores[child];
+                _keys[i] = _keys[child];
+                i = child;
+            }
+            _scores[i] = score;
+            _keys[i] = key;
+        }
+
+        /** Heap of candidate scores, the worst first. */
+        private final long[] _scores;
+
+        /** Candidate keys, parallel to _scores. */
+        private final long[] _keys;
+
+        /** Number of candidates held. */
+        private int _size;
+
+        /** Number of candidates admitted since the last merge. */
+        private int _admitted;
+    }
+
+    /** Return true iff (S0, K0) ranks below (S1, K1). */
+    private static boolean worse(long s0, long k0, long s1, long k1) {
+        return s0 < s1 || (s0 == s1 && k0 > k1);
+    }
+
+    /** Number of candidates a Local admits between merges. */
+    static final int MERGE_INTERVAL = 1024;
+
+    /** The shared best candidates. */
+    private final Candidates _best;
+
+    /** The threshold of _best as of the last merge. */
+    private volatile long _threshold = Long.MIN_VALUE;
+}
@@ -0,0 +1,87 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The best K (score, key) pairs seen by a key search, highest score
+ *  first, with ties broken in favor of lower keys.  Adding a key that
+ *  is already present has no effect.  Thread-safe.
+ *  @author Vidhi Chander
+ */
+class Candidates {
+
+    /** An empty collection of at most K candidates. */
+    Candidates(int k) {
+        if (k < 1) {
+            throw error("need at least one candidate");
+        }
+        _scores = new long[k];
+        _keys = new long[k];
+    }
+
+    /** Return the maximum number of candidates kept. */
+    int capacity() {
+        return _keys.length;
+    }
+
+    /** Return the number of candidates kept so far. */
+    synchronized int size() {
+        return _size;
+    }
+
+    /** Return the score of candidate number I (0 is the best). */
+    synchronized long score(int i) {
+        return _scores[i];
+    }
+
+    /** Return the key of candidate number I (0 is the best). */
+    synchronized long key(int i) {
+        return _keys[i];
+    }
+
+    /** Return the lowest score that add might currently accept. */
+    synchronized long threshold() {
+        return _size < _keys.length ? Long.MIN_VALUE : _scores[_size - 1];
+    }
+
+    /** Consider KEY, whose score is SCORE, for inclusion. */
+    synchronized void add(long score, long key) {
+        if (_size == _keys.length && !better(score, key, _size - 1)) {
+            return;
+        }
+        for (int i = 0; i < _size; i += 1) {
+            if (_keys[i] == key) {
+                return;
+            }
+        }
+        int i = _size == _keys.length ? _size - 1 : _size;
+        _size = Math.max(_size, i + 1);
+        while (i > 0 && better(score, key, i - 1)) {
+            _scores[i] = _scores[i - 1];
+            _keys[i] = _keys[i - 1];
+            i -= 1;
+        }
+        _scores[i] = score;
+        _keys[i] = key;
+    }
+
+    /** Add all of OTHER's candidates to me. */
+    void addAll(Candidates other) {
+        for (int i = 0; i < other.size(); i += 1) {
+            add(other.score(i), other.key(i));
+        }
+    }
+
+    /** Return true iff (SCORE, KEY) ranks above candidate I. */
+    private boolean better(long score, long key, int i) {
+        return score > _scores[i] || (score == _scores[i] && key < _keys[i]);
+    }
+
+    /** Candidate scores, best first. */
+    private final long[] _scores;
+
+    /** Candidate keys, parallel to _scores. */
+    private final long[] _keys;
+
+    /** Number of candidates kept. */
+    private int _size;
+}
@@ -0,0 +1,331 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The canonical keys of a KeySpace for messages of a given length: one
+ *  key (the lowest-numbered) of each set of keys that convert any
+ *  message of that length identically.
+ *
+ *  Rotors that do not move while a message is converted act, together
+ *  with the reflector to their left, as one fixed reflector: the
+ *  composite of the reflector with those rotors at their positions.
+ *  These are the rotors without pawls, and those rotors with pawls
+ *  whose right neighbors do not reach a notch within the message.  If
+ *  the leftmost rotor that moves is in slot S, the key's behavior is
+ *  determined by the composite of slots 0 .. S-1 (its prefix) and by
+ *  the rotors and positions of slots S and up (its suffix).  Two keys
+ *  with the same suffix and prefixes with the same composite are
+ *  therefore equivalent, provided that the other key's prefix does not
+ *  move either (none of its rotors with pawls, other than the leftmost,
+ *  is at a notch).  The plugboard is the same for every key.
+ *
+ *  For each S, the composites of every possible prefix are computed
+ *  once, and the prefixes with equal composites are grouped.  Only for
+ *  keys whose prefix is in a group of two or more need other keys be
+ *  considered.  Prefixes whose slots number more than MAX_PREFIXES in
+ *  all are not grouped; keys with a longer unmoving prefix are treated
+ *  as though only the longest grouped prefix did not move, which still
+ *  yields equivalent keys, but fewer of them.  The slot S at which each
+ *  key's moving rotors start is found by stepping its rotors through
+ *  the message, and remembered by each Local (for the use of one
+ *  thread) for each position of the rotors with pawls in the rotor
+ *  order it was most recently asked about.
+ *  @author Vidhi Chander
+ */
+class CanonicalKeys {
+
+    /** The canonical keys of SPACE, the key space of TEMPLATE, for
+     *  messages of LENGTH letters. */
+    CanonicalKeys(KeySpace space, Machine template, int length) {
+        _space = space;
+        _length = length;
+        _size = template.alphabet().size();
+        _slots = template.numRotors();
+        _firstMoving = _slots - template.numPawls();
+        for (Rotor r : template.allRotors()) {
+            _rotors.put(r.name(), r);
+        }
+        for (int order = 0; order < space.numOrders(); order += 1) {
+            _orders.put(String.join("\t", space.order(order)), order);
+        }
+        long moving = 1;
+        for (int j = _firstMoving; j < _slots; j += 1) {
+            moving *= _size;
+        }
+        _movingPositions = (int) moving;
+        _levels = new ArrayList<Level>();
+        for (int s = _firstMoving; s <= _slots; s += 1) {
+            Level level = new Level(s);
+            if (level._prefixes > MAX_PREFIXES) {
+                break;
+            }
+            level.group();
+            _levels.add(level);
+        }
+    }
+
+    /** Return a new tester of keys for the use of one thread. */
+    Local local() {
+        return new Local();
+    }
+
+    /** A tester of keys, which remembers the results of stepping the
+     *  rotors of one rotor order.  Not thread-safe. */
+    final class Local {
+
+        /** A tester with nothing remembered. */
+        private Local() {
+            _boundaries = new byte[_movingPositions];
+        }
+
+        /** Return true iff KEY, whose rotor order is ORDER (with
+         *  compiled tables T) and whose rotor positions are START, is
+         *  canonical. */
+        boolean canonical(long key, int order, MachineTables t,
+                          int[] start) {
+            if (_levels.isEmpty()) {
+                return true;
+            }
+            int s = Math.min(boundary(order, t, start),
+                             _firstMoving + _levels.size() - 1);
+            Level level = _levels.get(s - _firstMoving);
+            int prefix = level.prefix(order, start);
+            int group = level._group[prefix];
+            if (group < 0) {
+                return true;
+            }
+            String[] names = _space.order(order).clone();
+            int[] pos = start.clone();
+            for (int other : level._groups.get(group)) {
+                if (other == prefix) {
+                    continue;
+                }
+                String[] prefixNames =
+                    level._prefixNames.get(other / level._positions);
+                System.arraycopy(prefixNames, 0, names, 0, s);
+                Integer otherOrder = _orders.get(String.join("\t", names));
+                if (otherOrder == null) {
+                    continue;
+                }
+                level.positions(other, pos);
+                if (_space.key(otherOrder, pos) < key) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return the leftmost slot whose rotor moves while a message of
+         *  my length is converted from positions START by rotor order
+         *  ORDER, whose tables are T (or numRotors() if none moves). */
+        private int boundary(int order, MachineTables t, int[] start) {
+            if (order != _boundaryOrder) {
+                Arrays.fill(_boundaries, (byte) 0);
+                _boundaryOrder = order;
+            }
+            int index = 0;
+            for (int j = _firstMoving; j < _slots; j += 1) {
+                index = index * _size + start[j];
+            }
+            if (_boundaries[index] == 0) {
+                int[] pos = start.clone();
+                int s = _slots;
+                for (int i = 0; i < _length && s > _firstMoving; i += 1) {
+                    t.step(pos);
+                    for (int j = _firstMoving; j < s; j += 1) {
+                        if (pos[j] != start[j]) {
+                            s = j;
+                            break;
+                        }
+                    }
+                }
+                _boundaries[index] = (byte) (s + 1);
+            }
+            return _boundaries[index] - 1;
+        }
+
+        /** The rotor order for which _boundaries holds results. */
+        private int _boundaryOrder = -1;
+
+        /** One more than the boundary of each setting of the rotors with
+         *  pawls in rotor order _boundaryOrder, or 0 if not yet
+         *  found. */
+        private final byte[] _boundaries;
+    }
+
+    /** The prefixes of S slots: each rotor order of slots 0 .. S-1 that
+     *  begins some order of the key space, with each setting of its
+     *  rotors.  Prefixes are numbered in the same way as keys. */
+    private final class Level {
+
+        /** The prefixes of S slots. */
+        Level(int s) {
+            _s = s;
+            long positions = 1;
+            for (int j = 1; j < s; j += 1) {
+                positions *= _size;
+            }
+            _positions = (int) Math.min(positions, Integer.MAX_VALUE);
+            Map<String, Integer> prefixOrders =
+                new HashMap<String, Integer>();
+            _prefixOrder = new int[_space.numOrders()];
+            for (int order = 0; order < _space.numOrders(); order += 1) {
+                String[] names = Arrays.copyOf(_space.order(order), s);
+                String joined = String.join("\t", names);
+                Integer number = prefixOrders.get(joined);
+                if (number == null) {
+                    number = _prefixNames.size();
+                    prefixOrders.put(joined, number);
+                    _prefixNames.add(names);
+                }
+                _prefixOrder[order] = number;
+            }
+            _prefixes = (long) _prefixNames.size() * positions;
+        }
+
+        /** Compute the composite of every prefix that does not move, and
+         *  group those whose composites are equal. */
+        void group() {
+            _group = new int[(int) _prefixes];
+            Arrays.fill(_group, -1);
+            Map<String, List<Integer>> byComposite =
+                new HashMap<String, List<Integer>>();
+            int[] pos = new int[_slots];
+            char[] composite = new char[_size];
+            for (int prefix = 0; prefix < _prefixes; prefix += 1) {
+                Rotor[] rotors = rotors(prefix / _positions);
+                positions(prefix, pos);
+                if (!still(rotors, pos)) {
+                    continue;
+                }
+                for (int c = 0; c < _size; c += 1) {
+                    composite[c] = (char) convert(rotors, pos, c);
+                }
+                byComposite.computeIfAbsent(new String(composite),
+                                            k -> new ArrayList<Integer>())
+                    .add(prefix);
+            }
+            for (List<Integer> members : byComposite.values()) {
+                if (members.size() > 1) {
+                    int[] group = new int[members.size()];
+                    for (int i = 0; i < group.length; i += 1) {
+                        group[i] = members.get(i);
+                        _group[group[i]] = _groups.size();
+                    }
+                    _groups.add(group);
+                }
+            }
+        }
+
+        /** Return the number of the prefix of the key with rotor order
+         *  ORDER and positions POS. */
+        int prefix(int order, int[] pos) {
+            int p = 0;
+            for (int j = 1; j < _s; j += 1) {
+                p = p * _size + pos[j];
+            }
+            return _prefixOrder[order] * _positions + p;
+        }
+
+        /** Set POS[1 .. S-1] to the positions of prefix PREFIX. */
+        void positions(int prefix, int[] pos) {
+            int p = prefix % _positions;
+            for (int j = _s - 1; j > 0; j -= 1) {
+                pos[j] = p % _size;
+                p /= _size;
+            }
+        }
+
+        /** Return the rotors of prefix order NUMBER. */
+        private Rotor[] rotors(int number) {
+            String[] names = _prefixNames.get(number);
+            Rotor[] result = new Rotor[names.length];
+            for (int j = 0; j < names.length; j += 1) {
+                result[j] = _rotors.get(names[j]);
+            }
+            return result;
+        }
+
+        /** Return true iff ROTORS at POS would not move themselves: none
+         *  of them with pawls, other than the leftmost, is at a notch. */
+        private boolean still(Rotor[] rotors, int[] pos) {
+            for (int j = _firstMoving + 1; j < _s; j += 1) {
+                if (rotors[j].atNotch(pos[j])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return the result of passing C from the right through ROTORS
+         *  at POS, off the reflector and back. */
+        private int convert(Rotor[] rotors, int[] pos, int c) {
+            for (int j = _s - 1; j >= 0; j -= 1) {
+                c = rotors[j].convertForward(c, pos[j]);
+            }
+            for (int j = 1; j < _s; j += 1) {
+                c = rotors[j].convertBackward(c, pos[j]);
+            }
+            return c;
+        }
+
+        /** Number of slots in my prefixes. */
+        private final int _s;
+
+        /** Number of settings of each prefix order. */
+        private final int _positions;
+
+        /** Number of prefixes. */
+        private final long _prefixes;
+
+        /** The names of the rotors of each prefix order. */
+        private final List<String[]> _prefixNames = new ArrayList<String[]>();
+
+        /** The prefix order of each rotor order of the key space. */
+        private final int[] _prefixOrder;
+
+        /** The group of each prefix, or -1 if no other prefix has the
+         *  same composite (or it moves). */
+        private int[] _group;
+
+        /** The members of each group of prefixes, in increasing
+         *  order. */
+        private final List<int[]> _groups = new ArrayList<int[]>();
+    }
+
+    /** Largest number of prefixes grouped for any number of slots. */
+    static final int MAX_PREFIXES = 1 << 18;
+
+    /** The key space. */
+    private final KeySpace _space;
+
+    /** Length of messages. */
+    private final int _length;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Number of slots. */
+    private final int _slots;
+
+    /** The leftmost slot whose rotor has a pawl. */
+    private final int _firstMoving;
+
+    /** Number of settings of the rotors with pawls. */
+    private final int _movingPositions;
+
+    /** Rotors by name. */
+    private final Map<String, Rotor> _rotors = new HashMap<String, Rotor>();
+
+    /** Rotor orders of the key space, by names joined with tabs. */
+    private final Map<String, Integer> _orders =
+        new HashMap<String, Integer>();
+
+    /** Prefixes of FIRSTMOVING, FIRSTMOVING + 1, ... slots, as far as
+     *  they are grouped. */
+    private final List<Level> _levels;
+}
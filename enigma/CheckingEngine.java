@@ -0,0 +1,59 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** An engine that runs both the reference engine and another engine on
+ *  every message, and reports an error if their results or final rotor
+ *  settings differ.
+ *  @author Vidhi Chander
+ */
+class CheckingEngine implements Engine {
+
+    /** An engine that checks CHECKED against the reference engine. */
+    CheckingEngine(Engine checked) {
+        _checked = checked;
+    }
+
+    @Override
+    public String name() {
+        return _checked.name();
+    }
+
+    @Override
+    public Engine copy() {
+        return new CheckingEngine(_checked.copy());
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int from, int to) {
+        int[] start = m.state();
+        int[] expected = Arrays.copyOfRange(msg, from, to);
+        _reference.convert(m, expected, 0, expected.length);
+        int[] expectedState = m.state();
+        m.restore(start);
+
+        _checked.convert(m, msg, from, to);
+        for (int i = from; i < to; i += 1) {
+            if (msg[i] != expected[i - from]) {
+                throw error("engine %s diverged from reference at "
+                            + "character %d", name(), i - from);
+            }
+        }
+        int[] state = m.state();
+        for (int j = 0; j < state.length; j += 1) {
+            if (state[j] != expectedState[j]) {
+                throw error("engine %s left rotor %s at the wrong setting",
+                            name(), m.machineRotors()
+                            .get(j % m.machineRotors().size()).name());
+            }
+        }
+    }
+
+    /** The engine being checked. */
+    private final Engine _checked;
+
+    /** The oracle. */
+    private final Engine _reference = new ReferenceEngine();
+}
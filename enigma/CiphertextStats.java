@@ -0,0 +1,397 @@
+package enigma;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Statistics of a ciphertext over the alphabet of a configuration:
+ *  letter, bigram and trigram counts, the index of coincidence, and the
+ *  mean index of coincidence of the columns of the text written out in
+ *  rows of each length up to a maximum period.  Characters outside the
+ *  alphabet are skipped (after upper-casing), and n-grams span them.
+ *
+ *  The ciphertext is read in one pass as a stream of blocks, each
+ *  starting with the last two letters of the previous one, which are
+ *  counted in parallel.  Each thread adds to its own histograms (arrays
+ *  indexed by alphabet index), which are merged when the pass ends.
+ *  @author Vidhi Chander
+ */
+public final class CiphertextStats {
+
+    /** Compute statistics as specified by ARGS, which consist of options
+     *  followed by a configuration file (which supplies the alphabet) and
+     *  a ciphertext file, and print them as described for report.  The
+     *  options are
+     *      --threads=N   count with N threads (default: one per
+     *                    processor);
+     *      --periods=P   report the columnar index of coincidence for
+     *                    periods 1 to P (default 26).
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            int threads = Runtime.getRuntime().availableProcessors();
+            int periods = 26;
+            int first;
+            for (first = 0; first < args.length
+                     && args[first].startsWith("--"); first += 1) {
+                String opt = args[first];
+                if (opt.startsWith("--threads=")) {
+                    threads = Options.parseInt(opt.substring(10));
+                } else if (opt.startsWith("--periods=")) {
+                    periods = Options.parseInt(opt.substring(10));
+                } else {
+                    throw error("unknown option: %s", opt);
+                }
+            }
+            if (args.length - first != 2) {
+                throw error("Usage: java enigma.CiphertextStats [OPTIONS] "
+                            + "CONF CIPHERTEXT");
+            }
+            Alphabet alpha = Main.readConfig(args[first]).alphabet();
+            CiphertextStats stats =
+                new CiphertextStats(alpha, threads, periods);
+            long start = System.nanoTime();
+            try (Reader in = new InputStreamReader(
+                     new FileInputStream(args[first + 1]),
+                     StandardCharsets.UTF_8)) {
+                stats.scan(in);
+            } catch (IOException excp) {
+                throw error("could not read %s", args[first + 1]);
+            }
+            stats.report(System.out);
+            System.err.printf("%d letters in %.2f s%n", stats.letters(),
+                              (System.nanoTime() - start) * 1e-9);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Statistics of ciphertexts over ALPHA, counted with THREADS
+     *  threads, with columnar indices of coincidence for periods 1 to
+     *  PERIODS. */
+    CiphertextStats(Alphabet alpha, int threads, int periods) {
+        _alphabet = alpha;
+        _threads = threads;
+        _periods = periods;
+        long n = alpha.size();
+        if (n * n * n > MAX_TRIGRAMS) {
+            throw error("alphabet too large for trigram counts");
+        }
+        _totals = new Counts(alpha.size(), periods);
+    }
+
+    /** Count the letters of the ciphertext read from IN, adding them to
+     *  any counted before. */
+    void scan(Reader in) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        ArrayDeque<Future<?>> pending = new ArrayDeque<Future<?>>();
+        List<Counts> counts = new ArrayList<Counts>();
+        ThreadLocal<Counts> local = ThreadLocal.withInitial(() -> {
+            Counts result = new Counts(_alphabet.size(), _periods);
+            synchronized (counts) {
+                counts.add(result);
+            }
+            return result;
+        });
+        try {
+            char[] chars = new char[BUFFER_SIZE];
+            int[] block = new int[BLOCK_SIZE + CARRY];
+            int carried = 0;
+            int n;
+            while ((n = in.read(chars)) > 0) {
+                int done = 0;
+                while (done < n) {
+                    done = fill(chars, done, n, block);
+                    if (_length == block.length) {
+                        pending.add(submit(pool, local, block, carried));
+                        int[] next = new int[block.length];
+                        System.arraycopy(block, _length - CARRY, next, 0,
+                                         CARRY);
+                        block = next;
+                        _length = carried = CARRY;
+                        while (pending.size() > 2 * _threads) {
+                            collect(pending.poll());
+                        }
+                    }
+                }
+            }
+            if (_length > carried) {
+                pending.add(submit(pool, local, block, carried));
+            }
+            while (!pending.isEmpty()) {
+                collect(pending.poll());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        for (Counts c : counts) {
+            _totals.add(c);
+        }
+        _length = 0;
+    }
+
+    /** Add the letters in CHARS[FROM .. TO-1] to BLOCK after its first
+     *  _length letters until it is full, and return the index in CHARS
+     *  of the first character not used. */
+    private int fill(char[] chars, int from, int to, int[] block) {
+        int i;
+        for (i = from; i < to && _length < block.length; i += 1) {
+            char c = Character.toUpperCase(chars[i]);
+            if (_alphabet.contains(c)) {
+                block[_length] = _alphabet.toInt(c);
+                _length += 1;
+            }
+        }
+        return i;
+    }
+
+    /** Start counting the first _length letters of BLOCK, of which the
+     *  first CARRIED were counted with the previous block, using POOL,
+     *  into the Counts of the thread given by LOCAL. */
+    private Future<?> submit(ExecutorService pool, ThreadLocal<Counts> local,
+                             int[] block, int carried) {
+        int len = _length;
+        long base = _letters - carried;
+        _letters += len - carried;
+        return pool.submit(() -> local.get().count(block, len, carried,
+                                                   base));
+    }
+
+    /** Wait for the block being counted by RESULT. */
+    private void collect(Future<?> result) {
+        try {
+            result.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("count interrupted");
+        } catch (ExecutionException excp) {
+            throw error("count failed: %s", excp.getCause());
+        }
+    }
+
+    /** Return the number of letters counted. */
+    long letters() {
+        return _letters;
+    }
+
+    /** Return the number of occurrences of letter C (an alphabet
+     *  index). */
+    long count(int c) {
+        return _totals._unigrams[c];
+    }
+
+    /** Return the number of occurrences of the bigram A B. */
+    long bigram(int a, int b) {
+        return _totals._bigrams[a * _alphabet.size() + b];
+    }
+
+    /** Return the number of occurrences of the trigram A B C. */
+    long trigram(int a, int b, int c) {
+        int n = _alphabet.size();
+        return _totals._trigrams[(a * n + b) * n + c];
+    }
+
+    /** Return the index of coincidence: the probability that two letters
+     *  at distinct places in the text are equal (NaN if there are fewer
+     *  than two letters). */
+    double ioc() {
+        long total = 0, equal = 0;
+        for (long f : _totals._unigrams) {
+            equal += f * (f - 1);
+            total += f;
+        }
+        return (double) equal / (total * (total - 1));
+    }
+
+    /** Return the mean index of coincidence of the columns of the text
+     *  written out in rows of length PERIOD (at most the periods given
+     *  to the constructor), weighted by the number of pairs in each. */
+    double periodicIoc(int period) {
+        int n = _alphabet.size();
+        long[] columns = _totals._columns;
+        long pairs = 0, equal = 0;
+        for (int col = 0; col < period; col += 1) {
+            int start = Counts.column(n, period, col);
+            long total = 0;
+            for (int c = 0; c < n; c += 1) {
+                long f = columns[start + c];
+                equal += f * (f - 1);
+                total += f;
+            }
+            pairs += total * (total - 1);
+        }
+        return (double) equal / pairs;
+    }
+
+    /** Print my statistics on OUT, one record per line, each a keyword
+     *  followed by space-separated fields:
+     *      alphabet LETTERS
+     *      letters COUNT
+     *      ioc INDEX
+     *      letter L COUNT            (for each letter L)
+     *      bigram LL COUNT           (for each bigram that occurs)
+     *      trigram LLL COUNT         (for each trigram that occurs)
+     *      period P INDEX            (for P from 1 to the maximum)
+     *  Indices of coincidence are not normalized (multiply by the
+     *  alphabet size to compare with 1.0 for random text). */
+    void report(PrintStream out) {
+        int n = _alphabet.size();
+        StringBuilder letters = new StringBuilder();
+        for (int c = 0; c < n; c += 1) {
+            letters.append(_alphabet.toChar(c));
+        }
+        out.printf("alphabet %s%n", letters);
+        out.printf("letters %d%n", _letters);
+        out.printf(Locale.ROOT, "ioc %.6f%n", ioc());
+        for (int c = 0; c < n; c += 1) {
+            out.printf("letter %c %d%n", _alphabet.toChar(c), count(c));
+        }
+        for (int a = 0; a < n; a += 1) {
+            for (int b = 0; b < n; b += 1) {
+                if (bigram(a, b) > 0) {
+                    out.printf("bigram %c%c %d%n", _alphabet.toChar(a),
+                               _alphabet.toChar(b), bigram(a, b));
+                }
+            }
+        }
+        for (int a = 0; a < n; a += 1) {
+            for (int b = 0; b < n; b += 1) {
+                for (int c = 0; c < n; c += 1) {
+                    if (trigram(a, b, c) > 0) {
+                        out.printf("trigram %c%c%c %d%n",
+                                   _alphabet.toChar(a), _alphabet.toChar(b),
+                                   _alphabet.toChar(c), trigram(a, b, c));
+                    }
+                }
+            }
+        }
+        for (int p = 1; p <= _periods; p += 1) {
+            out.printf(Locale.ROOT, "period %d %.6f%n", p, periodicIoc(p));
+        }
+    }
+
+    /** Histograms of the letters of part of a ciphertext. */
+    private static final class Counts {
+
+        /** Empty histograms over an alphabet of N letters, with columns
+         *  for periods 1 to PERIODS. */
+        Counts(int n, int periods) {
+            _n = n;
+            _periods = periods;
+            _unigrams = new long[n];
+            _bigrams = new long[n * n];
+            _trigrams = new long[n * n * n];
+            _columns = new long[column(n, periods + 1, 0)];
+        }
+
+        /** Return the index in _columns of the count of letter 0 in
+         *  column COL of period PERIOD, over an alphabet of N letters. */
+        static int column(int n, int period, int col) {
+            return (period * (period - 1) / 2 + col) * n;
+        }
+
+        /** Count the letters of TEXT[0 .. LEN-1] whose first letter is at
+         *  offset BASE of the ciphertext, except that the first CARRIED
+         *  have already been counted (but start n-grams). */
+        void count(int[] text, int len, int carried, long base) {
+            int n = _n;
+            for (int i = carried; i < len; i += 1) {
+                int c = text[i];
+                _unigrams[c] += 1;
+                if (i >= 1) {
+                    _bigrams[text[i - 1] * n + c] += 1;
+                }
+                if (i >= 2) {
+                    _trigrams[(text[i - 2] * n + text[i - 1]) * n + c] += 1;
+                }
+            }
+            for (int p = 1; p <= _periods; p += 1) {
+                int col = (int) ((base + carried) % p);
+                int start = column(n, p, 0);
+                for (int i = carried; i < len; i += 1) {
+                    _columns[start + col * n + text[i]] += 1;
+                    col = col + 1 == p ? 0 : col + 1;
+                }
+            }
+        }
+
+        /** Add the counts in OTHER to mine. */
+        void add(Counts other) {
+            addTo(_unigrams, other._unigrams);
+            addTo(_bigrams, other._bigrams);
+            addTo(_trigrams, other._trigrams);
+            addTo(_columns, other._columns);
+        }
+
+        /** Add the elements of FROM to those of TO. */
+        private static void addTo(long[] to, long[] from) {
+            for (int i = 0; i < to.length; i += 1) {
+                to[i] += from[i];
+            }
+        }
+
+        /** Alphabet size. */
+        private final int _n;
+
+        /** Maximum period. */
+        private final int _periods;
+
+        /** Letter counts. */
+        private final long[] _unigrams;
+
+        /** Bigram counts, indexed by A * N + B. */
+        private final long[] _bigrams;
+
+        /** Trigram counts, indexed by (A * N + B) * N + C. */
+        private final long[] _trigrams;
+
+        /** Letter counts of the columns of each period (see column). */
+        private final long[] _columns;
+    }
+
+    /** Characters read at a time. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** New letters per block. */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    /** Letters carried from each block to the next, so that every
+     *  trigram lies within a block. */
+    private static final int CARRY = 2;
+
+    /** Largest number of trigram counters allowed. */
+    private static final long MAX_TRIGRAMS = 1 << 24;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Number of threads. */
+    private final int _threads;
+
+    /** Maximum period for columnar indices of coincidence. */
+    private final int _periods;
+
+    /** The merged histograms of all blocks counted. */
+    private final Counts _totals;
+
+    /** Number of letters in the block being filled. */
+    private int _length;
+
+    /** Number of letters counted. */
+    private long _letters;
+}
@@ -0,0 +1,104 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the CiphertextStats class.
+ *  @author Vidhi Chander
+ */
+public class CiphertextStatsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void matchesBruteForceAcrossBlocks() throws IOException {
+        Alphabet small = new CharacterRange('1', '5');
+        Random random = new Random(43);
+        int len = 2 * CiphertextStats.BLOCK_SIZE + 777;
+        int[] letters = new int[len];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < len; i += 1) {
+            letters[i] = random.nextInt(random.nextInt(8) == 0 ? 2 : 5);
+            text.append(small.toChar(letters[i]));
+            if (i % 7 == 6) {
+                text.append(" \n");
+            }
+        }
+        CiphertextStats stats = new CiphertextStats(small, 3, 7);
+        stats.scan(new StringReader(text.toString()));
+        assertEquals(len, stats.letters());
+
+        long[] uni = new long[5], bi = new long[25], tri = new long[125];
+        long[][] columns = new long[8 * 7][5];
+        for (int i = 0; i < len; i += 1) {
+            uni[letters[i]] += 1;
+            if (i >= 1) {
+                bi[letters[i - 1] * 5 + letters[i]] += 1;
+            }
+            if (i >= 2) {
+                tri[letters[i - 2] * 25 + letters[i - 1] * 5
+                    + letters[i]] += 1;
+            }
+            for (int p = 1; p <= 7; p += 1) {
+                columns[p * 7 + i % p][letters[i]] += 1;
+            }
+        }
+        long equal = 0;
+        for (int a = 0; a < 5; a += 1) {
+            assertEquals(uni[a], stats.count(a));
+            equal += uni[a] * (uni[a] - 1);
+            for (int b = 0; b < 5; b += 1) {
+                assertEquals(bi[a * 5 + b], stats.bigram(a, b));
+                for (int c = 0; c < 5; c += 1) {
+                    assertEquals(tri[a * 25 + b * 5 + c],
+                                 stats.trigram(a, b, c));
+                }
+            }
+        }
+        assertEquals((double) equal / ((double) len * (len - 1)),
+                     stats.ioc(), 1e-12);
+        for (int p = 1; p <= 7; p += 1) {
+            long pairs = 0;
+            equal = 0;
+            for (int col = 0; col < p; col += 1) {
+                long total = 0;
+                for (long f : columns[p * 7 + col]) {
+                    equal += f * (f - 1);
+                    total += f;
+                }
+                pairs += total * (total - 1);
+            }
+            assertEquals((double) equal / pairs, stats.periodicIoc(p),
+                         1e-12);
+        }
+    }
+
+    @Test
+    public void reportIsMachineReadable() throws IOException {
+        Alphabet upper = new CharacterRange('A', 'Z');
+        CiphertextStats stats = new CiphertextStats(upper, 2, 3);
+        stats.scan(new StringReader("Abab, ABA!\n"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stats.report(new PrintStream(bytes, true));
+        String report = bytes.toString();
+        assertTrue(report.startsWith("alphabet ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+                                     + "letters 7\n"));
+        assertTrue(report.contains("\nletter A 4\nletter B 3\nletter C 0\n"));
+        assertTrue(report.contains("\nbigram AB 3\nbigram BA 3\n"));
+        assertTrue(report.contains("\ntrigram ABA 3\ntrigram BAB 2\n"));
+        assertTrue(report.contains("\nperiod 2 1.000000\n"));
+    }
+
+}
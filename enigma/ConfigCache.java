@@ -0,0 +1,30 @@
+package enigma;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A thread-safe cache of parsed configuration files, each held as a
+ *  template Machine that is never used directly: callers take a
+ *  Machine.copy() of it.  Each file is read at most once (unless it
+ *  could not be read, in which case every request reports the error).
+ *  @author Vidhi Chander
+ */
+class ConfigCache {
+
+    /** Return the template for the configuration file NAME. */
+    Machine get(String name) {
+        Path path = Paths.get(name).toAbsolutePath().normalize();
+        return _configs.computeIfAbsent(path,
+                                        p -> Main.readConfig(name));
+    }
+
+    /** Return the number of configurations read. */
+    int size() {
+        return _configs.size();
+    }
+
+    /** The templates read so far, by absolute file name. */
+    private final ConcurrentHashMap<Path, Machine> _configs =
+        new ConcurrentHashMap<Path, Machine>();
+}
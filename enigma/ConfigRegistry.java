@@ -0,0 +1,210 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** The current rotor configuration read from a configuration file,
+ *  reloaded in the background whenever the file changes.  Each
+ *  successfully parsed and validated configuration is published
+ *  atomically as an unused template Machine; users take a private
+ *  Machine.copy() of current() (e.g., at each settings line), so that
+ *  work already under way keeps the definitions it started with.  A
+ *  malformed file is rejected and leaves current() unchanged.
+ *  @author Vidhi Chander
+ */
+class ConfigRegistry {
+
+    /** A registry for the configuration file named NAME, which must
+     *  currently hold a valid configuration. */
+    ConfigRegistry(String name) {
+        _path = Paths.get(name).toAbsolutePath();
+        _current = new AtomicReference<Machine>(load());
+    }
+
+    /** Return the most recently loaded configuration.  It must not be
+     *  used directly; use a copy() of it. */
+    Machine current() {
+        return _current.get();
+    }
+
+    /** Return the number of configurations published so far, counting
+     *  the initial one.  Changes exactly when current() does. */
+    int version() {
+        return _version;
+    }
+
+    /** Reread the configuration file, replacing current() if it holds a
+     *  valid configuration.  Returns true iff current() was replaced. */
+    boolean reload() {
+        long start = System.nanoTime();
+        try {
+            Machine config = load();
+            synchronized (this) {
+                _current.set(config);
+                _version += 1;
+                _reloads += 1;
+                _lastError = null;
+            }
+            _lastReloadNanos = System.nanoTime() - start;
+            return true;
+        } catch (EnigmaException excp) {
+            synchronized (this) {
+                _failures += 1;
+                _lastError = excp.getMessage();
+            }
+            return false;
+        }
+    }
+
+    /** Return the number of successful reloads (not counting the initial
+     *  load). */
+    synchronized int reloads() {
+        return _reloads;
+    }
+
+    /** Return the number of rejected reloads. */
+    synchronized int failures() {
+        return _failures;
+    }
+
+    /** Return the message describing why the last reload was rejected,
+     *  or null if it succeeded. */
+    synchronized String lastError() {
+        return _lastError;
+    }
+
+    /** Return the time taken by the last successful reload, in
+     *  nanoseconds. */
+    long lastReloadNanos() {
+        return _lastReloadNanos;
+    }
+
+    /** Start watching the configuration file for changes, reloading it
+     *  on a daemon thread after each change.  If VERBOSE, report each
+     *  reload or rejection on the standard error. */
+    synchronized void watch(boolean verbose) {
+        if (_watcher != null) {
+            return;
+        }
+        try {
+            _watcher = FileSystems.getDefault().newWatchService();
+            _path.getParent().register(_watcher, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException excp) {
+            throw error("could not watch %s", _path);
+        }
+        Thread thread = new Thread(() -> watchLoop(_watcher, verbose),
+                                   "enigma-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop watching the configuration file. */
+    synchronized void close() {
+        if (_watcher != null) {
+            try {
+                _watcher.close();
+            } catch (IOException excp) {
+                /* Ignore: we are shutting the watcher down anyway. */
+            }
+            _watcher = null;
+        }
+    }
+
+    /** Reload the configuration each time WATCHER reports a change to
+     *  it, until WATCHER is closed.  Reports results iff VERBOSE. */
+    private void watchLoop(WatchService watcher, boolean verbose) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    changed |= event.kind() == OVERFLOW
+                        || _path.getFileName().equals(context);
+                }
+                key.reset();
+                if (changed && reload() && verbose) {
+                    System.err.printf("Reloaded %s in %.1f ms%n", _path,
+                                      _lastReloadNanos * 1e-6);
+                } else if (changed && verbose) {
+                    System.err.printf("Rejected %s: %s%n", _path,
+                                      lastError());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            return;
+        }
+    }
+
+    /** Return a template Machine read from my configuration file, after
+     *  checking that it is usable. */
+    private Machine load() {
+        Machine config = Main.readConfig(_path.toString());
+        validate(config);
+        return config;
+    }
+
+    /** Check that CONFIG can be used for some settings: it must have at
+     *  least two slots, fewer pawls than slots, uniquely named rotors,
+     *  and enough reflectors, non-moving rotors and moving rotors to
+     *  fill its slots. */
+    static void validate(Machine config) {
+        int slots = config.numRotors();
+        int pawls = config.numPawls();
+        if (slots < 2 || pawls < 0 || pawls >= slots) {
+            throw error("bad rotor and pawl counts");
+        }
+        int reflectors = 0, fixed = 0, moving = 0;
+        HashSet<String> names = new HashSet<String>();
+        for (Rotor r : config.allRotors()) {
+            if (!names.add(r.name().toUpperCase())) {
+                throw error("Duplicate rotor name");
+            }
+            if (r.reflecting()) {
+                reflectors += 1;
+            } else if (r.rotates()) {
+                moving += 1;
+            } else {
+                fixed += 1;
+            }
+        }
+        if (reflectors == 0) {
+            throw error("no reflector");
+        }
+        if (moving < pawls || fixed + moving < slots - 1) {
+            throw error("too few rotors");
+        }
+    }
+
+    /** The configuration file. */
+    private final Path _path;
+
+    /** The current configuration. */
+    private final AtomicReference<Machine> _current;
+
+    /** Number of configurations published. */
+    private volatile int _version = 1;
+
+    /** Reload statistics. */
+    private int _reloads, _failures;
+
+    /** Duration of the last successful reload, in nanoseconds. */
+    private volatile long _lastReloadNanos;
+
+    /** Reason for the last rejection, or null. */
+    private String _lastError;
+
+    /** Watcher for my configuration file's directory, if watching. */
+    private WatchService _watcher;
+}
@@ -0,0 +1,145 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConfigRegistry class.
+ *  @author Vidhi Chander
+ */
+public class ConfigRegistryTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the text of a configuration whose moving rotors I and II
+     *  have the wirings of rotors FIRST and SECOND of the naval machine.
+     *  If EXTRA is not null, it is an additional rotor description. */
+    private static String config(String first, String second,
+                                 String extra) {
+        return "A-Z\n 4 2\n"
+            + " I MQ " + NAVALA.get(first) + "\n"
+            + " II ME " + NAVALA.get(second) + "\n"
+            + " Beta N " + NAVALA.get("Beta") + "\n"
+            + " B R " + NAVALA.get("B") + "\n"
+            + (extra == null ? "" : " " + extra + "\n");
+    }
+
+    /** Replace the contents of FILE with TEXT in one step, as an editor
+     *  saving it might. */
+    private static void rewrite(File file, String text) throws IOException {
+        Path temp = Files.createTempFile(file.getParentFile().toPath(),
+                                         "registry", ".tmp");
+        Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Return the conversion of MSG by the machine described by CONFIG,
+     *  set up by SETTINGS. */
+    private static String convert(String config, String msg)
+        throws IOException {
+        Machine m = Main.readConfig(fileContaining(config).getPath());
+        m.insertRotors(new String[] { "B", "Beta", "I", "II" });
+        m.setRotors("AXL");
+        return m.convert(msg);
+    }
+
+    /** Settings line used throughout, matching convert. */
+    private static final String SETTINGS = "* B Beta I II AXL";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void reloadsCountedAndMalformedRejected() throws IOException {
+        File conf = fileContaining(config("I", "II", null));
+        ConfigRegistry registry = new ConfigRegistry(conf.getPath());
+        Machine first = registry.current();
+        assertEquals(1, registry.version());
+        assertEquals(0, registry.reloads());
+        assertEquals(0, registry.failures());
+
+        rewrite(conf, "A-Z\n 4 2\n I MQ (AB\n");
+        assertFalse(registry.reload());
+        assertSame(first, registry.current());
+        assertEquals(1, registry.version());
+        assertEquals(1, registry.failures());
+        assertNotNull(registry.lastError());
+
+        rewrite(conf, config("II", "I", null));
+        assertTrue(registry.reload());
+        assertNotSame(first, registry.current());
+        assertEquals(2, registry.version());
+        assertEquals(1, registry.reloads());
+        assertEquals(1, registry.failures());
+        assertNull(registry.lastError());
+    }
+
+    @Test
+    public void duplicateNamesRejected() throws IOException {
+        File conf = fileContaining(config("I", "II", null));
+        ConfigRegistry registry = new ConfigRegistry(conf.getPath());
+        rewrite(conf, config("I", "II", "B R " + NAVALA.get("C")));
+        assertFalse(registry.reload());
+        assertEquals(1, registry.version());
+        assertEquals(1, registry.failures());
+    }
+
+    @Test
+    public void reloadAppliesAtNextSettingsLine() throws Exception {
+        File conf = fileContaining(config("I", "II", null));
+        PipedOutputStream feed = new PipedOutputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        Main main;
+        System.setIn(new PipedInputStream(feed));
+        System.setOut(new PrintStream(out, true));
+        try {
+            main = new Main(new String[] { "--watch", conf.getPath() });
+        } finally {
+            System.setIn(stdin);
+            System.setOut(stdout);
+        }
+        Thread processor = new Thread(main::process);
+        processor.start();
+        byte[] message = (SETTINGS + "\nHELLO\n")
+            .getBytes(StandardCharsets.UTF_8);
+        feed.write(message);
+        feed.flush();
+        while (out.size() == 0) {
+            Thread.sleep(10);
+        }
+        rewrite(conf, config("II", "I", null));
+        while (main.registry().version() == 1) {
+            Thread.sleep(10);
+        }
+        feed.write(message);
+        feed.close();
+        processor.join();
+        main.close();
+        assertEquals(String.format("%s%n%s%n",
+                                   convert(config("I", "II", null), "HELLO"),
+                                   convert(config("II", "I", null), "HELLO")),
+                     out.toString());
+    }
+
+}
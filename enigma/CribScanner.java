@@ -0,0 +1,417 @@
+package enigma;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** A scanner for the offsets in a ciphertext at which a crib (a guessed
+ *  piece of plaintext) may lie.  Since the reflector makes every
+ *  setting of the machine a derangement, no letter ever enciphers to
+ *  itself, so the crib cannot lie at any offset where one of its letters
+ *  coincides with the ciphertext letter beneath it.
+ *
+ *  The ciphertext (with characters outside the alphabet skipped) is read
+ *  as a stream of blocks, each overlapping the previous one by one less
+ *  than the crib length, which are scanned in parallel.  For each block,
+ *  the scanner builds a bit set of the positions of each crib letter and
+ *  ORs together those sets, shifted left by the letter's place in the
+ *  crib, 64 offsets per word.  The clear bits are the legal offsets.
+ *
+ *  Legal offsets are ranked by the quality of their menus, the graph
+ *  whose vertices are letters and whose edges join each crib letter to
+ *  the ciphertext letter below it: first by the number of closures
+ *  (independent cycles), then by the number of letters in the largest
+ *  connected component.
+ *  @author Vidhi Chander
+ */
+public final class CribScanner {
+
+    /** Scan as specified by ARGS, which consist of options followed by a
+     *  configuration file (which supplies the alphabet), a ciphertext
+     *  file and a crib.  The options are
+     *      --threads=N   scan with N threads (default: one per processor);
+     *      --top=K       list the K best offsets (default 10);
+     *      --all         list every legal offset, in order, instead.
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            int threads = Runtime.getRuntime().availableProcessors();
+            int top = 10;
+            boolean all = false;
+            int first;
+            for (first = 0; first < args.length
+                     && args[first].startsWith("--"); first += 1) {
+                String opt = args[first];
+                if (opt.startsWith("--threads=")) {
+                    threads = Options.parseInt(opt.substring(10));
+                } else if (opt.startsWith("--top=")) {
+                    top = Options.parseInt(opt.substring(6));
+                } else if (opt.equals("--all")) {
+                    all = true;
+                } else {
+                    throw error("unknown option: %s", opt);
+                }
+            }
+            if (args.length - first != 3) {
+                throw error("Usage: java enigma.CribScanner [OPTIONS] CONF "
+                            + "CIPHERTEXT CRIB");
+            }
+            Alphabet alpha = Main.readConfig(args[first]).alphabet();
+            CribScanner scanner =
+                new CribScanner(alpha, args[first + 2], threads, top);
+            if (all) {
+                scanner.listAll();
+            }
+            long start = System.nanoTime();
+            try (Reader in = new InputStreamReader(
+                     new FileInputStream(args[first + 1]),
+                     StandardCharsets.UTF_8)) {
+                scanner.scan(in);
+            } catch (IOException excp) {
+                throw error("could not read %s", args[first + 1]);
+            }
+            if (!all) {
+                scanner.report();
+            }
+            System.err.printf("%d legal offsets of %d in %.2f s%n",
+                              scanner.legal(), scanner.offsets(),
+                              (System.nanoTime() - start) * 1e-9);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A scanner for CRIB (ignoring characters not in ALPHA) in
+     *  ciphertexts over ALPHA, using THREADS threads and keeping the
+     *  TOP best offsets. */
+    CribScanner(Alphabet alpha, String crib, int threads, int top) {
+        _alphabet = alpha;
+        int[] letters = new int[crib.length()];
+        int n = 0;
+        for (int i = 0; i < crib.length(); i += 1) {
+            char c = Character.toUpperCase(crib.charAt(i));
+            if (_alphabet.contains(c)) {
+                letters[n] = _alphabet.toInt(c);
+                n += 1;
+            }
+        }
+        _crib = Arrays.copyOf(letters, n);
+        if (_crib.length == 0) {
+            throw error("empty crib");
+        }
+        _threads = threads;
+        _best = new CandidateCollector(top);
+    }
+
+    /** Arrange for scan to print every legal offset rather than keeping
+     *  the best ones. */
+    void listAll() {
+        _all = true;
+    }
+
+    /** Return the number of legal offsets found by scan. */
+    long legal() {
+        return _legal;
+    }
+
+    /** Return the number of offsets examined by scan. */
+    long offsets() {
+        return _offsets;
+    }
+
+    /** Return the best offsets found by scan, whose scores are as for
+     *  quality. */
+    Candidates best() {
+        return _best.snapshot();
+    }
+
+    /** Scan the ciphertext read from IN. */
+    void scan(Reader in) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        ArrayDeque<Future<long[]>> pending = new ArrayDeque<Future<long[]>>();
+        try {
+            char[] chars = new char[BUFFER_SIZE];
+            int m = _crib.length;
+            int[] block = new int[BLOCK_SIZE + m - 1];
+            _length = 0;
+            long base = 0;
+            int n;
+            while ((n = in.read(chars)) > 0) {
+                int done = 0;
+                while (done < n) {
+                    done = fill(chars, done, n, block);
+                    if (_length == block.length) {
+                        pending.add(submit(pool, block, base));
+                        base += _length - m + 1;
+                        int[] next = new int[block.length];
+                        System.arraycopy(block, _length - m + 1, next, 0,
+                                         m - 1);
+                        block = next;
+                        _length = m - 1;
+                        while (pending.size() > 2 * _threads) {
+                            collect(pending.poll());
+                        }
+                    }
+                }
+            }
+            if (_length >= m) {
+                pending.add(submit(pool, block, base));
+            }
+            while (!pending.isEmpty()) {
+                collect(pending.poll());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Add the letters in CHARS[FROM .. TO-1] to BLOCK after its first
+     *  _length letters until it is full, and return the index in CHARS
+     *  of the first character not used. */
+    private int fill(char[] chars, int from, int to, int[] block) {
+        int i;
+        for (i = from; i < to && _length < block.length; i += 1) {
+            char c = Character.toUpperCase(chars[i]);
+            if (_alphabet.contains(c)) {
+                block[_length] = _alphabet.toInt(c);
+                _length += 1;
+            }
+        }
+        return i;
+    }
+
+    /** Start scanning the first _length letters of BLOCK, whose first
+     *  letter is at offset BASE in the ciphertext, using POOL.  The
+     *  result holds the number of legal offsets, followed by those
+     *  offsets if listing them all. */
+    private Future<long[]> submit(ExecutorService pool, int[] block,
+                                  long base) {
+        int len = _length;
+        _offsets += len - _crib.length + 1;
+        return pool.submit(() -> scanBlock(block, len, base));
+    }
+
+    /** Add the result of scanning a block, from RESULT, to the totals. */
+    private void collect(Future<long[]> result) {
+        long[] offsets;
+        try {
+            offsets = result.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("scan interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof EnigmaException) {
+                throw (EnigmaException) cause;
+            }
+            throw error("scan failed: %s", cause);
+        }
+        _legal += offsets[0];
+        for (int i = 1; i < offsets.length; i += 1) {
+            System.out.println(offsets[i]);
+        }
+    }
+
+    /** Return the result of scanning TEXT[0 .. LEN-1], whose first letter
+     *  is at offset BASE of the ciphertext (see submit), adding its best
+     *  offsets to _best. */
+    long[] scanBlock(int[] text, int len, long base) {
+        long[] conflicts = conflicts(text, len, _crib, _alphabet.size());
+        CandidateCollector.Local best = _best.local();
+        Menu menu = new Menu(_alphabet.size());
+        long[] result = new long[_all ? 1 + len : 1];
+        int last = len - _crib.length;
+        for (int w = 0; w <= last >>> 6; w += 1) {
+            long legal = ~conflicts[w];
+            if (w == last >>> 6 && (last & 63) != 63) {
+                legal &= (1L << ((last & 63) + 1)) - 1;
+            }
+            for (; legal != 0; legal &= legal - 1) {
+                int offset = (w << 6) + Long.numberOfTrailingZeros(legal);
+                result[0] += 1;
+                if (_all) {
+                    result[(int) result[0]] = base + offset;
+                } else {
+                    long score = menu.quality(text, offset, _crib);
+                    if (score >= best.threshold()) {
+                        best.add(score, base + offset);
+                    }
+                }
+            }
+        }
+        best.flush();
+        return _all ? Arrays.copyOf(result, 1 + (int) result[0]) : result;
+    }
+
+    /** Return a bit set (64 bits per word, low-order bits first) whose
+     *  bit K is set iff placing CRIB at offset K of TEXT[0 .. LEN-1]
+     *  would put a crib letter over the same ciphertext letter, where
+     *  the letters are indices in an alphabet of N letters.  Bits beyond
+     *  LEN - CRIB.length are meaningless. */
+    static long[] conflicts(int[] text, int len, int[] crib, int n) {
+        int words = (len + 63) >>> 6;
+        long[][] where = new long[n][];
+        for (int c : crib) {
+            if (where[c] == null) {
+                where[c] = new long[words];
+            }
+        }
+        for (int p = 0; p < len; p += 1) {
+            long[] bits = where[text[p]];
+            if (bits != null) {
+                bits[p >>> 6] |= 1L << p;
+            }
+        }
+        long[] result = new long[words];
+        for (int i = 0; i < crib.length; i += 1) {
+            long[] bits = where[crib[i]];
+            int q = i >>> 6, r = i & 63;
+            for (int w = 0; w + q < words; w += 1) {
+                long v = bits[w + q] >>> r;
+                if (r != 0 && w + q + 1 < words) {
+                    v |= bits[w + q + 1] << (64 - r);
+                }
+                result[w] |= v;
+            }
+        }
+        return result;
+    }
+
+    /** Print my best offsets. */
+    private void report() {
+        Candidates best = best();
+        for (int i = 0; i < best.size(); i += 1) {
+            long score = best.score(i);
+            System.out.printf("%d %d closures, %d letters%n", best.key(i),
+                              Menu.closures(score, _alphabet.size()),
+                              Menu.largest(score, _alphabet.size()));
+        }
+    }
+
+    /** Scratch space for evaluating menus over an alphabet. */
+    static class Menu {
+
+        /** Scratch space for menus over an alphabet of N letters. */
+        Menu(int n) {
+            _n = n;
+            _parent = new int[n];
+            _size = new int[n];
+            Arrays.fill(_parent, -1);
+        }
+
+        /** Return the quality of the menu for CRIB at OFFSET in TEXT:
+         *  closures * (N + 1) + largest, where N is the alphabet size,
+         *  closures is the number of independent cycles (edges - letters
+         *  + components), and largest is the number of letters in the
+         *  largest connected component. */
+        long quality(int[] text, int offset, int[] crib) {
+            int m = crib.length;
+            int letters = 0, components = 0, largest = 1;
+            for (int i = 0; i < m; i += 1) {
+                int a = crib[i], b = text[offset + i];
+                if (_parent[a] < 0) {
+                    _parent[a] = a;
+                    _size[a] = 1;
+                    letters += 1;
+                    components += 1;
+                }
+                if (_parent[b] < 0) {
+                    _parent[b] = b;
+                    _size[b] = 1;
+                    letters += 1;
+                    components += 1;
+                }
+                a = root(a);
+                b = root(b);
+                if (a != b) {
+                    if (_size[a] < _size[b]) {
+                        int t = a;
+                        a = b;
+                        b = t;
+                    }
+                    _parent[b] = a;
+                    _size[a] += _size[b];
+                    largest = Math.max(largest, _size[a]);
+                    components -= 1;
+                }
+            }
+            for (int i = 0; i < m; i += 1) {
+                _parent[crib[i]] = -1;
+                _parent[text[offset + i]] = -1;
+            }
+            return (long) (m - letters + components) * (_n + 1) + largest;
+        }
+
+        /** Return the number of closures in a menu of quality SCORE over
+         *  an alphabet of N letters. */
+        static int closures(long score, int n) {
+            return (int) (score / (n + 1));
+        }
+
+        /** Return the size of the largest component in a menu of quality
+         *  SCORE over an alphabet of N letters. */
+        static int largest(long score, int n) {
+            return (int) (score % (n + 1));
+        }
+
+        /** Return the representative of C's component. */
+        private int root(int c) {
+            while (_parent[c] != c) {
+                _parent[c] = _parent[_parent[c]];
+                c = _parent[c];
+            }
+            return c;
+        }
+
+        /** Alphabet size. */
+        private final int _n;
+
+        /** Union-find parents: negative for letters not in the menu. */
+        private final int[] _parent;
+
+        /** Number of letters in each component, at its root. */
+        private final int[] _size;
+    }
+
+    /** Characters read at a time. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** New letters per block. */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The crib, as alphabet indices. */
+    private final int[] _crib;
+
+    /** Number of threads. */
+    private final int _threads;
+
+    /** The best offsets. */
+    private final CandidateCollector _best;
+
+    /** True iff listing every legal offset. */
+    private boolean _all;
+
+    /** Number of letters in the block being filled. */
+    private int _length;
+
+    /** Number of legal offsets found. */
+    private long _legal;
+
+    /** Number of offsets examined. */
+    private long _offsets;
+}
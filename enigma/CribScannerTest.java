@@ -0,0 +1,105 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the CribScanner class.
+ *  @author Vidhi Chander
+ */
+public class CribScannerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The digits and capitals, with some punctuation between. */
+    private static final Alphabet WIDE = new CharacterRange('0', 'Z');
+
+    /** Return LEN random letters of ALPHA, separated now and then by
+     *  spaces, using RANDOM. */
+    private static String randomText(Alphabet alpha, int len,
+                                     Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < len; i += 1) {
+            text.append(alpha.toChar(random.nextInt(alpha.size())));
+            if (i % 5 == 4) {
+                text.append(' ');
+            }
+        }
+        return text.toString();
+    }
+
+    /** Return the number of offsets at which CRIB may lie under TEXT,
+     *  counted the slow way. */
+    private static long bruteForce(Alphabet alpha, String text,
+                                   String crib) {
+        text = text.replace(" ", "");
+        long count = 0;
+        for (int k = 0; k + crib.length() <= text.length(); k += 1) {
+            boolean legal = true;
+            for (int i = 0; i < crib.length() && legal; i += 1) {
+                legal = text.charAt(k + i) != crib.charAt(i);
+            }
+            count += legal ? 1 : 0;
+        }
+        return count;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void conflictsAcrossWords() {
+        int[] text = new int[200];
+        int[] crib = new int[70];
+        crib[69] = 1;
+        for (int i = 0; i < 200; i += 1) {
+            text[i] = i == 150 ? 1 : 2;
+        }
+        long[] bits = CribScanner.conflicts(text, 200, crib, 3);
+        for (int k = 0; k <= 130; k += 1) {
+            boolean set = (bits[k >>> 6] & (1L << k)) != 0;
+            assertEquals("offset " + k, k == 81, set);
+        }
+    }
+
+    @Test
+    public void matchesBruteForceAcrossBlocks() throws IOException {
+        Random random = new Random(33);
+        Alphabet small = new CharacterRange('1', '5');
+        String text = randomText(small, CribScanner.BLOCK_SIZE * 2 + 12345,
+                                 random);
+        String crib = "12345123";
+        CribScanner scanner = new CribScanner(small, crib, 3, 5);
+        scanner.scan(new StringReader(text));
+        assertEquals(bruteForce(small, text, crib), scanner.legal());
+        assertEquals(text.replace(" ", "").length() - crib.length() + 1,
+                     scanner.offsets());
+        assertEquals(5, scanner.best().size());
+    }
+
+    @Test
+    public void menusRankedByClosures() throws IOException {
+        String crib = "0123";
+        String text = "ABCDEF" + "1204" + "GHIJ" + "1032" + "KLMN";
+        CribScanner scanner = new CribScanner(WIDE, crib, 1, 3);
+        scanner.scan(new StringReader(text));
+        assertEquals(bruteForce(WIDE, text, crib), scanner.legal());
+        long score = scanner.best().score(0);
+        assertEquals(14, scanner.best().key(0));
+        assertEquals(2, CribScanner.Menu.closures(score, WIDE.size()));
+        assertEquals(2, CribScanner.Menu.largest(score, WIDE.size()));
+        score = scanner.best().score(1);
+        assertEquals(6, scanner.best().key(1));
+        assertEquals(1, CribScanner.Menu.closures(score, WIDE.size()));
+        assertEquals(3, CribScanner.Menu.largest(score, WIDE.size()));
+    }
+
+}
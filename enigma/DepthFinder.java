@@ -0,0 +1,438 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** A search of a corpus of ciphertexts for pairs that are in depth:
+ *  enciphered at overlapping stretches of the same key stream, so that
+ *  when aligned, their letters agree about as often as those of two
+ *  plaintexts do rather than as often as those of random text.  Each
+ *  pair of messages A and B is compared at every offset D from -M to M,
+ *  counting the places K at which A[K] = B[K + D].  Each alignment is
+ *  scored by the weight of evidence, in decibans, that its agreements
+ *  give for depth (letters agreeing at a plaintext rate, by default
+ *  0.066) over chance (letters agreeing at the corpus's own index of
+ *  coincidence): each agreement adds 10 log10(plaintext rate / corpus
+ *  rate) and each disagreement the (negative) corresponding amount for
+ *  disagreement.  So scores grow with the length of a true depth, and
+ *  short alignments that agree often by chance do not outrank it.
+ *
+ *  Each message is stored as bit planes: plane P holds bit P of the
+ *  alphabet index of each of its letters, 64 letters to a long, and a
+ *  further plane marks the places that hold letters.  Letters agree
+ *  where no plane differs, so one pass over the planes compares 64
+ *  places.  Messages are compared in tiles of TILE by TILE, each in a
+ *  separate task: for each message B of one tile and each offset, B's
+ *  planes are shifted once and compared with every message of the other
+ *  tile, whose planes stay in cache.  Each task collects its best pairs
+ *  as a CandidateCollector.Local.
+ *  @author Vidhi Chander
+ */
+public final class DepthFinder {
+
+    /** Search for messages in depth as specified by ARGS, which consist
+     *  of options followed by a configuration file (which supplies the
+     *  alphabet) and a corpus file, each of whose lines (other than
+     *  blank lines and those starting with '*') is a ciphertext.  Print
+     *  the best pairs as described for report.  The options are
+     *      --threads=N      compare with N threads (default: one per
+     *                       processor);
+     *      --top=K          report the best K pairs (default 20);
+     *      --max-offset=M   try offsets from -M to M (default 25);
+     *      --kappa=R        assume letters of plaintexts in depth agree
+     *                       at rate R (default 0.066);
+     *      --min-overlap=L  ignore alignments in which the messages
+     *                       overlap at fewer than L places (default 20).
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            int threads = Runtime.getRuntime().availableProcessors();
+            int top = 20, maxOffset = 25, minOverlap = 20;
+            double kappa = DEFAULT_KAPPA;
+            int first;
+            for (first = 0; first < args.length
+                     && args[first].startsWith("--"); first += 1) {
+                String opt = args[first];
+                String value = opt.substring(opt.indexOf('=') + 1);
+                if (opt.startsWith("--threads=")) {
+                    threads = Options.parseInt(value);
+                } else if (opt.startsWith("--top=")) {
+                    top = Options.parseInt(value);
+                } else if (opt.startsWith("--max-offset=")) {
+                    maxOffset = Options.parseInt(value);
+                } else if (opt.startsWith("--min-overlap=")) {
+                    minOverlap = Options.parseInt(value);
+                } else if (opt.startsWith("--kappa=")) {
+                    kappa = parseRate(value);
+                } else {
+                    throw error("unknown option: %s", opt);
+                }
+            }
+            if (args.length - first != 2) {
+                throw error("Usage: java enigma.DepthFinder [OPTIONS] "
+                            + "CONF CORPUS");
+            }
+            DepthFinder finder =
+                new DepthFinder(Main.readConfig(args[first]).alphabet());
+            try (BufferedReader in =
+                 Files.newBufferedReader(Paths.get(args[first + 1]),
+                                         StandardCharsets.UTF_8)) {
+                finder.read(in);
+            } catch (IOException excp) {
+                throw error("could not read %s", args[first + 1]);
+            }
+            long start = System.nanoTime();
+            Candidates best =
+                finder.find(maxOffset, minOverlap, kappa, top, threads);
+            finder.report(best, System.out);
+            System.err.printf("%d messages compared in %.2f s%n",
+                              finder.messages(),
+                              (System.nanoTime() - start) * 1e-9);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the rate denoted by S. */
+    private static double parseRate(String s) {
+        try {
+            double rate = Double.parseDouble(s);
+            if (rate > 0 && rate < 1) {
+                return rate;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad rate: %s", s);
+    }
+
+    /** An empty corpus of messages over ALPHA. */
+    DepthFinder(Alphabet alpha) {
+        _alphabet = alpha;
+        _bits = 32 - Integer.numberOfLeadingZeros(alpha.size() - 1);
+        _stride = _bits + 1;
+        _frequencies = new long[alpha.size()];
+    }
+
+    /** Add each line read from IN, other than blank lines and those
+     *  starting with '*', as a message, identified by its line number
+     *  (starting at 1). */
+    void read(BufferedReader in) throws IOException {
+        String line;
+        for (int number = 1; (line = in.readLine()) != null; number += 1) {
+            if (!line.trim().isEmpty() && line.charAt(0) != '*') {
+                add(line, number);
+            }
+        }
+    }
+
+    /** Add the letters of TEXT (upper-cased, skipping other characters)
+     *  as a message identified by NUMBER. */
+    void add(String text, int number) {
+        if (_count == MAX_MESSAGES) {
+            throw error("too many messages");
+        }
+        int[] letters = new int[text.length()];
+        int len = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = Character.toUpperCase(text.charAt(i));
+            if (_alphabet.contains(c)) {
+                letters[len] = _alphabet.toInt(c);
+                _frequencies[letters[len]] += 1;
+                len += 1;
+            }
+        }
+        long[] planes = new long[words(len) * _stride];
+        for (int k = 0; k < len; k += 1) {
+            int base = (k >>> 6) * _stride;
+            long bit = 1L << k;
+            planes[base] |= bit;
+            for (int p = 0; p < _bits; p += 1) {
+                if ((letters[k] & (1 << p)) != 0) {
+                    planes[base + 1 + p] |= bit;
+                }
+            }
+        }
+        if (_count == _lengths.length) {
+            _lengths = Arrays.copyOf(_lengths, 2 * _count);
+            _numbers = Arrays.copyOf(_numbers, 2 * _count);
+        }
+        _lengths[_count] = len;
+        _numbers[_count] = number;
+        _planes.add(planes);
+        _count += 1;
+    }
+
+    /** Return the number of messages. */
+    int messages() {
+        return _count;
+    }
+
+    /** Return the number of letters in message A (numbered from 0 in
+     *  the order added). */
+    int length(int a) {
+        return _lengths[a];
+    }
+
+    /** Return the identifying number given for message A. */
+    int number(int a) {
+        return _numbers[a];
+    }
+
+    /** Return the probability that two letters of the corpus, at
+     *  different places, agree (1/N for an alphabet of N letters if there
+     *  are fewer than two). */
+    double coincidenceRate() {
+        long total = 0, equal = 0;
+        for (long f : _frequencies) {
+            equal += f * (f - 1);
+            total += f;
+        }
+        if (total < 2) {
+            return 1.0 / _alphabet.size();
+        }
+        return (double) equal / (total * (total - 1));
+    }
+
+    /** Return the number of places K at which A[K] = B[K + D]. */
+    int coincidences(int a, int b, int d) {
+        long[] shifted = new long[words(_lengths[a]) * _stride];
+        shift(b, d, shifted);
+        return count(_planes.get(a), shifted, 0, shifted.length);
+    }
+
+    /** Return the number of places at which messages of lengths LENA
+     *  and LENB overlap when aligned at offset D. */
+    static int overlap(int lenA, int lenB, int d) {
+        return Math.max(0, Math.min(lenA, lenB - d) - Math.max(0, -d));
+    }
+
+    /** Return the score, in thousandths of a deciban, of COINCIDENCES
+     *  agreements at OVERLAP places, where an agreement is worth MATCH
+     *  decibans and a disagreement MISS. */
+    static long score(int coincidences, int overlap, double match,
+                      double miss) {
+        return Math.round((coincidences * match
+                           + (overlap - coincidences) * miss) * 1000);
+    }
+
+    /** Return the best TOP alignments of pairs of distinct messages, at
+     *  offsets from -MAXOFFSET to MAXOFFSET that overlap at MINOVERLAP
+     *  or more places, where letters in depth agree at rate KAPPA, using
+     *  THREADS threads.  Scores are as for score, and keys as for
+     *  key. */
+    Candidates find(int maxOffset, int minOverlap, double kappa, int top,
+                    int threads) {
+        if (maxOffset < 0 || maxOffset > MAX_OFFSET) {
+            throw error("offsets must be from 0 to %d", MAX_OFFSET);
+        }
+        double rate = coincidenceRate();
+        if (kappa <= rate) {
+            throw error("messages agree at rate %.4f, not less than %.4f",
+                        rate, kappa);
+        }
+        double match = 10 * Math.log10(kappa / rate);
+        double miss = 10 * Math.log10((1 - kappa) / (1 - rate));
+        CandidateCollector best = new CandidateCollector(top);
+        int tiles = (messages() + TILE - 1) / TILE;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        try {
+            for (int tb = 0; tb < tiles; tb += 1) {
+                for (int ta = 0; ta <= tb; ta += 1) {
+                    int a0 = ta * TILE, b0 = tb * TILE;
+                    pending.add(pool.submit(() -> compareTiles(
+                        a0, b0, maxOffset, Math.max(1, minOverlap), match,
+                        miss, best.local())));
+                }
+            }
+            for (Future<?> result : pending) {
+                result.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("search interrupted");
+        } catch (ExecutionException excp) {
+            throw error("search failed: %s", excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return best.snapshot();
+    }
+
+    /** Compare each message A of the tile starting at A0 with each
+     *  message B of the tile starting at B0 such that A < B, at offsets
+     *  from -MAXOFFSET to MAXOFFSET that overlap at MINOVERLAP or more
+     *  places, scoring them with MATCH and MISS as for score, and add the
+     *  results to BEST. */
+    private void compareTiles(int a0, int b0, int maxOffset, int minOverlap,
+                              double match, double miss,
+                              CandidateCollector.Local best) {
+        int a1 = Math.min(a0 + TILE, messages());
+        int b1 = Math.min(b0 + TILE, messages());
+        int words = 0;
+        for (int a = a0; a < a1; a += 1) {
+            words = Math.max(words, words(_lengths[a]));
+        }
+        long[] shifted = new long[words * _stride];
+        for (int b = b0; b < b1; b += 1) {
+            int lenB = _lengths[b];
+            for (int d = -maxOffset; d <= maxOffset; d += 1) {
+                boolean shiftedYet = false;
+                for (int a = a0; a < a1 && a < b; a += 1) {
+                    int overlap = overlap(_lengths[a], lenB, d);
+                    if (overlap < minOverlap) {
+                        continue;
+                    }
+                    if (!shiftedYet) {
+                        shift(b, d, shifted);
+                        shiftedYet = true;
+                    }
+                    int from = Math.max(0, -d) >>> 6;
+                    int to = words(Math.min(_lengths[a], lenB - d));
+                    long score = score(count(_planes.get(a), shifted,
+                                             from * _stride, to * _stride),
+                                       overlap, match, miss);
+                    if (score >= best.threshold()) {
+                        best.add(score, key(a, b, d));
+                    }
+                }
+            }
+        }
+        best.flush();
+    }
+
+    /** Set SHIFTED to the planes of message B moved D places towards
+     *  its start, so that place K of SHIFTED holds place K + D of B, for
+     *  as many words as SHIFTED holds. */
+    private void shift(int b, int d, long[] shifted) {
+        long[] planes = _planes.get(b);
+        int q = Math.floorDiv(d, 64), r = Math.floorMod(d, 64);
+        for (int w = 0; w < shifted.length / _stride; w += 1) {
+            for (int p = 0; p < _stride; p += 1) {
+                long low = word(planes, w + q, p);
+                long high = r == 0 ? 0 : word(planes, w + q + 1, p) << (64 - r);
+                shifted[w * _stride + p] = (low >>> r) | high;
+            }
+        }
+    }
+
+    /** Return word W of plane P of PLANES, or 0 if there is none. */
+    private long word(long[] planes, int w, int p) {
+        int i = w * _stride + p;
+        return w < 0 || i >= planes.length ? 0 : planes[i];
+    }
+
+    /** Return the number of places holding equal letters in both of the
+     *  planes A and B, which have the same layout, in their elements
+     *  FROM to TO-1 (which are whole words, and may extend past the end
+     *  of either). */
+    private int count(long[] a, long[] b, int from, int to) {
+        int result = 0;
+        int n = Math.min(to, Math.min(a.length, b.length));
+        for (int i = from; i < n; i += _stride) {
+            long differ = 0;
+            for (int p = 1; p < _stride; p += 1) {
+                differ |= a[i + p] ^ b[i + p];
+            }
+            result += Long.bitCount(a[i] & b[i] & ~differ);
+        }
+        return result;
+    }
+
+    /** Return the number of words in a plane of LEN places. */
+    private static int words(int len) {
+        return (len + 63) >>> 6;
+    }
+
+    /** Return the candidate key for messages A and B at offset D. */
+    static long key(int a, int b, int d) {
+        return ((long) a << 40) | ((long) b << 16) | (d + MAX_OFFSET + 1);
+    }
+
+    /** Return the first message of the candidate key KEY. */
+    static int first(long key) {
+        return (int) (key >>> 40);
+    }
+
+    /** Return the second message of the candidate key KEY. */
+    static int second(long key) {
+        return (int) (key >>> 16) & (MAX_MESSAGES - 1);
+    }
+
+    /** Return the offset of the candidate key KEY. */
+    static int offset(long key) {
+        return (int) (key & 0xffff) - MAX_OFFSET - 1;
+    }
+
+    /** Print the candidates BEST on OUT, best first, one per line, as
+     *      depth A B D OVERLAP COINCIDENCES SCORE
+     *  where A and B are the numbers given for the messages, the D+1st
+     *  letter of B lines up with the first of A, OVERLAP is the number
+     *  of places at which they overlap, COINCIDENCES the number at
+     *  which they agree, and SCORE the weight of evidence for depth in
+     *  decibans. */
+    void report(Candidates best, PrintStream out) {
+        for (int i = 0; i < best.size(); i += 1) {
+            long key = best.key(i);
+            int a = first(key), b = second(key), d = offset(key);
+            out.printf(Locale.ROOT, "depth %d %d %d %d %d %.3f%n",
+                       number(a), number(b), d,
+                       overlap(_lengths[a], _lengths[b], d),
+                       coincidences(a, b, d), best.score(i) / 1000.0);
+        }
+    }
+
+    /** Default rate at which letters of plaintexts in depth agree. */
+    static final double DEFAULT_KAPPA = 0.066;
+
+    /** Number of messages in each tile. */
+    static final int TILE = 64;
+
+    /** Largest number of messages. */
+    static final int MAX_MESSAGES = 1 << 24;
+
+    /** Largest offset. */
+    static final int MAX_OFFSET = (1 << 15) - 1;
+
+    /** Alphabet of the messages. */
+    private final Alphabet _alphabet;
+
+    /** Number of bits in an alphabet index. */
+    private final int _bits;
+
+    /** Number of planes per message (including the one marking
+     *  letters), which are interleaved word by word. */
+    private final int _stride;
+
+    /** Number of occurrences of each letter in the corpus. */
+    private final long[] _frequencies;
+
+    /** The planes of each message. */
+    private final List<long[]> _planes = new ArrayList<long[]>();
+
+    /** Number of letters of each message. */
+    private int[] _lengths = new int[16];
+
+    /** Identifying number of each message. */
+    private int[] _numbers = new int[16];
+
+    /** Number of messages. */
+    private int _count;
+}
@@ -0,0 +1,131 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the DepthFinder class.
+ *  @author Vidhi Chander
+ */
+public class DepthFinderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Plaintext from which messages are taken. */
+    private static final String PLAIN =
+        ("Should you ask me whence these stories whence these legends and"
+         + " traditions with the odours of the forest with the dew and damp"
+         + " of meadows with the curling smoke of wigwams with the rushing"
+         + " of great rivers with their frequent repetitions and their wild"
+         + " reverberations as of thunder in the mountains I should answer"
+         + " I should tell you from the forests and the prairies from the"
+         + " great lakes of the northland from the land of the ojibways from"
+         + " the land of the dacotahs from the mountains moors and fenlands"
+         + " where the heron the shuh shuh gah feeds among the reeds and"
+         + " rushes").toUpperCase().replace(" ", "");
+
+    /** Return LEN letters of PLAIN starting at FROM, wrapping around. */
+    private static String plain(int from, int len) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < len; i += 1) {
+            result.append(PLAIN.charAt((from + i) % PLAIN.length()));
+        }
+        return result.toString();
+    }
+
+    /** Return the number of places K at which A[K] = B[K + D]. */
+    private static int naive(String a, String b, int d) {
+        int result = 0;
+        for (int k = 0; k < a.length(); k += 1) {
+            if (k + d >= 0 && k + d < b.length()
+                && a.charAt(k) == b.charAt(k + d)) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void coincidencesMatchNaiveCount() {
+        Random random = new Random(45);
+        DepthFinder finder = new DepthFinder(UPPER);
+        String[] texts = new String[12];
+        for (int i = 0; i < texts.length; i += 1) {
+            char[] text = new char[1 + random.nextInt(300)];
+            for (int k = 0; k < text.length; k += 1) {
+                text[k] = (char) ('A' + random.nextInt(3));
+            }
+            texts[i] = new String(text);
+            finder.add(texts[i].toLowerCase() + " 123", i + 1);
+        }
+        for (int a = 0; a < texts.length; a += 1) {
+            assertEquals(texts[a].length(), finder.length(a));
+            for (int b = 0; b < texts.length; b += 1) {
+                for (int d = -140; d <= 140; d += 1) {
+                    assertEquals(msg("coincidences", "%d %d %d", a, b, d),
+                                 naive(texts[a], texts[b], d),
+                                 finder.coincidences(a, b, d));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findsPlantedDepth() {
+        Random random = new Random(46);
+        DepthFinder finder = new DepthFinder(UPPER);
+        Machine m = EngineTest.naval();
+        for (int i = 0; i < 120; i += 1) {
+            EngineTest.randomSetUp(m, random);
+            if (i == 37 || i == 111) {
+                m.insertRotors(new String[] { "B", "Beta", "III", "IV",
+                                              "I" });
+                m.setRotors("AXLE");
+                m.setPlugboard(null);
+                if (i == 111) {
+                    m.convert(plain(0, 9));
+                }
+            }
+            String text = plain(random.nextInt(PLAIN.length()),
+                                60 + random.nextInt(200));
+            if (i == 37 || i == 111) {
+                text = plain(i == 37 ? 0 : 200, 3000);
+            }
+            finder.add(m.convert(text), i + 1);
+        }
+        Candidates best =
+            finder.find(20, 20, DepthFinder.DEFAULT_KAPPA, 5, 4);
+        assertEquals(5, best.size());
+        long key = best.key(0);
+        assertEquals(37, DepthFinder.first(key));
+        assertEquals(111, DepthFinder.second(key));
+        assertEquals(-9, DepthFinder.offset(key));
+        assertTrue(best.score(0) > best.score(1) + 10000);
+        Candidates serial =
+            finder.find(20, 20, DepthFinder.DEFAULT_KAPPA, 5, 1);
+        for (int i = 0; i < best.size(); i += 1) {
+            assertEquals(serial.key(i), best.key(i));
+            assertEquals(serial.score(i), best.score(i));
+        }
+    }
+
+    @Test
+    public void keysRoundTrip() {
+        long key = DepthFinder.key(12345, 7000000, -32767);
+        assertEquals(12345, DepthFinder.first(key));
+        assertEquals(7000000, DepthFinder.second(key));
+        assertEquals(-32767, DepthFinder.offset(key));
+    }
+
+}
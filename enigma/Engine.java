@@ -0,0 +1,55 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A method of converting messages on a Machine.  Every engine must
+ *  produce exactly the results of the reference engine (the object walk
+ *  through Rotor and Permutation done by Machine.convert(int)) and leave
+ *  the machine's rotors in the same settings.  An engine may keep
+ *  scratch state, so each Machine has its own.
+ *  @author Vidhi Chander
+ */
+interface Engine {
+
+    /** Names of the general-purpose engines, fastest last, as tried by
+     *  calibration.  create also accepts "specialized" (see
+     *  SpecializedEngine), which is left out because generating its code
+     *  costs more than it saves on short inputs. */
+    String[] NAMES = { "reference", "table", "batch", "period" };
+
+    /** Return my name, as accepted by create. */
+    String name();
+
+    /** Return a new engine like me, for use by another machine. */
+    Engine copy();
+
+    /** Return true iff I am worth considering for M as currently set up.
+     *  Calibration skips engines that are not. */
+    default boolean suits(Machine m) {
+        return true;
+    }
+
+    /** Replace MSG[FROM .. TO-1], which are indices into M's alphabet,
+     *  with their conversions by M, advancing M's rotors as for
+     *  Machine.convert(int). */
+    void convert(Machine m, int[] msg, int from, int to);
+
+    /** Return a new engine whose name() is NAME. */
+    static Engine create(String name) {
+        switch (name) {
+        case "reference":
+            return new ReferenceEngine();
+        case "table":
+            return new TableEngine();
+        case "batch":
+            return new BatchEngine();
+        case "period":
+            return new PeriodEngine();
+        case "specialized":
+            return new SpecializedEngine();
+        default:
+            throw error("unknown engine: %s", name);
+        }
+    }
+
+}
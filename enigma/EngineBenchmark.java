@@ -0,0 +1,70 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A benchmark of the conversion engines on one machine set-up.  Each
+ *  engine converts the same random message several times on a fresh
+ *  copy of the machine, and the best time is reported, in nanoseconds
+ *  per character and relative to the table engine.
+ *  @author Vidhi Chander
+ */
+public final class EngineBenchmark {
+
+    /** Benchmark the engines as specified by ARGS: a configuration file,
+     *  a settings line (one argument, as for a settings line of the
+     *  input), and optionally the message length (default 4194304) and
+     *  number of rounds (default 10).  Exits normally if there are no
+     *  errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2 || args.length > 4) {
+                throw error("Usage: java enigma.EngineBenchmark CONF "
+                            + "SETTINGS [LENGTH [ROUNDS]]");
+            }
+            int length = args.length > 2
+                ? Options.parseInt(args[2]) : 1 << 22;
+            int rounds = args.length > 3 ? Options.parseInt(args[3]) : 10;
+            Machine template = Main.readConfig(args[0]);
+            List<String> names = new ArrayList<String>(
+                Arrays.asList(Engine.NAMES));
+            names.add("specialized");
+            int[] message = new int[length];
+            Random random = new Random(0);
+            for (int i = 0; i < length; i += 1) {
+                message[i] = random.nextInt(template.alphabet().size());
+            }
+            long tableTime = 0;
+            System.out.printf("%-12s %10s %10s%n", "engine", "ns/char",
+                              "vs table");
+            for (String name : names) {
+                Machine m = template.copy();
+                Main.applySettings(m, args[1]);
+                m.setEngine(Engine.create(name));
+                long time = Long.MAX_VALUE;
+                for (int round = 0; round < rounds; round += 1) {
+                    int[] msg = message.clone();
+                    long start = System.nanoTime();
+                    m.engine().convert(m, msg, 0, msg.length);
+                    time = Math.min(time, System.nanoTime() - start);
+                }
+                if (name.equals("table")) {
+                    tableTime = time;
+                }
+                System.out.printf("%-12s %10.2f %10s%n", name,
+                                  (double) time / length,
+                                  tableTime == 0 ? "" : String.format(
+                                      "%.2fx", (double) tableTime / time));
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+}
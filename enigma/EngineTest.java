@@ -0,0 +1,175 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Engine implementations.
+ *  @author Vidhi Chander
+ */
+public class EngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Notches of the naval rotors. */
+    private static final String[][] NOTCHES = {
+        { "I", "Q" }, { "II", "E" }, { "III", "V" }, { "IV", "J" },
+        { "V", "Z" }, { "VI", "ZM" }, { "VII", "ZM" }, { "VIII", "ZM" },
+    };
+
+    /** Return a machine with the naval rotors, 5 slots and 3 pawls. */
+    static Machine naval() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String[] rotor : NOTCHES) {
+            rotors.add(new MovingRotor(rotor[0],
+                new Permutation(NAVALA.get(rotor[0]), UPPER), rotor[1]));
+        }
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new FixedRotor("Gamma",
+                                  new Permutation(NAVALA.get("Gamma"),
+                                                  UPPER)));
+        rotors.add(new Reflector("B",
+                                 new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new Reflector("C",
+                                 new Permutation(NAVALA.get("C"), UPPER)));
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /** Set up M with random rotors, settings and plugboard from
+     *  RANDOM. */
+    static void randomSetUp(Machine m, Random random) {
+        ArrayList<String> moving = new ArrayList<>();
+        for (String[] rotor : NOTCHES) {
+            moving.add(rotor[0]);
+        }
+        Collections.shuffle(moving, random);
+        m.insertRotors(new String[] {
+            random.nextBoolean() ? "B" : "C",
+            random.nextBoolean() ? "Beta" : "Gamma",
+            moving.get(0), moving.get(1), moving.get(2) });
+        char[] setting = new char[4];
+        for (int i = 0; i < setting.length; i += 1) {
+            setting[i] = UPPER_STRING.charAt(random.nextInt(26));
+        }
+        m.setRotors(new String(setting));
+        m.setPlugboard(random.nextBoolean() ? null
+                       : new Permutation("(AQ) (EX) (MZ) (BT)", UPPER));
+    }
+
+    /** Check that the engine named NAME matches the reference engine on
+     *  many random setups and messages. */
+    private void checkEngine(String name) {
+        Random random = new Random(61);
+        for (int trial = 0; trial < 200; trial += 1) {
+            Machine expected = naval();
+            Machine actual = naval();
+            long seed = random.nextLong();
+            randomSetUp(expected, new Random(seed));
+            randomSetUp(actual, new Random(seed));
+            actual.setEngine(Engine.create(name));
+            int[] msg = new int[random.nextInt(3000)];
+            for (int i = 0; i < msg.length; i += 1) {
+                msg[i] = random.nextInt(26);
+            }
+            int[] copy = msg.clone();
+            expected.engine().convert(expected, msg, 0, msg.length);
+            actual.engine().convert(actual, copy, 0, copy.length);
+            assertArrayEquals(msg(name, "trial %d output", trial),
+                              msg, copy);
+            for (int j = 0; j < 5; j += 1) {
+                assertEquals(msg(name, "trial %d slot %d", trial, j),
+                             expected.position(j),
+                             actual.position(j));
+            }
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void permutationComposesRotors() {
+        Random random = new Random(40);
+        Machine m = naval();
+        for (int trial = 0; trial < 20; trial += 1) {
+            randomSetUp(m, random);
+            for (int step = 0; step < 30; step += 1) {
+                m.advanceRotors();
+                Permutation p = m.permutation();
+                for (int x = 0; x < p.size(); x += 1) {
+                    assertEquals(m.permute(x), p.permute(x));
+                }
+                assertEquals(p, p.inverse());
+            }
+        }
+    }
+
+    @Test
+    public void tableEngineMatchesReference() {
+        checkEngine("table");
+    }
+
+    @Test
+    public void batchEngineMatchesReference() {
+        checkEngine("batch");
+    }
+
+    @Test
+    public void periodEngineMatchesReference() {
+        checkEngine("period");
+    }
+
+    @Test
+    public void periodEngineMatchesReferenceOnLongRuns() {
+        Random random = new Random(37);
+        Machine expected = naval();
+        Machine actual = naval();
+        randomSetUp(expected, new Random(5));
+        randomSetUp(actual, new Random(5));
+        actual.setEngine(Engine.create("period"));
+        for (int part = 0; part < 12; part += 1) {
+            int[] msg = new int[100000];
+            for (int i = 0; i < msg.length; i += 1) {
+                msg[i] = random.nextInt(26);
+            }
+            int[] copy = msg.clone();
+            expected.engine().convert(expected, msg, 0, msg.length);
+            actual.engine().convert(actual, copy, 0, copy.length);
+            assertArrayEquals(msg("period", "part %d output", part),
+                              msg, copy);
+        }
+        for (int j = 0; j < 5; j += 1) {
+            assertEquals(expected.position(j), actual.position(j));
+        }
+    }
+
+    @Test
+    public void specializedEngineMatchesReference() {
+        checkEngine("specialized");
+    }
+
+    @Test
+    public void checkingEngineAcceptsBatch() {
+        Machine m = naval();
+        randomSetUp(m, new Random(3));
+        m.setEngine(new CheckingEngine(Engine.create("batch")));
+        assertEquals(5000, m.convert("HELLOWORLD".repeat(500)).length());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void unknownEngine() {
+        Engine.create("warp");
+    }
+
+}
@@ -0,0 +1,243 @@
+package enigma;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+import static enigma.EnigmaException.*;
+
+/** A reactive-streams stage that encrypts (or decrypts) a stream of text
+ *  chunks with a machine.  Each item is either a chunk of message text,
+ *  or, if it starts with '*', a settings line, which sets the machine up
+ *  as the same line would in the input of Main.  Message chunks are
+ *  converted as by Main, except that they are not grouped: characters
+ *  are upper-cased, those not in the alphabet are dropped, and the
+ *  machine's state carries over from one chunk to the next, so a message
+ *  may be split into chunks anywhere.  Each message chunk yields one
+ *  output chunk (perhaps empty); settings lines yield none.
+ *
+ *  Items are requested from upstream one at a time, and each is
+ *  published before the next is requested, so a subscriber that falls
+ *  behind (filling its buffer, as for SubmissionPublisher) holds up the
+ *  upstream publisher rather than causing chunks to pile up.  Nothing is
+ *  requested while there are no subscribers, and an output chunk
+ *  produced when there are none is held for the next to subscribe, so
+ *  no chunk is lost for subscribing late.  An error converting an item
+ *  (such as a bad settings line, or a message chunk before any
+ *  settings) cancels the upstream subscription and is passed to
+ *  subscribers.
+ *  @author Vidhi Chander
+ */
+abstract class EnigmaProcessor<T extends Buffer> extends SubmissionPublisher<T>
+    implements Flow.Processor<T, T> {
+
+    /** Return a processor of character chunks converted by M, publishing
+     *  with EXECUTOR and buffering at most CAPACITY chunks for each
+     *  subscriber. */
+    static EnigmaProcessor<CharBuffer> chars(Machine m, Executor executor,
+                                             int capacity) {
+        return new EnigmaProcessor<CharBuffer>(m, executor, capacity) {
+            @Override
+            int read(CharBuffer item, char[] text) {
+                int len = item.remaining();
+                item.get(text, 0, len);
+                return len;
+            }
+
+            @Override
+            CharBuffer wrap(char[] text, int len) {
+                return CharBuffer.wrap(new String(text, 0, len));
+            }
+        };
+    }
+
+    /** Return a processor of character chunks converted by M, using the
+     *  common pool and the default buffer capacity. */
+    static EnigmaProcessor<CharBuffer> chars(Machine m) {
+        return chars(m, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /** Return a processor of byte chunks converted by M, as for chars,
+     *  where each byte is a character in ISO-8859-1 (so the alphabet
+     *  must be in that character set), publishing with EXECUTOR and
+     *  buffering at most CAPACITY chunks for each subscriber. */
+    static EnigmaProcessor<ByteBuffer> bytes(Machine m, Executor executor,
+                                             int capacity) {
+        return new EnigmaProcessor<ByteBuffer>(m, executor, capacity) {
+            @Override
+            int read(ByteBuffer item, char[] text) {
+                int len = item.remaining();
+                for (int i = 0; i < len; i += 1) {
+                    text[i] = (char) (item.get() & 0xff);
+                }
+                return len;
+            }
+
+            @Override
+            ByteBuffer wrap(char[] text, int len) {
+                byte[] result = new byte[len];
+                for (int i = 0; i < len; i += 1) {
+                    result[i] = (byte) text[i];
+                }
+                return ByteBuffer.wrap(result);
+            }
+        };
+    }
+
+    /** Return a processor of byte chunks converted by M, using the common
+     *  pool and the default buffer capacity. */
+    static EnigmaProcessor<ByteBuffer> bytes(Machine m) {
+        return bytes(m, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /** A processor converting with M, publishing with EXECUTOR and
+     *  buffering at most CAPACITY items for each subscriber. */
+    private EnigmaProcessor(Machine m, Executor executor, int capacity) {
+        super(executor, capacity);
+        _machine = m;
+    }
+
+    /** Store ITEM's remaining characters into TEXT, which is long enough
+     *  for them, and return their number. */
+    abstract int read(T item, char[] text);
+
+    /** Return an item containing TEXT[0 .. LEN-1]. */
+    abstract T wrap(char[] text, int len);
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        super.subscribe(subscriber);
+        resume();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (_subscription != null) {
+                subscription.cancel();
+                return;
+            }
+            _subscription = subscription;
+            _paused = true;
+        }
+        resume();
+    }
+
+    @Override
+    public void onNext(T item) {
+        T result;
+        try {
+            result = convert(item);
+        } catch (RuntimeException excp) {
+            _subscription.cancel();
+            closeExceptionally(excp);
+            return;
+        }
+        if (result != null) {
+            synchronized (this) {
+                if (!hasSubscribers()) {
+                    _held = result;
+                    _paused = true;
+                    return;
+                }
+            }
+            submit(result);
+        }
+        _subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable excp) {
+        closeExceptionally(excp);
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            if (_held != null) {
+                _completed = true;
+                return;
+            }
+        }
+        close();
+    }
+
+    /** If requests from upstream are paused and I now have subscribers,
+     *  publish any held chunk and request the next item (or close, if
+     *  upstream has completed). */
+    private void resume() {
+        T held;
+        boolean completed;
+        synchronized (this) {
+            if (!_paused || !hasSubscribers()) {
+                return;
+            }
+            _paused = false;
+            held = _held;
+            _held = null;
+            completed = _completed;
+        }
+        if (held != null) {
+            submit(held);
+        }
+        if (completed) {
+            close();
+        } else {
+            _subscription.request(1);
+        }
+    }
+
+    /** Return the conversion of message chunk ITEM, or apply ITEM and
+     *  return null if it is a settings line. */
+    private T convert(T item) {
+        int size = Math.max(_text.length, 1);
+        while (size < item.remaining()) {
+            size *= 2;
+        }
+        if (size > _text.length) {
+            _text = new char[size];
+        }
+        int len = read(item, _text);
+        if (len > 0 && _text[0] == '*') {
+            Main.applySettings(_machine, new String(_text, 0, len));
+            return null;
+        }
+        if (_machine.machineRotors().isEmpty()) {
+            throw error("No configuration");
+        }
+        Alphabet alphabet = _machine.alphabet();
+        int n = 0;
+        for (int i = 0; i < len; i += 1) {
+            char c = Character.toUpperCase(_text[i]);
+            if (alphabet.contains(c)) {
+                _text[n] = c;
+                n += 1;
+            }
+        }
+        _machine.convert(_text, 0, n);
+        return wrap(_text, n);
+    }
+
+    /** The machine converting messages. */
+    private final Machine _machine;
+
+    /** The upstream subscription, once subscribed. */
+    private Flow.Subscription _subscription;
+
+    /** True iff no item is requested from upstream until I have
+     *  subscribers. */
+    private boolean _paused;
+
+    /** An output chunk produced when I had no subscribers, or null. */
+    private T _held;
+
+    /** True iff upstream completed while _held was waiting. */
+    private boolean _completed;
+
+    /** The characters of the item being converted. */
+    private char[] _text = new char[0];
+}
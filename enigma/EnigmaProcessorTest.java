@@ -0,0 +1,182 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Function;
+
+/** The suite of all JUnit tests for the EnigmaProcessor class.
+ *  @author Vidhi Chander
+ */
+public class EnigmaProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A subscriber that collects the text of its items, requesting one
+     *  at a time. */
+    private static class Collector<T> implements Flow.Subscriber<T> {
+        /** A collector of items whose text is given by TEXT. */
+        Collector(Function<T, String> text) {
+            _text = text;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(T item) {
+            _items.add(_text.apply(item));
+            _subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable excp) {
+            done.completeExceptionally(excp);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(_items);
+        }
+
+        /** The text of the items received, once all have been. */
+        final CompletableFuture<List<String>> done =
+            new CompletableFuture<List<String>>();
+
+        /** The subscription. */
+        private Flow.Subscription _subscription;
+
+        /** Items received so far. */
+        private final List<String> _items = new ArrayList<String>();
+
+        /** Returns the text of an item. */
+        private final Function<T, String> _text;
+    }
+
+    /** Publish ITEMS through PROCESSOR, whose items are converted from
+     *  and to strings by WRAP and TEXT, and return the text of the
+     *  results. */
+    private static <T extends Buffer> List<String> run(
+        EnigmaProcessor<T> processor, Function<String, T> wrap,
+        Function<T, String> text, String... items)
+        throws InterruptedException, ExecutionException {
+        Collector<T> collector = new Collector<T>(text);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<T> source = new SubmissionPublisher<T>()) {
+            source.subscribe(processor);
+            for (String item : items) {
+                source.submit(wrap.apply(item));
+            }
+        }
+        return collector.done.get();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void chunksMatchWholeMessages() throws Exception {
+        String settings = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        String msg = "From his shoulder Hiawatha took the camera of rosewood";
+        Machine expected = EngineTest.naval();
+        Main.applySettings(expected, settings);
+        String whole = expected.convert(msg.toUpperCase().replace(" ", ""));
+        Main.applySettings(expected, "* B Beta I II III AAAA");
+        String second = expected.convert("HELLO");
+
+        Machine m = EngineTest.naval();
+        m.setEngine(Engine.create("table"));
+        List<String> out = run(EnigmaProcessor.chars(m), CharBuffer::wrap,
+                               CharBuffer::toString, settings,
+                               msg.substring(0, 7), msg.substring(7, 30),
+                               msg.substring(30),
+                               "* B Beta I II III AAAA", "hel", "", "lo!");
+        assertEquals(6, out.size());
+        assertEquals(whole, out.get(0) + out.get(1) + out.get(2));
+        assertEquals("", out.get(4));
+        assertEquals(second, out.get(3) + out.get(5));
+    }
+
+    @Test
+    public void bytesMatchChars() throws Exception {
+        String settings = "* C Gamma VI VII VIII ZZZZ";
+        Machine m = EngineTest.naval();
+        List<String> chars = run(EnigmaProcessor.chars(m), CharBuffer::wrap,
+                                 CharBuffer::toString, settings,
+                                 "ABCDEFGHIJ", "klmno pqrst");
+        m = EngineTest.naval();
+        List<String> bytes =
+            run(EnigmaProcessor.bytes(m),
+                s -> ByteBuffer.wrap(s.getBytes(ISO_8859_1)),
+                b -> ISO_8859_1.decode(b).toString(),
+                settings, "ABCDEFGHIJ", "klmno pqrst");
+        assertEquals(2, chars.size());
+        assertEquals(10, chars.get(1).length());
+        assertEquals(chars, bytes);
+    }
+
+    @Test
+    public void badSettingsFailStream() throws Exception {
+        Machine m = EngineTest.naval();
+        try {
+            run(EnigmaProcessor.chars(m), CharBuffer::wrap,
+                CharBuffer::toString, "* B Beta III IV Nope AAAA", "HELLO");
+            fail("bad settings accepted");
+        } catch (ExecutionException excp) {
+            assertTrue(excp.getCause() instanceof EnigmaException);
+        }
+    }
+
+    @Test
+    public void shortSettingsFailStream() throws Exception {
+        Machine m = EngineTest.naval();
+        try {
+            run(EnigmaProcessor.chars(m), CharBuffer::wrap,
+                CharBuffer::toString, "* B", "HELLO");
+            fail("short settings accepted");
+        } catch (ExecutionException excp) {
+            assertNotNull(excp.getCause());
+        }
+    }
+
+    @Test
+    public void lateSubscriberGetsEveryChunk() throws Exception {
+        String settings = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        Machine expected = EngineTest.naval();
+        Main.applySettings(expected, settings);
+        String whole = expected.convert("HELLOWORLD");
+
+        Machine m = EngineTest.naval();
+        EnigmaProcessor<CharBuffer> processor = EnigmaProcessor.chars(m);
+        try (SubmissionPublisher<CharBuffer> source =
+             new SubmissionPublisher<CharBuffer>(Runnable::run,
+                                                 Flow.defaultBufferSize())) {
+            source.subscribe(processor);
+            source.submit(CharBuffer.wrap(settings));
+            source.submit(CharBuffer.wrap("HELLOWORLD"));
+        }
+        List<String> out = new ArrayList<String>();
+        processor.consume(c -> out.add(c.toString())).get();
+        assertEquals(Arrays.asList(whole), out);
+    }
+
+}
@@ -0,0 +1,220 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Enciphers one plaintext for many recipients, each with its own
+ *  settings line, in one pass.  The plaintext is upper-cased and reduced
+ *  to alphabet indices once.  Each recipient is kept only as compiled
+ *  MachineTables (shared by recipients with the same rotors and
+ *  plugboard) and an array of rotor positions, and the plaintext is
+ *  converted in blocks of BLOCK letters: each block is passed through
+ *  every recipient in turn while it is still in cache.
+ *  @author Vidhi Chander
+ */
+public final class FanOut {
+
+    /** Encipher a plaintext for many recipients, as specified by ARGS,
+     *  which consist of a configuration file, a file of recipients'
+     *  settings lines (one per line; blank lines are skipped), a
+     *  plaintext file and an optional output file (the standard output
+     *  by default).  For each recipient, in order, the output holds its
+     *  settings line followed by the ciphertext, line for line, as Main
+     *  would print it, so that Main deciphers the output back into one
+     *  copy of the plaintext per recipient.  Exits normally if there
+     *  are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3 || args.length > 4) {
+                throw error("Usage: java enigma.FanOut CONF RECIPIENTS "
+                            + "PLAINTEXT [OUTPUT]");
+            }
+            FanOut fanOut = new FanOut(Main.readConfig(args[0]));
+            for (String line : readLines(args[1])) {
+                if (!line.trim().isEmpty()) {
+                    fanOut.add(line);
+                }
+            }
+            List<String> text = readLines(args[2]);
+            long start = System.nanoTime();
+            try (PrintStream out = args.length > 3 ? openOutput(args[3])
+                 : new PrintStream(new BufferedOutputStream(System.out,
+                                                            1 << 16))) {
+                fanOut.write(text, out);
+            }
+            System.err.printf("%d recipients in %.2f s%n", fanOut.size(),
+                              (System.nanoTime() - start) * 1e-9);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** An encipherer using the rotors of TEMPLATE, with no recipients. */
+    FanOut(Machine template) {
+        _machine = template.copy();
+        _alphabet = template.alphabet();
+    }
+
+    /** Add a recipient whose settings line is SETTINGS. */
+    void add(String settings) {
+        if (!settings.startsWith("*")) {
+            throw error("recipient %d: not a settings line: %s",
+                        _settings.size() + 1, settings);
+        }
+        Main.applySettings(_machine, settings);
+        MachineTables t = new MachineTables(_machine);
+        MachineTables shared = _shared.putIfAbsent(t, t);
+        if (shared != null) {
+            t = shared;
+        }
+        int[] pos = new int[t.slots()];
+        t.loadPositions(_machine, pos);
+        _settings.add(settings.trim());
+        _tables.add(t);
+        _positions.add(pos);
+    }
+
+    /** Return the number of recipients. */
+    int size() {
+        return _settings.size();
+    }
+
+    /** Return the number of distinct sets of tables my recipients
+     *  use. */
+    int distinctTables() {
+        return _shared.size();
+    }
+
+    /** Return the alphabet indices of the characters of TEXT that are in
+     *  my alphabet after upper-casing, as Main reads a message line. */
+    int[] letters(String text) {
+        String upper = text.toUpperCase();
+        int[] result = new int[upper.length()];
+        int n = 0;
+        for (int i = 0; i < upper.length(); i += 1) {
+            char c = upper.charAt(i);
+            if (_alphabet.contains(c)) {
+                result[n] = _alphabet.toInt(c);
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the conversions of PLAIN (alphabet indices) by each
+     *  recipient, in order, continuing from each recipient's current
+     *  rotor positions, which are advanced accordingly. */
+    int[][] convert(int[] plain) {
+        int n = size();
+        int[][] result = new int[n][plain.length];
+        for (int start = 0; start < plain.length; start += BLOCK) {
+            int end = Math.min(plain.length, start + BLOCK);
+            for (int r = 0; r < n; r += 1) {
+                MachineTables t = _tables.get(r);
+                int[] pos = _positions.get(r);
+                int[] out = result[r];
+                for (int i = start; i < end; i += 1) {
+                    t.step(pos);
+                    out[i] = t.convert(plain[i], pos);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Write the settings line and the ciphertext of the plaintext
+     *  lines TEXT for each recipient to OUT, as described for main. */
+    void write(List<String> text, PrintStream out) {
+        int[][] lines = new int[text.size()][];
+        int total = 0;
+        for (int k = 0; k < lines.length; k += 1) {
+            lines[k] = letters(text.get(k));
+            total += lines[k].length;
+        }
+        int[] plain = new int[total];
+        int i = 0;
+        for (int[] letters : lines) {
+            System.arraycopy(letters, 0, plain, i, letters.length);
+            i += letters.length;
+        }
+        int[][] cipher = convert(plain);
+        StringBuilder line = new StringBuilder();
+        for (int r = 0; r < cipher.length; r += 1) {
+            out.println(_settings.get(r));
+            i = 0;
+            for (int k = 0; k < lines.length; k += 1) {
+                int len = lines[k].length;
+                if (text.get(k).trim().isEmpty()) {
+                    out.println();
+                } else if (len > 0) {
+                    line.setLength(0);
+                    for (int j = 0; j < len; j += 1) {
+                        if (j > 0 && j % 5 == 0) {
+                            line.append(' ');
+                        }
+                        line.append(_alphabet.toChar(cipher[r][i + j]));
+                    }
+                    out.println(line);
+                    i += len;
+                }
+            }
+        }
+    }
+
+    /** Return the lines of the file named NAME. */
+    private static List<String> readLines(String name) {
+        try {
+            return Files.readAllLines(Paths.get(name),
+                                      StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Return a stream writing to the file named NAME. */
+    private static PrintStream openOutput(String name) {
+        try {
+            return new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(name), 1 << 16), false);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Letters of plaintext converted for every recipient before moving
+     *  on to the next block. */
+    static final int BLOCK = 1024;
+
+    /** Machine used to set up each recipient. */
+    private final Machine _machine;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Settings line of each recipient. */
+    private final List<String> _settings = new ArrayList<String>();
+
+    /** Tables of each recipient. */
+    private final List<MachineTables> _tables =
+        new ArrayList<MachineTables>();
+
+    /** Rotor positions of each recipient. */
+    private final List<int[]> _positions = new ArrayList<int[]>();
+
+    /** The distinct tables of my recipients, each mapped to itself. */
+    private final HashMap<MachineTables, MachineTables> _shared =
+        new HashMap<MachineTables, MachineTables>();
+}
@@ -0,0 +1,139 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the FanOut class.
+ *  @author Vidhi Chander
+ */
+public class FanOutTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a random settings line for the naval machine from
+     *  RANDOM. */
+    static String randomSettings(Random random) {
+        List<String> moving = new ArrayList<String>(Arrays.asList(
+            "I", "II", "III", "IV", "V", "VI", "VII", "VIII"));
+        Collections.shuffle(moving, random);
+        char[] setting = new char[4];
+        for (int i = 0; i < setting.length; i += 1) {
+            setting[i] = (char) ('A' + random.nextInt(26));
+        }
+        return String.format("* %s %s %s %s %s %s%s",
+                             random.nextBoolean() ? "B" : "C",
+                             random.nextBoolean() ? "Beta" : "Gamma",
+                             moving.get(0), moving.get(1), moving.get(2),
+                             new String(setting),
+                             random.nextBoolean() ? "" : " (AQ) (EX) (MZ)");
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void recipientsMatchMachines() {
+        Random random = new Random(48);
+        FanOut fanOut = new FanOut(EngineTest.naval());
+        List<String> settings = new ArrayList<String>();
+        for (int r = 0; r < 60; r += 1) {
+            String line = randomSettings(random);
+            settings.add(line);
+            String[] words = line.split(" ");
+            words[6] = "ZZZZ";
+            settings.add(String.join(" ", words));
+        }
+        for (String line : settings) {
+            fanOut.add(line);
+        }
+        assertTrue(fanOut.distinctTables() < fanOut.size());
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3 * FanOut.BLOCK + 17; i += 1) {
+            text.append((char) ('a' + random.nextInt(26)));
+            if (random.nextInt(7) == 0) {
+                text.append(", ");
+            }
+        }
+        String plain = text.toString();
+        int[][] first = fanOut.convert(fanOut.letters(plain));
+        int[][] second = fanOut.convert(fanOut.letters("Hello"));
+        Machine m = EngineTest.naval();
+        Alphabet alpha = m.alphabet();
+        for (int r = 0; r < settings.size(); r += 1) {
+            Main.applySettings(m, settings.get(r));
+            String expected = m.convert(plain.toUpperCase()
+                                        .replaceAll("[^A-Z]", ""))
+                + m.convert("HELLO");
+            StringBuilder actual = new StringBuilder();
+            for (int c : first[r]) {
+                actual.append(alpha.toChar(c));
+            }
+            for (int c : second[r]) {
+                actual.append(alpha.toChar(c));
+            }
+            assertEquals("recipient " + r, expected, actual.toString());
+        }
+    }
+
+    @Test
+    public void outputMatchesMainAndDeciphers() throws IOException {
+        File[] files = traffic("--seed=48", "--settings=12",
+                               "--messages=1");
+        File conf = files[0];
+        List<String> recipients = new ArrayList<String>();
+        for (String line : Files.readAllLines(files[1].toPath())) {
+            if (line.startsWith("*")) {
+                recipients.add(line);
+            }
+        }
+        List<String> plain = Arrays.asList(
+            "From his shoulder Hiawatha", "", "took the camera of rosewood,",
+            "12345", "made of sliding, folding rosewood");
+        File recipientFile = tempFile(".txt"), plainFile = tempFile(".txt");
+        Files.write(recipientFile.toPath(), recipients);
+        Files.write(plainFile.toPath(), plain);
+        File output = tempFile(".out");
+        FanOut.main(conf.getPath(), recipientFile.getPath(),
+                    plainFile.getPath(), output.getPath());
+
+        List<String> separate = new ArrayList<String>();
+        for (String line : recipients) {
+            separate.add(line);
+            separate.addAll(plain);
+        }
+        File separateFile = tempFile(".inp"), expected = tempFile(".out");
+        Files.write(separateFile.toPath(), separate);
+        runMain(conf.getPath(), separateFile.getPath(), expected.getPath());
+        List<String> cipher = new ArrayList<String>();
+        for (String line : Files.readAllLines(output.toPath())) {
+            if (!line.startsWith("*")) {
+                cipher.add(line);
+            }
+        }
+        assertEquals(Files.readAllLines(expected.toPath()), cipher);
+
+        File deciphered = tempFile(".out");
+        runMain(conf.getPath(), output.getPath(), deciphered.getPath());
+        List<String> lines = Files.readAllLines(deciphered.toPath());
+        assertEquals(recipients.size() * 4, lines.size());
+        assertEquals("FROMH ISSHO ULDER HIAWA THA", lines.get(0));
+        assertEquals("", lines.get(1));
+    }
+
+}
@@ -3,8 +3,17 @@ package enigma;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.management.UnixOperatingSystemMXBean;
 
 import static enigma.TestUtils.*;
 
@@ -28,37 +37,174 @@ public class IntegrationTests {
         mach.insertRotors(rotors);
         mach.setRotors(setting);
 
-        assertEquals("AAAA", getSetting(ac, machineRotors));
+        assertEquals("AAAA", getSetting(ac, mach));
         mach.convert('a');
-        assertEquals("AAAB", getSetting(ac, machineRotors));
+        assertEquals("AAAB", getSetting(ac, mach));
         mach.convert('b');
-        assertEquals("AAAC", getSetting(ac, machineRotors));
+        assertEquals("AAAC", getSetting(ac, mach));
         mach.convert('c');
-        assertEquals("AABD", getSetting(ac, machineRotors));
+        assertEquals("AABD", getSetting(ac, mach));
         mach.convert('b');
-        assertEquals("AABA", getSetting(ac, machineRotors));
+        assertEquals("AABA", getSetting(ac, mach));
         mach.convert('b');
-        assertEquals("AABB", getSetting(ac, machineRotors));
+        assertEquals("AABB", getSetting(ac, mach));
         mach.convert('b');
-        assertEquals("AABC", getSetting(ac, machineRotors));
+        assertEquals("AABC", getSetting(ac, mach));
         mach.convert('x');
-        assertEquals("AACD", getSetting(ac, machineRotors));
+        assertEquals("AACD", getSetting(ac, mach));
         mach.convert('g');
-        assertEquals("ABDA", getSetting(ac, machineRotors));
+        assertEquals("ABDA", getSetting(ac, mach));
         mach.convert('b');
-        assertEquals("ABDB", getSetting(ac, machineRotors));
+        assertEquals("ABDB", getSetting(ac, mach));
         mach.convert('m');
-        assertEquals("ABDC", getSetting(ac, machineRotors));
+        assertEquals("ABDC", getSetting(ac, mach));
         mach.convert('n');
-        assertEquals("ABAD", getSetting(ac, machineRotors));
+        assertEquals("ABAD", getSetting(ac, mach));
+    }
+
+    @Test
+    public void sameNamedRotorsUseFirst() {
+        Rotor one = new MovingRotor("I",
+                                    new Permutation(NAVALA.get("I"), UPPER),
+                                    "Q");
+        Rotor two = new MovingRotor("II",
+                                    new Permutation(NAVALA.get("II"), UPPER),
+                                    "E");
+        Rotor b = new Reflector("B", new Permutation(NAVALA.get("B"), UPPER));
+        Rotor c = new Reflector("B", new Permutation(NAVALA.get("C"), UPPER));
+        String[] rotors = {"B", "I", "II"};
+        Machine single = new Machine(UPPER, 3, 2,
+            new ArrayList<>(Arrays.asList(one, two, b)));
+        Machine dup = new Machine(UPPER, 3, 2,
+            new ArrayList<>(Arrays.asList(one, two, b, c)));
+        single.insertRotors(rotors);
+        dup.insertRotors(rotors);
+        single.setRotors("AA");
+        dup.setRotors("AA");
+        assertEquals(3, dup.machineRotors().size());
+        assertSame(b, dup.machineRotors().get(0));
+        assertEquals(single.convert("HELLO"), dup.convert("HELLO"));
+    }
+
+    @Test
+    public void machinesShareRotors() {
+        Machine one = EngineTest.naval();
+        EngineTest.randomSetUp(one, new Random(41));
+        Machine two = one.copy();
+        two.restore(one.state());
+        two.setPlugboard(one.plugboard());
+        assertEquals(one.allRotors(), two.allRotors());
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        int[] saved = one.state();
+        String expected = one.convert(msg + msg);
+        assertEquals(expected.substring(0, msg.length()), two.convert(msg));
+        int[] middle = two.state();
+        two.restore(saved);
+        assertEquals(expected, two.convert(msg + msg));
+        assertArrayEquals(one.state(), two.state());
+        one.restore(middle);
+        assertEquals(expected.substring(msg.length()), one.convert(msg));
+    }
+
+    @Test
+    public void indicatorsMatchSettingsPerMessage() throws IOException {
+        File[] files = traffic("--seed=46", "--settings=20",
+                               "--messages=8");
+        File conf = files[0], input = files[1], plain = tempFile(".inp");
+        Machine m = Main.readConfig(conf.getPath());
+        Alphabet alpha = m.alphabet();
+        Random random = new Random(46);
+        List<String> keyed = new ArrayList<String>();
+        List<String> settings = new ArrayList<String>();
+        String[] day = null;
+        int[] dayKey = null;
+        for (String line : Files.readAllLines(input.toPath())) {
+            if (line.isEmpty() || line.startsWith("*")) {
+                if (!line.isEmpty()) {
+                    Main.applySettings(m, line);
+                    day = line.trim().split("\\s+");
+                    dayKey = m.state();
+                }
+                keyed.add(line);
+                settings.add(line);
+            } else {
+                char[] key = new char[m.numRotors() - 1];
+                for (int i = 0; i < key.length; i += 1) {
+                    key[i] = alpha.toChar(random.nextInt(alpha.size()));
+                }
+                m.restore(dayKey);
+                keyed.add(m.convert(new String(key)) + line);
+                day[m.numRotors() + 1] = new String(key);
+                settings.add(String.join(" ", day));
+                settings.add(line);
+            }
+        }
+        Files.write(input.toPath(), keyed);
+        Files.write(plain.toPath(), settings);
+
+        File expected = tempFile(".out"), output = tempFile(".out");
+        runMain(conf.getPath(), plain.getPath(), expected.getPath());
+        runMain("--indicators", conf.getPath(), input.getPath(),
+                output.getPath());
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void expandingCharactersGrowMessage() throws IOException {
+        Charset charset = Charset.defaultCharset();
+        if (!charset.newEncoder().canEncode('\u00df')) {
+            return;
+        }
+        File[] files = traffic("--seed=28", "--settings=1",
+                               "--messages=1");
+        File conf = files[0], input = files[1], plain = tempFile(".inp");
+        String settings = Files.readAllLines(input.toPath()).get(0);
+        StringBuilder expanding = new StringBuilder(),
+            expanded = new StringBuilder();
+        for (int i = 0; i < 27; i += 1) {
+            expanding.append('\u00df');
+            expanded.append("SS");
+        }
+        for (int i = 0; i < 100; i += 1) {
+            expanding.append('a');
+            expanded.append('A');
+        }
+        Files.write(input.toPath(),
+                    Arrays.asList(settings, expanding.toString()), charset);
+        Files.write(plain.toPath(),
+                    Arrays.asList(settings, expanded.toString()), charset);
+
+        File expected = tempFile(".out"), output = tempFile(".out");
+        runMain(conf.getPath(), plain.getPath(), expected.getPath());
+        runMain(conf.getPath(), input.getPath(), output.getPath());
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void readConfigClosesFile() throws IOException {
+        if (!(ManagementFactory.getOperatingSystemMXBean()
+              instanceof UnixOperatingSystemMXBean)) {
+            return;
+        }
+        UnixOperatingSystemMXBean os = (UnixOperatingSystemMXBean)
+            ManagementFactory.getOperatingSystemMXBean();
+        File[] files = traffic("--seed=26", "--settings=1");
+        Main.readConfig(files[0].getPath());
+        long before = os.getOpenFileDescriptorCount();
+        for (int i = 0; i < 200; i += 1) {
+            Main.readConfig(files[0].getPath());
+        }
+        assertTrue(os.getOpenFileDescriptorCount() < before + 20);
     }
 
     /** Helper method to get the String
-     * representation of the current Rotor settings */
-    private String getSetting(Alphabet alph, Rotor[] machineRotors) {
+     * representation of the current Rotor settings of MACH. */
+    private String getSetting(Alphabet alph, Machine mach) {
         String currSetting = "";
-        for (Rotor r : machineRotors) {
-            currSetting += alph.toChar(r.setting());
+        for (int i = 0; i < mach.numRotors(); i += 1) {
+            currSetting += alph.toChar(mach.position(i));
         }
         return currSetting;
     }
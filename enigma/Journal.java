@@ -0,0 +1,168 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A record of the progress of a long run of Main, from which an
+ *  interrupted run can be resumed.  A journal is a text file with a
+ *  header line followed by one line per record, appended and forced to
+ *  disk in turn.  Each record line starts with the CRC-32 of the rest
+ *  of the line, so a record torn by a crash is recognized and ignored.
+ *  @author Vidhi Chander
+ */
+class Journal {
+
+    /** One point of progress: the byte offsets of the start of the next
+     *  input line and of the end of the output so far, the last settings
+     *  line read (or null), and the settings of the machine's rotors
+     *  after the last message. */
+    static final class Record {
+        /** A record of offsets INPUT and OUTPUT, settings line SETTINGS
+         *  and rotor settings POSITIONS. */
+        Record(long input, long output, String settings, int[] positions) {
+            this.input = input;
+            this.output = output;
+            this.settings = settings;
+            this.positions = positions;
+        }
+
+        /** Offset of the next input line. */
+        final long input;
+        /** Length of the output. */
+        final long output;
+        /** The current settings line, or null. */
+        final String settings;
+        /** Settings of the rotors, leftmost first. */
+        final int[] positions;
+    }
+
+    /** The journal in FILE. */
+    Journal(Path file) {
+        _file = file;
+    }
+
+    /** Return the last complete record in my file, or null if there is
+     *  none (including when the file does not exist). */
+    Record last() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(_file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("could not read journal %s", _file);
+        }
+        if (lines.isEmpty()) {
+            return null;
+        } else if (!lines.get(0).equals(HEADER)) {
+            throw error("%s is not a journal", _file);
+        }
+        for (int i = lines.size() - 1; i > 0; i -= 1) {
+            Record rec = parse(lines.get(i));
+            if (rec != null) {
+                return rec;
+            }
+        }
+        return null;
+    }
+
+    /** Append REC to my file, and force it to disk. */
+    void append(Record rec) {
+        StringBuilder line = new StringBuilder();
+        line.append(rec.input).append(' ').append(rec.output).append(' ');
+        if (rec.positions.length == 0) {
+            line.append('-');
+        }
+        for (int i = 0; i < rec.positions.length; i += 1) {
+            line.append(i == 0 ? "" : ",").append(rec.positions[i]);
+        }
+        line.append(' ').append(rec.settings == null ? "-" : rec.settings);
+        String text = crc(line.toString()) + " " + line + "\n";
+        try {
+            if (_channel == null) {
+                _channel = FileChannel.open(_file, StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE,
+                                            StandardOpenOption.APPEND);
+                if (_channel.size() == 0) {
+                    text = HEADER + "\n" + text;
+                }
+            }
+            ByteBuffer buf =
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                _channel.write(buf);
+            }
+            _channel.force(false);
+        } catch (IOException excp) {
+            throw error("could not write journal %s: %s", _file,
+                        excp.getMessage());
+        }
+    }
+
+    /** Close and remove my file, once the run it records is complete. */
+    void delete() {
+        try {
+            if (_channel != null) {
+                _channel.close();
+                _channel = null;
+            }
+            Files.deleteIfExists(_file);
+        } catch (IOException excp) {
+            throw error("could not remove journal %s", _file);
+        }
+    }
+
+    /** Return the record on LINE, or null if it is torn or corrupt. */
+    private static Record parse(String line) {
+        String[] fields = line.split(" ", 5);
+        if (fields.length != 5
+            || !fields[0].equals(crc(line.substring(fields[0].length()
+                                                    + 1)))) {
+            return null;
+        }
+        try {
+            int[] positions;
+            if (fields[3].equals("-")) {
+                positions = new int[0];
+            } else {
+                String[] pos = fields[3].split(",");
+                positions = new int[pos.length];
+                for (int i = 0; i < pos.length; i += 1) {
+                    positions[i] = Integer.parseInt(pos[i]);
+                }
+            }
+            return new Record(Long.parseLong(fields[1]),
+                              Long.parseLong(fields[2]),
+                              fields[4].equals("-") ? null : fields[4],
+                              positions);
+        } catch (NumberFormatException excp) {
+            return null;
+        }
+    }
+
+    /** Return the CRC-32 of TEXT, in hexadecimal. */
+    private static String crc(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /** First line of every journal. */
+    static final String HEADER = "enigma-journal 1";
+
+    /** The journal file. */
+    private final Path _file;
+
+    /** Channel appending to _file, once opened. */
+    private FileChannel _channel;
+}
@@ -0,0 +1,112 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for journaled runs of Main.
+ *  @author Vidhi Chander
+ */
+public class JournalTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void lineInputOffsets() throws IOException {
+        byte[] text = "ab\r\ncd\ref\n\ngh".getBytes(StandardCharsets.UTF_8);
+        LineInput in = new LineInput(new ByteArrayInputStream(text), 10);
+        String[] lines = { "ab", "cd", "ef", "", "gh" };
+        long[] offsets = { 14, 17, 20, 21, 23 };
+        for (int i = 0; i < lines.length; i += 1) {
+            assertEquals(lines[i], in.readLine());
+            assertEquals(offsets[i], in.offset());
+        }
+        assertNull(in.readLine());
+    }
+
+    @Test
+    public void lineInputLongLines() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200000; i += 1) {
+            text.append((char) ('A' + i % 26));
+        }
+        String line = text.toString();
+        byte[] bytes = (line + "\n" + line).getBytes(StandardCharsets.UTF_8);
+        LineInput in = new LineInput(new ByteArrayInputStream(bytes), 0);
+        assertEquals(line, in.readLine());
+        assertEquals(line.length() + 1, in.offset());
+        assertEquals(line, in.readLine());
+        assertNull(in.readLine());
+    }
+
+    @Test
+    public void tornRecordsIgnored() throws IOException {
+        File file = tempFile(".jnl");
+        file.delete();
+        Journal journal = new Journal(file.toPath());
+        assertNull(journal.last());
+        journal.append(new Journal.Record(10, 20, "* B I II", new int[2]));
+        journal.append(new Journal.Record(30, 40, null, new int[] { 3 }));
+        Files.write(file.toPath(), "1234 50 60".getBytes(),
+                    StandardOpenOption.APPEND);
+        Journal.Record last = journal.last();
+        assertEquals(30, last.input);
+        assertEquals(40, last.output);
+        assertNull(last.settings);
+        assertArrayEquals(new int[] { 3 }, last.positions);
+        journal.delete();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void resumedRunMatchesUninterruptedRun() throws IOException {
+        File[] files = traffic("--seed=38", "--settings=40",
+                               "--messages=10");
+        File conf = files[0], input = files[1];
+        File expected = tempFile(".out");
+        runMain(conf.getPath(), input.getPath(), expected.getPath());
+
+        String good = new String(Files.readAllBytes(input.toPath()),
+                                 StandardCharsets.UTF_8);
+        int bad = good.indexOf("* REF", good.length() / 2);
+        Files.write(input.toPath(), (good.substring(0, bad) + "* XXX"
+                                     + good.substring(bad + 5)).getBytes());
+        File output = tempFile(".out"), journal = tempFile(".jnl");
+        journal.delete();
+        String[] args = { "--journal=" + journal.getPath(),
+                          "--journal-every=2000", "--engine=table",
+                          conf.getPath(), input.getPath(),
+                          output.getPath() };
+        try {
+            runMain(args);
+            fail("bad settings line accepted");
+        } catch (EnigmaException excp) {
+            /* Expected: the journal records the progress made. */
+        }
+        Journal.Record last = new Journal(journal.toPath()).last();
+        assertTrue(last.input > good.length() / 4 && last.input < bad);
+        Files.write(output.toPath(), "garbage".getBytes(),
+                    StandardOpenOption.APPEND);
+
+        Files.write(input.toPath(), good.getBytes());
+        runMain(args);
+        assertFalse(journal.exists());
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(output.toPath()));
+    }
+
+}
@@ -0,0 +1,411 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static enigma.EnigmaException.*;
+
+/** A search of a configuration's key space (see KeySpace) for the keys
+ *  that best decrypt a ciphertext.  With a crib (known plaintext of the
+ *  start of the message), a key scores the number of crib letters it
+ *  reproduces; otherwise it scores the coincidence count (sum of
+ *  f * (f - 1) over letter frequencies f) of its decryption.  The
+ *  plugboard, if any, is fixed for the whole search.  Unless told
+ *  otherwise, the search skips keys that are equivalent to a
+ *  lower-numbered key over the letters scored (see CanonicalKeys).
+ *
+ *  The key space is divided into leases by a SearchCoordinator and
+ *  evaluated by SearchWorkers, which may be threads of this JVM or
+ *  separate JVMs, connected to the coordinator by local sockets.
+ *  @author Vidhi Chander
+ */
+public final class KeySearch {
+
+    /** Search as specified by ARGS, which consist of options followed
+     *  by a configuration file, a ciphertext file and an optional crib.
+     *  The options are
+     *      --rotors=R1,R2,...  use only the named rotors;
+     *      --plugboard=CYCLES  use this plugboard (without spaces);
+     *      --top=K             report the best K keys (default 10);
+     *      --all-keys          score keys equivalent to lower ones too;
+     *      --lease=N           hand out N keys per lease;
+     *      --timeout=MS        reassign leases not heard from in MS
+     *                          milliseconds (default 10000);
+     *      --threads=N         search with N worker threads in this JVM
+     *                          (the default: one per processor);
+     *      --workers=N         search with N worker JVMs;
+     *      --serve=PORT        coordinate workers that connect to PORT;
+     *      --checkpoint=FILE   record progress in FILE, and resume from
+     *                          it if it exists;
+     *      --checkpoint-every=S  checkpoint at most every S seconds
+     *                          (default 60);
+     *      --worker=HOST:PORT  only work for the coordinator at
+     *                          HOST:PORT (no other arguments).
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 1 && args[0].startsWith("--worker=")) {
+                String[] address = args[0].substring(9).split(":");
+                if (address.length != 2) {
+                    throw error("expected --worker=HOST:PORT");
+                }
+                new SearchWorker(address[0],
+                                 Options.parseInt(address[1])).run();
+            } else {
+                new KeySearch(args).run();
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A search specified by ARGS (see main). */
+    KeySearch(String[] args) {
+        int first;
+        for (first = 0; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            option(args[first]);
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+        if (args.length < 2 || args.length > 3) {
+            throw error("Usage: java enigma.KeySearch [OPTIONS] CONF "
+                        + "CIPHERTEXT [CRIB]");
+        }
+        _spec.add(new File(args[0]).getAbsolutePath());
+        _spec.add(new File(args[1]).getAbsolutePath());
+        _template = Main.readConfig(args[0]);
+        _space = new KeySpace(_template, _pool);
+        _cipher = letters(readFile(args[1]));
+        if (args.length > 2) {
+            _spec.add(args[2]);
+            _crib = letters(args[2]);
+            if (_crib.length > _cipher.length) {
+                throw error("crib longer than ciphertext");
+            }
+        }
+        if (_cipher.length == 0) {
+            throw error("empty ciphertext");
+        }
+        if (_plugboard != null) {
+            new Permutation(_plugboard, _template.alphabet());
+        }
+        if (!_allKeys) {
+            _canonical = new CanonicalKeys(_space, _template,
+                                           _crib != null ? _crib.length
+                                           : _cipher.length);
+        }
+    }
+
+    /** Record the option OPT (see main). */
+    private void option(String opt) {
+        int eq = opt.indexOf('=');
+        String name = eq < 0 ? opt : opt.substring(0, eq);
+        String value = eq < 0 ? "" : opt.substring(eq + 1);
+        switch (name) {
+        case "--rotors":
+            _pool.addAll(Arrays.asList(value.split(",")));
+            break;
+        case "--plugboard":
+            _plugboard = value;
+            break;
+        case "--top":
+            _top = Options.parseInt(value);
+            break;
+        case "--all-keys":
+            _allKeys = true;
+            break;
+        case "--lease":
+            _lease = Options.parseInt(value);
+            break;
+        case "--timeout":
+            _timeout = Options.parseInt(value);
+            return;
+        case "--threads":
+            _threads = Options.parseInt(value);
+            return;
+        case "--workers":
+            _workers = Options.parseInt(value);
+            return;
+        case "--serve":
+            _port = Options.parseInt(value);
+            return;
+        case "--checkpoint":
+            if (value.isEmpty()) {
+                throw error("expected --checkpoint=FILE");
+            }
+            _checkpoint = Paths.get(value);
+            return;
+        case "--checkpoint-every":
+            _checkpointSeconds = Options.parseInt(value);
+            return;
+        default:
+            throw error("unknown option: %s", opt);
+        }
+        _spec.add(opt);
+    }
+
+    /** Return the contents of the file named NAME. */
+    private static String readFile(String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(name)));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the alphabet indices of the characters of upper-cased
+     *  TEXT that are in my alphabet. */
+    private int[] letters(String text) {
+        Alphabet alpha = _template.alphabet();
+        text = text.toUpperCase();
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (alpha.contains(text.charAt(i))) {
+                result[n] = alpha.toInt(text.charAt(i));
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the arguments from which a worker can recreate this search
+     *  (with absolute file names and without coordination options). */
+    String[] spec() {
+        return _spec.toArray(new String[0]);
+    }
+
+    /** Return my key space. */
+    KeySpace space() {
+        return _space;
+    }
+
+    /** Return the number of candidates to report. */
+    int top() {
+        return _top;
+    }
+
+    /** Return a new machine for evaluating keys, not shared with any
+     *  other thread. */
+    Machine newMachine() {
+        return _template.copy();
+    }
+
+    /** Add the scores of keys FROM .. TO-1 to BEST, using machine M
+     *  (from newMachine), and flush BEST.  Return the number of keys
+     *  skipped as equivalent to lower ones. */
+    long search(Machine m, long from, long to,
+                CandidateCollector.Local best) {
+        CanonicalKeys.Local canonical =
+            _canonical == null ? null : _canonicalLocal.get();
+        long skipped = 0;
+        int slots = m.numRotors();
+        int[] start = new int[slots];
+        int[] pos = new int[slots];
+        int[] counts = new int[m.alphabet().size()];
+        Permutation plugboard = _plugboard == null ? null
+            : new Permutation(_plugboard, m.alphabet());
+        long key = from;
+        while (key < to) {
+            int order = _space.orderOf(key);
+            m.insertRotors(_space.order(order));
+            m.setPlugboard(plugboard);
+            MachineTables t = m.tables();
+            long end = Math.min(to, _space.firstKeyOf(order + 1));
+            for (; key < end; key += 1) {
+                _space.positions(key, start);
+                if (canonical != null
+                    && !canonical.canonical(key, order, t, start)) {
+                    skipped += 1;
+                    continue;
+                }
+                long score = score(t, start, pos, counts);
+                if (score >= best.threshold()) {
+                    best.add(score, key);
+                }
+            }
+        }
+        best.flush();
+        return skipped;
+    }
+
+    /** Return the score of the key whose compiled tables are T and whose
+     *  starting positions are START, using POS and COUNTS as scratch
+     *  space. */
+    long score(MachineTables t, int[] start, int[] pos, int[] counts) {
+        System.arraycopy(start, 0, pos, 0, pos.length);
+        long score = 0;
+        if (_crib != null) {
+            for (int i = 0; i < _crib.length; i += 1) {
+                t.step(pos);
+                if (t.convert(_cipher[i], pos) == _crib[i]) {
+                    score += 1;
+                }
+            }
+        } else {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < _cipher.length; i += 1) {
+                t.step(pos);
+                counts[t.convert(_cipher[i], pos)] += 1;
+            }
+            for (int f : counts) {
+                score += (long) f * (f - 1);
+            }
+        }
+        return score;
+    }
+
+    /** Run the search with the coordination chosen by the options, and
+     *  print the best keys found. */
+    void run() {
+        long start = System.nanoTime();
+        SearchCoordinator coordinator =
+            new SearchCoordinator(this, _lease, _timeout);
+        List<Process> processes = new ArrayList<Process>();
+        List<BooleanSupplier> local = new ArrayList<BooleanSupplier>();
+        if (_checkpoint != null) {
+            resume(coordinator);
+        }
+        try (ServerSocket server =
+             new ServerSocket(_port, 50, InetAddress.getLoopbackAddress())) {
+            int port = server.getLocalPort();
+            if (_port != 0) {
+                System.err.printf("Coordinating on port %d%n", port);
+            } else if (_workers > 0) {
+                for (int i = 0; i < _workers; i += 1) {
+                    Process worker = spawnWorker(port);
+                    processes.add(worker);
+                    local.add(worker::isAlive);
+                }
+            } else {
+                for (int i = 0; i < _threads; i += 1) {
+                    Thread worker = new Thread(() ->
+                        new SearchWorker("127.0.0.1", port).run());
+                    worker.setDaemon(true);
+                    worker.start();
+                    local.add(worker::isAlive);
+                }
+            }
+            coordinator.serve(server, local);
+        } catch (IOException excp) {
+            throw error("could not coordinate: %s", excp.getMessage());
+        } finally {
+            for (Process p : processes) {
+                p.destroy();
+            }
+        }
+        report(coordinator.best(), coordinator.pruned(),
+               System.nanoTime() - start);
+    }
+
+    /** Resume COORDINATOR from my checkpoint file, if it exists, and
+     *  arrange for it to checkpoint there. */
+    private void resume(SearchCoordinator coordinator) {
+        if (Files.exists(_checkpoint)) {
+            try {
+                coordinator.resume(_checkpoint);
+            } catch (IOException excp) {
+                throw error("could not read checkpoint %s", _checkpoint);
+            }
+            System.err.printf("Resumed from %s: %d of %d leases done%n",
+                              _checkpoint, coordinator.completed(),
+                              coordinator.numLeases());
+        }
+        coordinator.checkpointTo(_checkpoint, _checkpointSeconds * 1000L);
+    }
+
+    /** Start a worker JVM for the coordinator on local PORT. */
+    private Process spawnWorker(int port) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                                "java").toString();
+        return new ProcessBuilder(java, "-cp",
+                                  System.getProperty("java.class.path"),
+                                  "enigma.KeySearch",
+                                  "--worker=127.0.0.1:" + port)
+            .inheritIO().start();
+    }
+
+    /** Print BEST, found in NANOS nanoseconds with PRUNED keys skipped
+     *  as equivalent. */
+    private void report(Candidates best, long pruned, long nanos) {
+        for (int i = 0; i < best.size(); i += 1) {
+            String plug = _plugboard == null ? "" : " " + _plugboard;
+            System.out.printf("%d %s%s%n", best.score(i),
+                              _space.settings(best.key(i)), plug);
+        }
+        System.err.printf("%d keys in %.2f s (%.0f keys/s)%n",
+                          _space.size(), nanos * 1e-9,
+                          _space.size() / (nanos * 1e-9));
+        if (_canonical != null) {
+            System.err.printf("%d keys (%.2f%%) skipped as equivalent%n",
+                              pruned, 100.0 * pruned / _space.size());
+        }
+    }
+
+    /** The arguments describing this search to workers. */
+    private final List<String> _spec = new ArrayList<String>();
+
+    /** The configuration, as a template Machine. */
+    private final Machine _template;
+
+    /** The keys to search. */
+    private final KeySpace _space;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** The crib, as alphabet indices, or null. */
+    private int[] _crib;
+
+    /** Rotors to use (all, if empty). */
+    private List<String> _pool = new ArrayList<String>();
+
+    /** Plugboard cycles, or null. */
+    private String _plugboard;
+
+    /** True iff keys equivalent to lower ones are to be scored. */
+    private boolean _allKeys;
+
+    /** The canonical keys for the length scored, or null if every key
+     *  is to be scored. */
+    private CanonicalKeys _canonical;
+
+    /** Each thread's tester of canonical keys. */
+    private final ThreadLocal<CanonicalKeys.Local> _canonicalLocal =
+        ThreadLocal.withInitial(() -> _canonical.local());
+
+    /** Number of candidates to report. */
+    private int _top = 10;
+
+    /** Keys per lease. */
+    private int _lease = 1 << 16;
+
+    /** Lease timeout in milliseconds. */
+    private int _timeout = 10000;
+
+    /** Number of worker threads in this JVM. */
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
+    /** Number of worker JVMs to start, or 0. */
+    private int _workers;
+
+    /** Port on which to wait for external workers, or 0. */
+    private int _port;
+
+    /** Checkpoint file, or null. */
+    private Path _checkpoint;
+
+    /** Minimum seconds between checkpoints. */
+    private int _checkpointSeconds = 60;
+}
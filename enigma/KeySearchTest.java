@@ -0,0 +1,238 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for key searches.
+ *  @author Vidhi Chander
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Configuration like testing/correct/reduced.conf. */
+    private static final String REDUCED =
+        "H-Q\n3 2\nRF R (HI) (JK) (LM) (NO) (PQ)\n"
+        + "Rot1 MJ (HIJK) (LMNOPQ)\nRot2 MN (IHKJMLONQP)\n";
+
+    /** A configuration whose fixed rotor is a rotation, and so acts the
+     *  same at every position. */
+    private static final String ROTATION =
+        "A-F\n4 2\nRF R (AB) (CD) (EF)\nFix N (ABCDEF)\n"
+        + "Rot1 MC (ACE) (BDF)\nRot2 MF (AD) (BFCE)\n";
+
+    /** Return a search for the crib HIJKLMNOPQ enciphered with
+     *  SETTINGS. */
+    private static KeySearch cribSearch(String settings) throws IOException {
+        String conf = fileContaining(REDUCED).getPath();
+        Machine m = Main.readConfig(conf);
+        Main.applySettings(m, settings);
+        String cipher =
+            fileContaining(m.convert("HIJKLMNOPQHIJKLMNOPQ")).getPath();
+        return new KeySearch(new String[] {
+            "--top=3", conf, cipher, "HIJKLMNOPQHIJKLMNOPQ" });
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void keySpaceRoundTrip() throws IOException {
+        KeySpace space = cribSearch("* RF Rot1 Rot2 HH").space();
+        assertEquals(2 * 100, space.size());
+        int[] pos = new int[3];
+        space.positions(137, pos);
+        assertEquals(137, space.key(space.orderOf(137), pos));
+        assertEquals("* RF Rot2 Rot1 KO", space.settings(137));
+    }
+
+    @Test
+    public void searchFindsKey() throws IOException {
+        KeySearch search = cribSearch("* RF Rot2 Rot1 KO");
+        CandidateCollector collector = new CandidateCollector(3);
+        search.search(search.newMachine(), 0, search.space().size(),
+                      collector.local());
+        Candidates best = collector.snapshot();
+        assertEquals(20, best.score(0));
+        boolean found = false;
+        for (int i = 0; i < best.size(); i += 1) {
+            found |= best.key(i) == 137 && best.score(i) == 20;
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void searchSkipsOnlyEquivalentKeys() throws IOException {
+        String conf = fileContaining(ROTATION).getPath();
+        String cipher = fileContaining("FACEBEADCAFE").getPath();
+        KeySearch search = new KeySearch(new String[] {
+            "--top=1000", conf, cipher });
+        KeySearch all = new KeySearch(new String[] {
+            "--top=1000", "--all-keys", conf, cipher });
+        KeySpace space = search.space();
+        CandidateCollector collector = new CandidateCollector(1000);
+        long skipped = search.search(search.newMachine(), 0, space.size(),
+                                     collector.local());
+        CandidateCollector allCollector = new CandidateCollector(1000);
+        assertEquals(0, all.search(all.newMachine(), 0, space.size(),
+                                   allCollector.local()));
+        Candidates kept = collector.snapshot();
+        assertTrue(skipped > 0);
+        assertEquals(space.size() - skipped, kept.size());
+        assertEquals(allCollector.snapshot().score(0), kept.score(0));
+
+        Machine m = Main.readConfig(conf);
+        String[] outputs = new String[(int) space.size()];
+        for (int key = 0; key < outputs.length; key += 1) {
+            StringBuilder out = new StringBuilder();
+            for (char c = 'A'; c <= 'F'; c += 1) {
+                Main.applySettings(m, space.settings(key));
+                out.append(m.convert(String.valueOf(c).repeat(12)));
+            }
+            outputs[key] = out.toString();
+        }
+        boolean[] isKept = new boolean[outputs.length];
+        for (int i = 0; i < kept.size(); i += 1) {
+            isKept[(int) kept.key(i)] = true;
+        }
+        for (int key = 0; key < outputs.length; key += 1) {
+            if (!isKept[key]) {
+                boolean equivalent = false;
+                for (int lower = 0; lower < key && !equivalent; lower += 1) {
+                    equivalent = outputs[lower].equals(outputs[key]);
+                }
+                assertTrue("key " + key + " skipped", equivalent);
+            }
+        }
+    }
+
+    @Test
+    public void leasesExpireAndAreReassigned() throws IOException {
+        KeySearch search = cribSearch("* RF Rot2 Rot1 KO");
+        SearchCoordinator coord = new SearchCoordinator(search, 150, 1000);
+        assertEquals(2, coord.numLeases());
+        assertEquals("LEASE 0 1 0 150", coord.handle("LEASE", 0));
+        assertEquals("LEASE 1 2 150 200", coord.handle("LEASE", 0));
+        assertEquals("WAIT " + SearchCoordinator.POLL_MILLIS,
+                     coord.handle("LEASE", 500));
+        assertEquals("OK", coord.handle("HEARTBEAT 1 2", 500));
+        assertEquals("LEASE 0 3 0 150", coord.handle("LEASE", 1200));
+        assertEquals(1, coord.reassigned());
+        assertEquals("ABANDON", coord.handle("HEARTBEAT 0 1", 1200));
+        assertEquals("OK", coord.handle("COMPLETE 0 1", 1300));
+        assertFalse(coord.finished());
+        assertEquals("OK", coord.handle("RESULT 0 3 20 137", 1300));
+        assertEquals("OK", coord.handle("COMPLETE 0 3", 1300));
+        assertEquals("OK", coord.handle("COMPLETE 1 2 7", 1300));
+        assertTrue(coord.finished());
+        assertEquals(7, coord.pruned());
+        assertEquals("DONE", coord.handle("LEASE", 1400));
+        assertEquals(137, coord.best().key(0));
+    }
+
+    @Test
+    public void checkpointResumesWithoutRepeatingWork() throws IOException {
+        KeySearch search = cribSearch("* RF Rot2 Rot1 KO");
+        SearchCoordinator coord = new SearchCoordinator(search, 50, 1000);
+        coord.handle("LEASE", 0);
+        coord.handle("LEASE", 0);
+        coord.handle("LEASE", 0);
+        coord.handle("RESULT 1 2 20 137", 0);
+        coord.handle("COMPLETE 0 1", 0);
+        coord.handle("COMPLETE 2 3 5", 0);
+        Path file = tempFile(".ckpt").toPath();
+        Files.write(file.resolveSibling(file.getFileName() + ".tmp"),
+                    "partial".getBytes());
+        coord.writeCheckpoint(file);
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName()
+                                                     + ".tmp")));
+        assertTrue(new String(Files.readAllBytes(file))
+                   .contains("completed 0 2\npruned 5\ncandidate 20 137 "
+                             + "* RF Rot2 Rot1 KO\n"));
+
+        SearchCoordinator resumed = new SearchCoordinator(search, 50, 1000);
+        resumed.resume(file);
+        assertEquals(2, resumed.completed());
+        assertEquals(5, resumed.pruned());
+        assertEquals(137, resumed.best().key(0));
+        assertEquals("LEASE 1 1 50 100", resumed.handle("LEASE", 0));
+        assertEquals("LEASE 3 2 150 200", resumed.handle("LEASE", 0));
+        resumed.handle("COMPLETE 1 1", 0);
+        resumed.handle("COMPLETE 3 2", 0);
+        assertTrue(resumed.finished());
+        assertEquals("DONE", resumed.handle("LEASE", 0));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkpointMustMatchSearch() throws IOException {
+        SearchCoordinator coord =
+            new SearchCoordinator(cribSearch("* RF Rot2 Rot1 KO"), 50, 1000);
+        Path file = tempFile(".ckpt").toPath();
+        coord.writeCheckpoint(file);
+        new SearchCoordinator(cribSearch("* RF Rot1 Rot2 HH"), 50, 1000)
+            .resume(file);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void searchFailsWhenLocalWorkersStop() throws IOException {
+        SearchCoordinator coord =
+            new SearchCoordinator(cribSearch("* RF Rot2 Rot1 KO"), 50, 1000);
+        try (ServerSocket server =
+             new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            coord.serve(server, Arrays.asList(() -> false, () -> false));
+        }
+    }
+
+    @Test
+    public void collectorMatchesCandidates() throws InterruptedException {
+        int threads = 4, perThread = 100000;
+        CandidateCollector collector = new CandidateCollector(25);
+        Candidates expected = new Candidates(25);
+        long[] scores = new long[threads * perThread];
+        Random random = new Random(39);
+        for (int i = 0; i < scores.length; i += 1) {
+            scores[i] = random.nextInt(1000);
+            expected.add(scores[i], i);
+        }
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t += 1) {
+            int first = t * perThread;
+            workers[t] = new Thread(() -> {
+                CandidateCollector.Local local = collector.local();
+                for (int i = first; i < first + perThread; i += 1) {
+                    if (scores[i] >= local.threshold()) {
+                        local.add(scores[i], i);
+                    }
+                }
+                local.flush();
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Candidates best = collector.snapshot();
+        assertEquals(expected.size(), best.size());
+        for (int i = 0; i < best.size(); i += 1) {
+            assertEquals(expected.score(i), best.score(i));
+            assertEquals(expected.key(i), best.key(i));
+        }
+        assertEquals(expected.threshold(), collector.threshold());
+    }
+
+}
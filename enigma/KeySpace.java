@@ -0,0 +1,172 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The keys of a configuration that a search considers: every rotor
+ *  order acceptable to the configuration's machine (optionally
+ *  restricted to a pool of rotors), combined with every setting of its
+ *  numRotors() - 1 non-reflector rotors.  Keys are numbered from 0 in
+ *  rotor-order-major order; within an order, the setting is a numeral
+ *  in base alphabet size whose last digit is the rightmost rotor.
+ *  @author Vidhi Chander
+ */
+class KeySpace {
+
+    /** The key space of TEMPLATE, using only the rotors named in POOL,
+     *  or all rotors if POOL is empty. */
+    KeySpace(Machine template, List<String> pool) {
+        _alphabet = template.alphabet();
+        _orders = rotorOrders(template, pool);
+        if (_orders.isEmpty()) {
+            throw error("no valid rotor orders");
+        }
+        long npos = 1;
+        for (int i = 1; i < template.numRotors(); i += 1) {
+            npos *= _alphabet.size();
+            if (npos > Integer.MAX_VALUE) {
+                throw error("key space too large");
+            }
+        }
+        _positions = (int) npos;
+    }
+
+    /** Return the number of keys. */
+    long size() {
+        return (long) _orders.size() * _positions;
+    }
+
+    /** Return the number of rotor orders. */
+    int numOrders() {
+        return _orders.size();
+    }
+
+    /** Return the names of the rotors in order number ORDER, reflector
+     *  first. */
+    String[] order(int order) {
+        return _orders.get(order);
+    }
+
+    /** Return the number of settings of each rotor order. */
+    int positionsPerOrder() {
+        return _positions;
+    }
+
+    /** Return the number of the rotor order of KEY. */
+    int orderOf(long key) {
+        return (int) (key / _positions);
+    }
+
+    /** Return the number of KEY's first key: the key having the same
+     *  rotor order and all rotors at their 0 setting. */
+    long firstKeyOf(int order) {
+        return (long) order * _positions;
+    }
+
+    /** Store the rotor positions of KEY in POS[1 ..], and 0 (the
+     *  reflector's position) in POS[0]. */
+    void positions(long key, int[] pos) {
+        int p = (int) (key % _positions);
+        int n = _alphabet.size();
+        for (int j = pos.length - 1; j > 0; j -= 1) {
+            pos[j] = p % n;
+            p /= n;
+        }
+        pos[0] = 0;
+    }
+
+    /** Return the number of the key with rotor order ORDER and rotor
+     *  positions POS[1 ..]. */
+    long key(int order, int[] pos) {
+        long p = 0;
+        for (int j = 1; j < pos.length; j += 1) {
+            p = p * _alphabet.size() + pos[j];
+        }
+        return firstKeyOf(order) + p;
+    }
+
+    /** Return KEY as a settings line (without plugboard), as accepted
+     *  by Main.setUp. */
+    String settings(long key) {
+        String[] order = order(orderOf(key));
+        int[] pos = new int[order.length];
+        positions(key, pos);
+        StringBuilder result = new StringBuilder("*");
+        for (String name : order) {
+            result.append(' ').append(name);
+        }
+        result.append(' ');
+        for (int j = 1; j < pos.length; j += 1) {
+            result.append(_alphabet.toChar(pos[j]));
+        }
+        return result.toString();
+    }
+
+    /** Return all rotor orders acceptable to TEMPLATE: a reflector,
+     *  followed by numRotors() - numPawls() - 1 distinct non-moving rotors
+     *  and numPawls() distinct moving rotors.  Only rotors named in POOL
+     *  are used, unless POOL is empty. */
+    static List<String[]> rotorOrders(Machine template, List<String> pool) {
+        List<Rotor> usable = new ArrayList<Rotor>();
+        for (Rotor r : template.allRotors()) {
+            if (pool.isEmpty() || containsIgnoreCase(pool, r.name())) {
+                usable.add(r);
+            }
+        }
+        List<String[]> result = new ArrayList<String[]>();
+        addOrders(template, usable, new String[template.numRotors()], 0,
+                  result);
+        return result;
+    }
+
+    /** Add to RESULT all completions of ORDER[0 .. K-1] using rotors
+     *  from USABLE, as described for rotorOrders(TEMPLATE, ...). */
+    private static void addOrders(Machine template, List<Rotor> usable,
+                                  String[] order, int k,
+                                  List<String[]> result) {
+        if (k == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        int firstMoving = template.numRotors() - template.numPawls();
+        for (Rotor r : usable) {
+            boolean fits;
+            if (k == 0) {
+                fits = r.reflecting();
+            } else if (k < firstMoving) {
+                fits = !r.reflecting() && !r.rotates();
+            } else {
+                fits = r.rotates();
+            }
+            for (int i = 0; fits && i < k; i += 1) {
+                fits = !order[i].equals(r.name());
+            }
+            if (fits) {
+                order[k] = r.name();
+                addOrders(template, usable, order, k + 1, result);
+            }
+        }
+    }
+
+    /** Return true iff NAMES contains NAME, ignoring case. */
+    private static boolean containsIgnoreCase(List<String> names,
+                                              String name) {
+        for (String s : names) {
+            if (s.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The alphabet of the configuration. */
+    private final Alphabet _alphabet;
+
+    /** The rotor orders, in key order. */
+    private final List<String[]> _orders;
+
+    /** Number of rotor settings per order. */
+    private final int _positions;
+}
@@ -0,0 +1,125 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/** A reader of lines from a byte stream in the default character set
+ *  that keeps track of its position in the stream, so that reading can
+ *  be resumed at the start of any line.  As for BufferedReader, a line
+ *  ends with a line feed, a carriage return, or both.
+ *  @author Vidhi Chander
+ */
+final class LineInput implements Closeable {
+
+    /** Lines read from IN, whose first byte is at byte OFFSET of its
+     *  file. */
+    LineInput(InputStream in, long offset) {
+        _in = in;
+        _base = offset;
+    }
+
+    /** Return the next line, without its terminator, or null at the end
+     *  of input. */
+    String readLine() throws IOException {
+        int len = 0;
+        while (true) {
+            if (_pos == _end && !fill()) {
+                if (!_partial) {
+                    return null;
+                }
+                _partial = false;
+                return decode(_line, 0, len);
+            }
+            int i;
+            for (i = _pos; i < _end; i += 1) {
+                if (_buf[i] == '\n' || _buf[i] == '\r') {
+                    break;
+                }
+            }
+            if (i == _end) {
+                len = append(len, _pos, i);
+                _partial = true;
+                _pos = _end;
+                continue;
+            }
+            String result;
+            if (len == 0) {
+                result = decode(_buf, _pos, i - _pos);
+            } else {
+                len = append(len, _pos, i);
+                result = decode(_line, 0, len);
+            }
+            _partial = false;
+            _pos = i + 1;
+            if (_buf[i] == '\r' && (_pos < _end || fill())
+                && _buf[_pos] == '\n') {
+                _pos += 1;
+            }
+            return result;
+        }
+    }
+
+    /** Return the byte offset in the file of the start of the next
+     *  line. */
+    long offset() {
+        return _base + _pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    /** Refill my buffer after it has been used up, returning false at the
+     *  end of input. */
+    private boolean fill() throws IOException {
+        _base += _end;
+        _pos = _end = 0;
+        int n = _in.read(_buf);
+        if (n <= 0) {
+            return false;
+        }
+        _end = n;
+        return true;
+    }
+
+    /** Append _buf[FROM .. TO-1] to the first LEN bytes of _line, and
+     *  return the new length. */
+    private int append(int len, int from, int to) {
+        if (len + to - from > _line.length) {
+            _line = Arrays.copyOf(_line, Math.max(len + to - from,
+                                                  2 * _line.length));
+        }
+        System.arraycopy(_buf, from, _line, len, to - from);
+        return len + to - from;
+    }
+
+    /** Return BYTES[FROM .. FROM+LEN-1] as a string. */
+    private static String decode(byte[] bytes, int from, int len) {
+        return new String(bytes, from, len, CHARSET);
+    }
+
+    /** Character set of the input. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** The input. */
+    private final InputStream _in;
+
+    /** Buffered input. */
+    private final byte[] _buf = new byte[1 << 16];
+
+    /** Next unread byte and end of the valid bytes in _buf. */
+    private int _pos, _end;
+
+    /** File offset of _buf[0]. */
+    private long _base;
+
+    /** Start of a line that spans buffers. */
+    private byte[] _line = new byte[1 << 10];
+
+    /** True iff part of the current line has been read. */
+    private boolean _partial;
+}
@@ -1,11 +1,17 @@
 package enigma;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 import static enigma.EnigmaException.*;
 
-/** Class that represents a complete enigma machine.
+/** Class that represents a complete enigma machine.  The rotors are
+ *  shared, immutable definitions; everything that changes as a machine
+ *  runs is its state, the catalogue indices of the rotors in its slots
+ *  and their positions, held in int arrays.  The state can be saved and
+ *  restored in time proportional to the number of slots, so one machine
+ *  can serve any number of sessions kept as states.
  *  @author Vidhi Chander
  */
 class Machine {
@@ -19,6 +25,7 @@ class Machine {
         _numRotors = numRotors;
         _pawls = pawls;
         _allRotors = allRotors;
+        _catalogue = allRotors.toArray(new Rotor[0]);
     }
 
     /** Return the number of rotor slots I have. */
@@ -43,17 +50,35 @@ class Machine {
     }
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
-     *  available rotors (ROTORS[0] names the reflector).
+     *  available rotors (ROTORS[0] names the reflector).  Where several
+     *  available rotors share a name, the first is used.
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
-        _machineRotors = new ArrayList<Rotor>();
+        int[] ids = new int[rotors.length];
+        int slots = 0;
         for (String s : rotors) {
-            for (Rotor r : _allRotors) {
-                if (s.equalsIgnoreCase(r.name())) {
-                    _machineRotors.add(r);
+            for (int id = 0; id < _catalogue.length; id += 1) {
+                if (s.equalsIgnoreCase(_catalogue[id].name())) {
+                    ids[slots] = id;
+                    slots += 1;
+                    break;
                 }
             }
         }
+        insert(Arrays.copyOf(ids, slots));
+    }
+
+    /** Set my rotor slots to the rotors with catalogue indices IDS, at
+     *  their 0 settings. */
+    private void insert(int[] ids) {
+        _tables = null;
+        _countdown = -1;
+        _ids = ids;
+        _pos = new int[ids.length];
+        _machineRotors = new ArrayList<Rotor>();
+        for (int id : ids) {
+            _machineRotors.add(_catalogue[id]);
+        }
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -62,48 +87,166 @@ class Machine {
     void setRotors(String setting) {
         int i = 1;
         for (char c : setting.toCharArray()) {
-            _machineRotors.get(i).set(c);
+            setPosition(i, _alphabet.toInt(c));
             i += 1;
         }
     }
 
+    /** Return the position of the rotor in slot SLOT. */
+    int position(int slot) {
+        return _pos[slot];
+    }
+
+    /** Set the rotor in slot SLOT to position POSN. */
+    void setPosition(int slot, int posn) {
+        if (!_machineRotors.get(slot).canBeAt(posn)) {
+            throw error("rotor %s cannot be at position %d",
+                        _machineRotors.get(slot).name(), posn);
+        }
+        _pos[slot] = posn;
+        _countdown = -1;
+    }
+
+    /** Return my state: the catalogue indices (in allRotors() order) of
+     *  the rotors in my slots, followed by their positions. */
+    int[] state() {
+        int slots = _ids.length;
+        int[] result = Arrays.copyOf(_ids, 2 * slots);
+        System.arraycopy(_pos, 0, result, slots, slots);
+        return result;
+    }
+
+    /** Restore the state STATE, as returned by state() on me or on a
+     *  machine with the same rotors. */
+    void restore(int[] state) {
+        int slots = state.length / 2;
+        if (state.length % 2 != 0) {
+            throw error("bad machine state");
+        }
+        if (!Arrays.equals(_ids, 0, _ids.length, state, 0, slots)) {
+            for (int j = 0; j < slots; j += 1) {
+                if (state[j] < 0 || state[j] >= _catalogue.length) {
+                    throw error("bad machine state");
+                }
+            }
+            insert(Arrays.copyOf(state, slots));
+        }
+        for (int j = 0; j < slots; j += 1) {
+            setPosition(j, state[slots + j]);
+        }
+    }
+
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        _tables = null;
         _plugboard = plugboard;
     }
 
+    /** Return my plugboard, or null if I have none. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return my engine. */
+    Engine engine() {
+        return _engine;
+    }
+
+    /** Use ENGINE (which must not be used by any other machine) to
+     *  convert messages. */
+    void setEngine(Engine engine) {
+        _engine = engine;
+    }
+
+    /** Return my rotors and plugboard compiled into tables. */
+    MachineTables tables() {
+        if (_tables == null) {
+            _tables = new MachineTables(this);
+        }
+        return _tables;
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
-
      *  the machine. */
     int convert(int c) {
+        advanceRotors();
+        return permute(c);
+    }
+
+    /** Advance my rotors one step, as the keyboard does before each
+     *  character is converted.  Between carries, only the rightmost rotor
+     *  moves, so this just counts down the steps until a rotor that can
+     *  carry reaches its notch, and only then applies the full stepping
+     *  rule in step. */
+    void advanceRotors() {
+        if (_countdown > 0) {
+            _countdown -= 1;
+            int last = _pos.length - 1;
+            _pos[last] = _last.advance(_pos[last]);
+        } else {
+            step();
+            _countdown = countdown();
+        }
+    }
+
+    /** Advance my rotors one step: the leftmost moving rotor whose right
+     *  neighbor is at a notch advances, together with that neighbor
+     *  (unless it is the rightmost rotor), and the rightmost rotor
+     *  always advances. */
+    private void step() {
         int i = 1;
         int k = 0;
         int index = _machineRotors.size() - 1;
 
         while (i < (_machineRotors.size() - 1)) {
-            if ((_machineRotors.get(i + 1).atNotch()
+            if ((_machineRotors.get(i + 1).atNotch(_pos[i + 1])
                     && _machineRotors.get(i).rotates()) && k == 0) {
-                _machineRotors.get(i).advance();
+                _pos[i] = _machineRotors.get(i).advance(_pos[i]);
                 k = 0;
-                if (!(_machineRotors.get(i + 1).equals
-                        (_machineRotors.get(index)))) {
-                    _machineRotors.get(i + 1).advance();
+                if (i + 1 != index) {
+                    _pos[i + 1] = _machineRotors.get(i + 1)
+                        .advance(_pos[i + 1]);
                 }
                 k = k + 1;
             }
             i = i + 1;
         }
-        _machineRotors.get(index).advance();
+        _pos[index] = _machineRotors.get(index).advance(_pos[index]);
+    }
+
+    /** Return the number of steps, each advancing only the rightmost
+     *  rotor, before step would advance any other rotor, and set _last
+     *  to the rightmost rotor. */
+    private int countdown() {
+        int last = _machineRotors.size() - 1;
+        _last = _machineRotors.get(last);
+        int result = Integer.MAX_VALUE;
+        for (int j = 2; j <= last; j += 1) {
+            Rotor r = _machineRotors.get(j);
+            if (!_machineRotors.get(j - 1).rotates()) {
+                continue;
+            } else if (r.atNotch(_pos[j])) {
+                return 0;
+            } else if (j == last) {
+                result = r.stepsToNotch(_pos[j]);
+            }
+        }
+        return result;
+    }
 
+    /** Returns the result of passing C (an index in the range
+     *  0..alphabet size - 1) through the plugboard, rotors and reflector
+     *  at their current settings, without advancing the machine. */
+    int permute(int c) {
         if (_plugboard != null) {
             c = _plugboard.permute(c);
         }
         for (int j = _machineRotors.size() - 1; j >= 0; j -= 1) {
-            c = _machineRotors.get(j).convertForward(c);
+            c = _machineRotors.get(j).convertForward(c, _pos[j]);
         }
         for (int j = 1; j < _machineRotors.size(); j++) {
-            c = _machineRotors.get(j).convertBackward(c);
+            c = _machineRotors.get(j).convertBackward(c, _pos[j]);
         }
 
         if (_plugboard != null) {
@@ -112,18 +255,64 @@ class Machine {
         return c;
     }
 
+    /** Return the permutation that permute applies at the current
+     *  settings, composed from the rotors' permutations. */
+    Permutation permutation() {
+        Permutation result = _plugboard == null
+            ? new Permutation("", _alphabet) : _plugboard;
+        for (int j = _machineRotors.size() - 1; j >= 0; j -= 1) {
+            Rotor r = _machineRotors.get(j);
+            result = result.then(r.permutation().shifted(_pos[j]));
+        }
+        for (int j = 1; j < _machineRotors.size(); j++) {
+            Rotor r = _machineRotors.get(j);
+            result = result.then(r.permutation().shifted(_pos[j])
+                                 .inverse());
+        }
+        if (_plugboard != null) {
+            result = result.then(_plugboard);
+        }
+        return result;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return a new machine like me, with the same alphabet, slot and pawl
+     *  counts and available rotors, and a copy of my engine, so that
+     *  the two machines may be used independently (e.g., in different
+     *  threads).  The new machine has no rotors inserted. */
+    Machine copy() {
+        Machine result =
+            new Machine(_alphabet, _numRotors, _pawls, _allRotors);
+        result.setEngine(_engine.copy());
+        return result;
+    }
+
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String message = "";
-        int converted;
-        for (char s : msg.toCharArray()) {
+        char[] message = msg.toCharArray();
+        convert(message, 0, message.length);
+        return new String(message);
+    }
 
-            converted = convert(_alphabet.toInt(s));
-            message += _alphabet.toChar(converted);
+    /** Replace MSG[FROM .. TO-1] with its encoding/decoding, updating
+     *  the state of the rotors accordingly. */
+    void convert(char[] msg, int from, int to) {
+        if (_indices.length < to - from) {
+            _indices = new int[Math.max(to - from, 2 * _indices.length)];
+        }
+        for (int i = from; i < to; i += 1) {
+            _indices[i - from] = _alphabet.toInt(msg[i]);
+        }
+        _engine.convert(this, _indices, 0, to - from);
+        for (int i = from; i < to; i += 1) {
+            msg[i] = _alphabet.toChar(_indices[i - from]);
         }
-        return message;
     }
 
     /** Common alphabet of my rotors. */
@@ -141,6 +330,32 @@ class Machine {
     /** Collection of all rotors. */
     private Collection<Rotor> _allRotors;
 
+    /** The rotors of _allRotors, indexed by the ids in my state. */
+    private final Rotor[] _catalogue;
+
+    /** Catalogue indices of the rotors in my slots. */
+    private int[] _ids = new int[0];
+
+    /** Positions of the rotors in my slots. */
+    private int[] _pos = new int[0];
+
+    /** The engine converting my messages. */
+    private Engine _engine = new ReferenceEngine();
+
+    /** My rotors and plugboard compiled into tables, or null if not yet
+     *  compiled since they last changed. */
+    private MachineTables _tables;
+
+    /** Alphabet indices of the message being converted. */
+    private int[] _indices = new int[0];
+
+    /** Number of steps, each advancing only _last, before any other
+     *  rotor advances, or -1 if it must be recomputed. */
+    private int _countdown = -1;
+
+    /** My rightmost rotor, valid while _countdown is not -1. */
+    private Rotor _last;
+
     /** Arraylist of all rotors inserted into machine. */
     private ArrayList<Rotor> _machineRotors = new ArrayList<Rotor>();
 }
@@ -0,0 +1,200 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors and plugboard of a set-up Machine, compiled into integer
+ *  tables, for use by the faster conversion engines.  Rotor positions
+ *  are not part of the tables; they are kept in a separate int array
+ *  (one entry per slot) that the engines advance with step and pass to
+ *  convert.
+ *
+ *  Rotor tables are indexed by input + position, and hold outputs
+ *  offset by the alphabet size, so that passing C through a rotor at
+ *  position P is MOD[TABLE[C + P] - P] with no division.
+ *
+ *  Two MachineTables are equal iff they have the same contents, so they
+ *  may be used as keys for data derived from a set-up, shared by
+ *  set-ups that use the same rotors and plugboard.
+ *  @author Vidhi Chander
+ */
+final class MachineTables {
+
+    /** Tables for the rotors currently in M and M's plugboard. */
+    MachineTables(Machine m) {
+        List<Rotor> rotors = m.machineRotors();
+        if (rotors.isEmpty()) {
+            throw error("No configuration");
+        }
+        _size = m.alphabet().size();
+        int n = _size;
+        int slots = rotors.size();
+        _forward = new int[slots][2 * n];
+        _backward = new int[slots][2 * n];
+        _notch = new boolean[slots][n];
+        _rotates = new boolean[slots];
+        _mod = new int[2 * n];
+        _plug = new int[n];
+        for (int k = 0; k < 2 * n; k += 1) {
+            _mod[k] = k % n;
+        }
+        Permutation plugboard = m.plugboard();
+        for (int x = 0; x < n; x += 1) {
+            _plug[x] = plugboard == null ? x : plugboard.permute(x);
+        }
+        for (int j = 0; j < slots; j += 1) {
+            Rotor r = rotors.get(j);
+            Permutation perm = r.permutation();
+            for (int x = 0; x < 2 * n; x += 1) {
+                _forward[j][x] = perm.permute(x % n) + n;
+                _backward[j][x] = perm.invert(x % n) + n;
+            }
+            for (int p = 0; p < n; p += 1) {
+                _notch[j][p] = r.atNotch(p);
+            }
+            _rotates[j] = r.rotates();
+        }
+    }
+
+    /** Return the size of the alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of rotor slots. */
+    int slots() {
+        return _rotates.length;
+    }
+
+    /** Store the current settings of the rotors of M (which must be the
+     *  machine I was compiled from) into POS. */
+    void loadPositions(Machine m, int[] pos) {
+        for (int j = 0; j < pos.length; j += 1) {
+            pos[j] = m.position(j);
+        }
+    }
+
+    /** Set the rotors of M (which must be the machine I was compiled
+     *  from) to the positions POS. */
+    void storePositions(Machine m, int[] pos) {
+        for (int j = 1; j < pos.length; j += 1) {
+            m.setPosition(j, pos[j]);
+        }
+    }
+
+    /** Advance the rotor positions POS one step, exactly as
+     *  Machine.advanceRotors does: the leftmost moving rotor whose right
+     *  neighbor is at a notch advances, together with that neighbor
+     *  (unless the neighbor is the rightmost rotor), and the rightmost
+     *  rotor always advances. */
+    void step(int[] pos) {
+        int last = pos.length - 1;
+        for (int i = 1; i < last; i += 1) {
+            if (_rotates[i] && _notch[i + 1][pos[i + 1]]) {
+                pos[i] = advance(pos[i]);
+                if (i + 1 != last) {
+                    pos[i + 1] = advance(pos[i + 1]);
+                }
+                break;
+            }
+        }
+        if (_rotates[last]) {
+            pos[last] = advance(pos[last]);
+        }
+    }
+
+    /** Return the position after P. */
+    private int advance(int p) {
+        return p + 1 == _size ? 0 : p + 1;
+    }
+
+    /** Return the result of passing C through the plugboard, rotors and
+     *  reflector at positions POS, without advancing. */
+    int convert(int c, int[] pos) {
+        int[] mod = _mod;
+        c = _plug[c];
+        for (int j = pos.length - 1; j >= 0; j -= 1) {
+            c = mod[_forward[j][c + pos[j]] - pos[j]];
+        }
+        for (int j = 1; j < pos.length; j += 1) {
+            c = mod[_backward[j][c + pos[j]] - pos[j]];
+        }
+        return _plug[c];
+    }
+
+    /** Return the plugboard table. */
+    int[] plug() {
+        return _plug;
+    }
+
+    /** Return the forward table of slot J. */
+    int[] forward(int j) {
+        return _forward[j];
+    }
+
+    /** Return the backward table of slot J. */
+    int[] backward(int j) {
+        return _backward[j];
+    }
+
+    /** Return the notch table of slot J: entry P is true iff the rotor
+     *  in slot J has a notch at position P. */
+    boolean[] notch(int j) {
+        return _notch[j];
+    }
+
+    /** Return true iff the rotor in slot J has a pawl. */
+    boolean rotates(int j) {
+        return _rotates[j];
+    }
+
+    /** Return the table reducing 0 .. 2 * size() - 1 modulo size(). */
+    int[] mod() {
+        return _mod;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MachineTables)) {
+            return false;
+        }
+        MachineTables other = (MachineTables) obj;
+        return Arrays.equals(_plug, other._plug)
+            && Arrays.equals(_rotates, other._rotates)
+            && Arrays.deepEquals(_forward, other._forward)
+            && Arrays.deepEquals(_notch, other._notch);
+    }
+
+    @Override
+    public int hashCode() {
+        if (_hash == 0) {
+            _hash = Arrays.hashCode(_plug) * 31
+                + Arrays.deepHashCode(_forward) * 17
+                + Arrays.deepHashCode(_notch);
+        }
+        return _hash;
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Plugboard mapping (the identity if there is no plugboard). */
+    private final int[] _plug;
+
+    /** Per-slot rotor tables, as described in the class comment. */
+    private final int[][] _forward, _backward;
+
+    /** _mod[K] is K modulo the alphabet size. */
+    private final int[] _mod;
+
+    /** _notch[J][P] is true iff the rotor in slot J has a notch at P. */
+    private final boolean[][] _notch;
+
+    /** _rotates[J] is true iff the rotor in slot J has a pawl. */
+    private final boolean[] _rotates;
+
+    /** Hash code of my contents, or 0 if not yet computed. */
+    private int _hash;
+}
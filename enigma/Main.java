@@ -1,12 +1,20 @@
 package enigma;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.regex.Pattern;
 
 import static enigma.EnigmaException.*;
 
@@ -16,7 +24,8 @@ import static enigma.EnigmaException.*;
 public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
+     *  specified by ARGS, which consists of options (see option)
+     *  followed by 1 to 3 file names.
      *  ARGS[0] is the name of a configuration file.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
@@ -36,25 +45,168 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        this(args, null);
+    }
+
+    /** Check ARGS and open the necessary files (see comment on main),
+     *  taking the configuration named by ARGS from CONFIGS, if CONFIGS
+     *  is not null, rather than reading it. */
+    Main(String[] args, ConfigCache configs) {
+        int first;
+        for (first = 0; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            option(args[first]);
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        try {
+            if (_watch) {
+                _registry = new ConfigRegistry(args[0]);
+                _registry.watch(true);
+            } else if (configs != null) {
+                _template = configs.get(args[0]);
+            } else {
+                _config = getInput(args[0]);
+            }
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
-        } else {
-            _input = new Scanner(System.in);
+            if (_cacheBytes > 0 || _cacheDir != null) {
+                _cache = new ResultCache(_cacheBytes > 0 ? _cacheBytes
+                                         : CACHE_SIZE, _cacheDir);
+            }
+
+            if (_journal != null) {
+                if (_pipelineSize > 0) {
+                    throw error("--journal and --pipeline cannot be combined");
+                }
+                if (args.length != 3 || _watch) {
+                    throw error("--journal needs input and output files, and "
+                                + "not --watch");
+                }
+                _resume = _journal.last();
+            }
+
+            if (args.length > 1) {
+                _input = getReader(args[1]);
+            } else {
+                _input = new LineInput(System.in, 0);
+            }
+
+            if (args.length > 2) {
+                _output = getOutput(args[2]);
+            } else {
+                _output = System.out;
+            }
+        } catch (RuntimeException excp) {
+            closeOpened();
+            throw excp;
         }
+    }
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+    /** Record the command-line option OPT.  The options are
+     *      --watch   reload the configuration file whenever it changes;
+     *                each settings line uses the configuration current
+     *                when it is read.  Configurations are checked more
+     *                strictly than without --watch, as by
+     *                ConfigRegistry.validate: in particular, rotor names
+     *                must be unique.
+     *      --engine=NAME
+     *                convert with the named Engine, or with "auto", the
+     *                fastest engine on a short benchmark of the first
+     *                settings line.
+     *      --check   also convert every message with the reference
+     *                engine, and report an error on any difference.
+     *      --journal=FILE
+     *                record progress in FILE every so often, and on
+     *                starting, resume from the last record in FILE, if
+     *                it exists.  FILE is removed once all input is
+     *                processed.  Requires input and output files.
+     *      --journal-every=BYTES
+     *                journal after about every BYTES bytes of input
+     *                (default 16 MiB).
+     *      --pipeline[=SLOTS]
+     *                read, convert and write on three threads, passing
+     *                lines between them through a ring of SLOTS (a power
+     *                of two; 1024 by default) preallocated slots.
+     *      --cache[=BYTES]
+     *                keep the conversions of messages in a cache of
+     *                about BYTES bytes (64 MiB by default), and take a
+     *                message that repeats a cached one (same
+     *                configuration, settings line, rotor state and
+     *                text) from it; see ResultCache.
+     *      --cache-dir=DIR
+     *                also keep every cached conversion in DIR, for later
+     *                runs (implies --cache).
+     *      --indicators
+     *                each message line starts with its message key (the
+     *                numRotors()-1 rotor positions for its text)
+     *                enciphered at the positions given by the last
+     *                settings line (the day key).  The key is deciphered,
+     *                and the rest of the line converted from the key's
+     *                positions; only the rest is printed. */
+    private void option(String opt) {
+        if (opt.equals("--watch")) {
+            _watch = true;
+        } else if (opt.startsWith("--engine=")) {
+            _engineName = opt.substring("--engine=".length());
+            if (!_engineName.equals("auto")) {
+                Engine.create(_engineName);
+            }
+        } else if (opt.equals("--check")) {
+            _check = true;
+        } else if (opt.startsWith("--journal=")) {
+            _journal = new Journal(Paths.get(opt.substring("--journal="
+                                                           .length())));
+        } else if (opt.startsWith("--journal-every=")) {
+            _journalEvery =
+                Options.parseInt(opt.substring("--journal-every=".length()));
+        } else if (opt.equals("--cache")) {
+            _cacheBytes = CACHE_SIZE;
+        } else if (opt.startsWith("--cache=")) {
+            _cacheBytes = Options.parseInt(opt.substring("--cache=".length()));
+        } else if (opt.startsWith("--cache-dir=")) {
+            _cacheDir = Paths.get(opt.substring("--cache-dir=".length()));
+        } else if (opt.equals("--indicators")) {
+            _indicators = true;
+        } else if (opt.equals("--pipeline")) {
+            _pipelineSize = PIPELINE_SIZE;
+        } else if (opt.startsWith("--pipeline=")) {
+            _pipelineSize =
+                Options.parseInt(opt.substring("--pipeline=".length()));
+            if (_pipelineSize < 2 || Integer.bitCount(_pipelineSize) != 1) {
+                throw error("--pipeline needs a power of two above 1");
+            }
         } else {
-            _output = System.out;
+            throw error("unknown option: %s", opt);
         }
     }
 
+    /** A Main that has no input or output, used only to read
+     *  configurations (see readConfig(String)). */
+    private Main() {
+    }
+
+    /** Return an Enigma machine configured from the contents of the
+     *  configuration file named NAME, as for the first argument of
+     *  main. */
+    static Machine readConfig(String name) {
+        Main reader = new Main();
+        reader._config = reader.getInput(name);
+        try {
+            return reader.readConfig();
+        } finally {
+            reader._config.close();
+        }
+    }
+
+    /** Set M up according to the settings line SETTINGS, as for a
+     *  settings line of the input. */
+    static void applySettings(Machine M, String settings) {
+        new Main().setUp(M, settings);
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -64,51 +216,523 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
+    /** Return a LineInput reading from the file named NAME, starting
+     *  where the journal left off when resuming. */
+    private LineInput getReader(String name) {
+        long offset = _resume == null ? 0 : _resume.input;
+        try {
+            FileInputStream in = new FileInputStream(name);
+            in.getChannel().position(offset);
+            return new LineInput(in, offset);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the next line of _input, or null at the end of input. */
+    private String readLine() {
+        try {
+            return _input.readLine();
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Return a PrintStream writing to the file named NAME.  When
+     *  journaling, the output is buffered (and flushed before each
+     *  record), and when resuming, it is first truncated to its length
+     *  when the journal was last written. */
     private PrintStream getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            if (_journal == null) {
+                return new PrintStream(new File(name));
+            }
+            _outputFile = new FileOutputStream(name, _resume != null);
+            if (_resume != null) {
+                if (_outputFile.getChannel().size() < _resume.output) {
+                    throw error("%s is shorter than its journal", name);
+                }
+                _outputFile.getChannel().truncate(_resume.output);
+            }
+            return new PrintStream(new BufferedOutputStream(_outputFile,
+                                                            1 << 16));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /** Flush my output and, unless some of it could not be written,
+     *  append a record of my progress, with machine M, to the journal. */
+    private void journal(Machine M) {
+        if (_output.checkError()) {
+            throw error("could not write output");
+        }
+        try {
+            _outputFile.getChannel().force(false);
+            int[] positions = new int[M.machineRotors().size()];
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = M.position(i);
+            }
+            _journal.append(new Journal.Record(_input.offset(),
+                                               _outputFile.getChannel()
+                                               .position(),
+                                               _settings, positions));
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        _nextJournal = _input.offset() + _journalEvery;
+    }
+
+    /** Restore M to the state recorded by _resume: set up by its
+     *  settings line, with its rotors moved since then. */
+    private void resume(Machine M) {
+        _settings = _resume.settings;
+        if (_settings != null) {
+            setUp(M, _settings);
+            saveDayKey(M);
+            if (_engineName.equals("auto")) {
+                _engineName = calibrate(M, _settings);
+                useEngine(M, _engineName);
+            }
+        }
+        if (M.machineRotors().size() != _resume.positions.length) {
+            throw error("journal does not match configuration");
+        }
+        for (int i = 0; i < _resume.positions.length; i += 1) {
+            M.setPosition(i, _resume.positions[i]);
+        }
+        _nextJournal = _input.offset() + _journalEvery;
+    }
+
+    /** Close whatever files my constructor opened before it failed. */
+    private void closeOpened() {
+        if (_registry != null) {
+            _registry.close();
+        }
+        if (_config != null) {
+            _config.close();
+        }
+        try {
+            if (_outputFile != null) {
+                _outputFile.close();
+            }
+            if (_input != null) {
+                _input.close();
+            }
+        } catch (IOException excp) {
+            /* Ignore: the constructor is already failing. */
+        }
+    }
+
+    /** Close my input and output files, unless they are the standard
+     *  input and output, and stop watching my configuration file. */
+    void close() {
+        if (_registry != null) {
+            _registry.close();
+        }
+        try {
+            if (_output != System.out) {
+                _output.close();
+            }
+            _input.close();
+        } catch (IOException excp) {
+            throw error("could not close input: %s", excp.getMessage());
+        }
+    }
+
+    /** Record the time taken to convert and print each message line
+     *  processed from now on. */
+    void timeMessages() {
+        _messageNanos = new long[1024];
+        _messagesTimed = 0;
+    }
+
+    /** Return the times, in nanoseconds, taken to convert and print each
+     *  message line since timeMessages was called. */
+    long[] messageNanos() {
+        return Arrays.copyOf(_messageNanos, _messagesTimed);
+    }
+
+    /** Record that a message line took NANOS nanoseconds. */
+    private void timeMessage(long nanos) {
+        if (_messagesTimed == _messageNanos.length) {
+            _messageNanos = Arrays.copyOf(_messageNanos, 2 * _messagesTimed);
+        }
+        _messageNanos[_messagesTimed] = nanos;
+        _messagesTimed += 1;
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
-        Machine M = readConfig();
+    void process() {
+        Machine M = startMachine();
+        if (_pipelineSize > 0) {
+            processPipelined(M);
+            return;
+        }
         String next;
-        ArrayList<Rotor> machineRotors;
-        String line = "";
-        while (_input.hasNextLine()) {
-            next = _input.nextLine();
+        while ((next = readLine()) != null) {
             if (next.equals("")) {
                 _output.println();
+            } else if (next.charAt(0) == '*') {
+                M = settingsLine(M, next);
             } else {
-                if (next.charAt(0) == '*') {
-                    setUp(M, next);
+                long start = _messageNanos == null ? 0 : System.nanoTime();
+                int len = convertLine(M, next);
+                printMessageLine(_message, len);
+                if (_messageNanos != null) {
+                    timeMessage(System.nanoTime() - start);
+                }
+            }
+            if (_journal != null && _input.offset() >= _nextJournal) {
+                journal(M);
+            }
+        }
+        _output.flush();
+        if (_journal != null) {
+            if (_output.checkError()) {
+                throw error("could not write output");
+            }
+            _journal.delete();
+        }
+    }
+
+    /** Return the machine to start processing with: configured from
+     *  _config or the current configuration, and resumed from the
+     *  journal if necessary. */
+    private Machine startMachine() {
+        Machine M;
+        if (_registry != null) {
+            _version = _registry.version();
+            M = _registry.current().copy();
+            _alphabet = M.alphabet();
+        } else if (_template != null) {
+            M = _template.copy();
+            _alphabet = M.alphabet();
+        } else {
+            M = readConfig();
+        }
+        useEngine(M, _engineName);
+        if (_resume != null) {
+            resume(M);
+        }
+        return M;
+    }
+
+    /** Set up M according to the settings line NEXT, and return it, or,
+     *  if the configuration has been reloaded since M was made, a new
+     *  machine for the current configuration set up likewise. */
+    private Machine settingsLine(Machine M, String next) {
+        if (_registry != null && _registry.version() != _version) {
+            _version = _registry.version();
+            M = _registry.current().copy();
+            _alphabet = M.alphabet();
+            useEngine(M, _engineName);
+        }
+        setUp(M, next);
+        saveDayKey(M);
+        _settings = next;
+        if (_engineName.equals("auto")) {
+            _engineName = calibrate(M, next);
+            useEngine(M, _engineName);
+        }
+        return M;
+    }
+
+    /** Convert the message line NEXT with M (from the message key in its
+     *  indicator, if _indicators), leaving the result in _message, and
+     *  return its length. */
+    private int convertLine(Machine M, String next) {
+        int len = readMessageLine(next);
+        ArrayList<Rotor> machineRotors = M.machineRotors();
+        if (machineRotors.size() == 0) {
+            throw error("No configuration");
+        } else if (!(machineRotors.get(0).reflecting())) {
+            throw error(("Reflector in wrong place"));
+        }
+        if (!_indicators) {
+            convert(M, 0, len);
+            return len;
+        }
+        int key = M.numRotors() - 1;
+        if (len < key) {
+            throw error("message shorter than its indicator");
+        }
+        for (int i = 1; i <= key; i += 1) {
+            M.setPosition(i, _dayKey[i]);
+        }
+        M.convert(_message, 0, key);
+        for (int i = 1; i <= key; i += 1) {
+            M.setPosition(i, _alphabet.toInt(_message[i - 1]));
+        }
+        convert(M, key, len);
+        System.arraycopy(_message, key, _message, 0, len - key);
+        return len - key;
+    }
+
+    /** Record the rotor positions of M as the day key, when reading
+     *  indicators. */
+    private void saveDayKey(Machine M) {
+        if (_indicators) {
+            if (_dayKey.length != M.numRotors()) {
+                _dayKey = new int[M.numRotors()];
+            }
+            for (int i = 0; i < _dayKey.length; i += 1) {
+                _dayKey[i] = M.position(i);
+            }
+        }
+    }
+
+    /** Process my input as for process, with machine M, reading lines
+     *  on one thread, converting them on another, and printing them on
+     *  this one.  Lines pass between the threads through the slots of
+     *  _pipeline, each of which keeps its character buffer for reuse.
+     *  Errors on the other threads are passed along as the final slot,
+     *  and thrown here once all the lines before them are printed.
+     *  The reader may then still be blocked reading _input, so it is a
+     *  daemon and is waited for only if it reached the end of _input.
+     *  When timing messages, only the conversion is timed. */
+    private void processPipelined(Machine M) {
+        Slot[] slots = new Slot[_pipelineSize];
+        for (int i = 0; i < slots.length; i += 1) {
+            slots[i] = new Slot();
+        }
+        _pipeline = new Pipeline<Slot>(3, slots);
+        Thread reader = new Thread(this::readStage, "enigma-reader");
+        reader.setDaemon(true);
+        Thread converter = new Thread(() -> convertStage(M),
+                                      "enigma-converter");
+        reader.start();
+        converter.start();
+        RuntimeException failure = null;
+        boolean drained = false;
+        try {
+            failure = writeStage();
+            drained = failure == null;
+        } finally {
+            _pipeline.stop();
+            try {
+                converter.join();
+                if (drained) {
+                    reader.join();
+                }
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+            _output.flush();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** The first stage of processPipelined: store each line of _input
+     *  into the next slot. */
+    private void readStage() {
+        for (long seq = 0; _pipeline.await(0, seq) > 0; seq += 1) {
+            Slot slot = _pipeline.slot(seq);
+            try {
+                slot.line = readLine();
+                slot.kind = slot.line == null ? Slot.END : Slot.LINE;
+            } catch (RuntimeException excp) {
+                slot.error = excp;
+                slot.kind = Slot.END;
+            }
+            _pipeline.release(0, seq + 1);
+            if (slot.kind == Slot.END) {
+                return;
+            }
+        }
+    }
+
+    /** The second stage of processPipelined: apply each line of a slot
+     *  to machine M, leaving the converted characters of message lines
+     *  in the slot. */
+    private void convertStage(Machine M) {
+        for (long seq = 0; _pipeline.await(1, seq) > 0; seq += 1) {
+            Slot slot = _pipeline.slot(seq);
+            if (slot.kind == Slot.END) {
+                _pipeline.release(1, seq + 1);
+                return;
+            }
+            String next = slot.line;
+            slot.line = null;
+            try {
+                if (next.equals("")) {
+                    slot.kind = Slot.BLANK;
+                } else if (next.charAt(0) == '*') {
+                    M = settingsLine(M, next);
+                    slot.kind = Slot.SETTINGS;
                 } else {
-                    next = next.toUpperCase();
-                    for (char c : next.toCharArray()) {
-                        if (_alphabet.contains(c)) {
-                            line += c;
-                        }
-                    }
-                    machineRotors = M.machineRotors();
-                    if (machineRotors.size() == 0) {
-                        throw error("No configuration");
-                    } else if (!(machineRotors.get(0).reflecting())) {
-                        throw error(("Reflector in wrong place"));
-                    } else {
-                        printMessageLine(M.convert(line));
-                        line = "";
+                    long start =
+                        _messageNanos == null ? 0 : System.nanoTime();
+                    char[] buffer = slot.text;
+                    slot.len = convertLine(M, next);
+                    slot.text = _message;
+                    _message = buffer;
+                    slot.kind = Slot.MESSAGE;
+                    if (_messageNanos != null) {
+                        timeMessage(System.nanoTime() - start);
                     }
                 }
+            } catch (RuntimeException excp) {
+                slot.error = excp;
+                slot.kind = Slot.END;
+            }
+            _pipeline.release(1, seq + 1);
+            if (slot.kind == Slot.END) {
+                return;
+            }
+        }
+    }
+
+    /** The last stage of processPipelined: print the converted lines in
+     *  each slot.  Returns the error that ended the input, or null. */
+    private RuntimeException writeStage() {
+        for (long seq = 0; _pipeline.await(2, seq) > 0; seq += 1) {
+            Slot slot = _pipeline.slot(seq);
+            if (slot.kind == Slot.END) {
+                return slot.error;
+            } else if (slot.kind == Slot.BLANK) {
+                _output.println();
+            } else if (slot.kind == Slot.MESSAGE) {
+                printMessageLine(slot.text, slot.len);
             }
+            _pipeline.release(2, seq + 1);
+        }
+        return null;
+    }
+
+    /** Replace _message[FROM .. TO-1] with its conversion by M, taking
+     *  it from my cache, if I have one and it holds the conversion. */
+    private void convert(Machine M, int from, int to) {
+        if (_cache == null) {
+            M.convert(_message, from, to);
+        } else if (!_cache.lookup(M, _settings, _message, from, to)) {
+            M.convert(_message, from, to);
+            _cache.store(M, _message, from, to);
         }
+    }
 
+    /** Return my result cache, or null if I have none. */
+    ResultCache cache() {
+        return _cache;
+    }
+
+    /** Return a description of the queue depths and stall times of the
+     *  stages of the last pipelined process, or null if it was not
+     *  pipelined. */
+    String pipelineStats() {
+        return _pipeline == null ? null : _pipeline.toString();
+    }
+
+    /** A line passing through the stages of processPipelined. */
+    private static final class Slot {
+        /** Kinds of slot: a line as read, the end of input (or an
+         *  error), and the converted forms of a blank line, a settings
+         *  line and a message line. */
+        static final int LINE = 0, END = 1, BLANK = 2, SETTINGS = 3,
+            MESSAGE = 4;
+
+        /** My kind. */
+        int kind;
+        /** The line read, when my kind is LINE. */
+        String line;
+        /** The converted characters of a MESSAGE are text[0 .. len-1]. */
+        char[] text = new char[128];
+        /** Number of converted characters. */
+        int len;
+        /** The error that ended the input, if any, when my kind is END. */
+        RuntimeException error;
+    }
 
+    /** Make M convert with the engine named NAME, checked against the
+     *  reference engine if _check.  NAME may be "auto", in which case
+     *  the reference engine is used until calibration. */
+    private void useEngine(Machine M, String name) {
+        Engine engine =
+            Engine.create(name.equals("auto") ? "reference" : name);
+        M.setEngine(_check ? new CheckingEngine(engine) : engine);
+    }
+
+    /** Return the name of the engine that converts fastest on copies of
+     *  M set up according to SETTINGS. */
+    private String calibrate(Machine M, String settings) {
+        int[] sample = new int[CALIBRATION_SIZE];
+        Random random = new Random(0);
+        for (int i = 0; i < sample.length; i += 1) {
+            sample[i] = random.nextInt(M.alphabet().size());
+        }
+        String best = null;
+        long bestTime = Long.MAX_VALUE;
+        for (String name : Engine.NAMES) {
+            Machine trial = M.copy();
+            setUp(trial, settings);
+            Engine engine = Engine.create(name);
+            if (!engine.suits(trial)) {
+                continue;
+            }
+            long time = Long.MAX_VALUE;
+            for (int round = 0; round < CALIBRATION_ROUNDS; round += 1) {
+                int[] msg = sample.clone();
+                long start = System.nanoTime();
+                engine.convert(trial, msg, 0, msg.length);
+                time = Math.min(time, System.nanoTime() - start);
+            }
+            if (time < bestTime) {
+                best = name;
+                bestTime = time;
+            }
+        }
+        return best;
+    }
+
+    /** Store the upper-cased characters of NEXT that are in my alphabet
+     *  into _message, returning their number. */
+    private int readMessageLine(String next) {
+        if (_message.length < next.length()) {
+            _message = new char[2 * next.length()];
+        }
+        int len = 0;
+        for (int i = 0; i < next.length(); i += 1) {
+            char c = next.charAt(i);
+            if (c >= 128) {
+                len = readUnicode(next.substring(i, i + 1), len);
+            } else {
+                len = store(Character.toUpperCase(c), len);
+            }
+        }
+        return len;
+    }
+
+    /** Store the characters of upper-cased S that are in my alphabet
+     *  into _message, starting at LEN, and return the new length.  Used
+     *  for characters whose upper-case forms may be longer. */
+    private int readUnicode(String s, int len) {
+        for (char c : s.toUpperCase().toCharArray()) {
+            len = store(c, len);
+        }
+        return len;
+    }
+
+    /** If C is in my alphabet, store it into _message at LEN, growing
+     *  _message as needed, and return LEN + 1.  Otherwise, return LEN. */
+    private int store(char c, int len) {
+        if (!_alphabet.contains(c)) {
+            return len;
+        }
+        if (len == _message.length) {
+            _message = Arrays.copyOf(_message, 2 * len);
+        }
+        _message[len] = c;
+        return len + 1;
+    }
+
+    /** Return my source of reloaded configurations, or null if I am not
+     *  watching the configuration file. */
+    ConfigRegistry registry() {
+        return _registry;
     }
 
     /** Return an Enigma machine configured from the contents of configuration
@@ -191,14 +815,14 @@ public final class Main {
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+    void setUp(Machine M, String settings) {
         String[] rotors = new String[M.numRotors()];
-        Scanner set = new Scanner(settings);
-        set.next();
-        String plug = "";
+        String[] set = WHITESPACE.split(settings.trim());
+        int next = 1;
         for (int i = 0; i < M.numRotors(); i++) {
-            if (set.hasNext()) {
-                rotors[i] = set.next();
+            if (next < set.length) {
+                rotors[i] = set[next];
+                next += 1;
             }
         }
         boolean error = false;
@@ -233,8 +857,9 @@ public final class Main {
         M.insertRotors(rotors);
 
         String setting;
-        if (set.hasNext()) {
-            setting = set.next();
+        if (next < set.length) {
+            setting = set[next];
+            next += 1;
             if (!(setting.length() == M.numRotors() - 1)) {
                 throw error("Wheel settings too short");
             } else {
@@ -242,40 +867,52 @@ public final class Main {
             }
         }
 
-        while (set.hasNext()) {
-            plug += set.next() + " ";
-        }
-        if (!plug.equals("")) {
-            M.setPlugboard(new Permutation(plug.substring(0,
-                    plug.length() - 1), _alphabet));
+        if (next < set.length) {
+            String plug = String.join(" ",
+                                      Arrays.asList(set).subList(next,
+                                                                 set.length));
+            M.setPlugboard(new Permutation(plug, M.alphabet()));
         }
 
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        int length = msg.length();
-        String output = "";
-        while (length > 0) {
-            if (length <= 5) {
-                output += msg.substring(0, length);
-                _output.println(output);
-                length = 0;
-                output = "";
-            } else {
-                output += msg.substring(0, 5) + " ";
-                msg = msg.substring(5, length);
-                length = msg.length();
+    /** Print the first LEN characters of MSG in groups of five (except
+     *  that the last group may have fewer letters). */
+    private void printMessageLine(char[] msg, int len) {
+        if (len == 0) {
+            return;
+        }
+        _line.setLength(0);
+        for (int i = 0; i < len; i += 1) {
+            if (i > 0 && i % 5 == 0) {
+                _line.append(' ');
             }
+            _line.append(msg[i]);
         }
+        _output.println(_line);
     }
 
+    /** Number of characters converted per calibration round. */
+    private static final int CALIBRATION_SIZE = 1 << 15;
+
+    /** Default size of a result cache, in bytes. */
+    private static final int CACHE_SIZE = 64 << 20;
+
+    /** Default number of slots of a pipeline. */
+    private static final int PIPELINE_SIZE = 1024;
+
+    /** Number of calibration rounds per engine (the best is used). */
+    private static final int CALIBRATION_ROUNDS = 5;
+
+    /** Separator of the fields of a settings line. */
+    private static final Pattern WHITESPACE =
+        Pattern.compile("\\p{javaWhitespace}+");
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private LineInput _input;
 
     /** Source of machine configuration. */
     private Scanner _config;
@@ -283,6 +920,77 @@ public final class Main {
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
-    /** Collection of all rotors. */
+    /** The characters of the message line being converted. */
+    private char[] _message = new char[128];
+
+    /** The grouped output line being printed. */
+    private StringBuilder _line = new StringBuilder();
+
+    /** True iff the configuration file is to be reloaded on changes. */
+    private boolean _watch;
+
+    /** Name of the engine to use, or "auto". */
+    private String _engineName = "reference";
+
+    /** Times of the message lines processed, in nanoseconds, or null if
+     *  not timing (see timeMessages). */
+    private long[] _messageNanos;
+
+    /** Number of message lines timed. */
+    private int _messagesTimed;
+
+    /** True iff engines are to be checked against the reference. */
+    private boolean _check;
+
+    /** Shared configuration to copy, if not reading _config. */
+    private Machine _template;
+
+    /** Source of reloaded configurations, when _watch. */
+    private ConfigRegistry _registry;
+
+    /** Journal of my progress, or null. */
+    private Journal _journal;
+
+    /** The record to resume from, or null to start afresh. */
+    private Journal.Record _resume;
+
+    /** Approximate number of input bytes between journal records. */
+    private long _journalEvery = 16 << 20;
+
+    /** Input offset after which to write the next journal record. */
+    private long _nextJournal;
+
+    /** The output file, when journaling. */
+    private FileOutputStream _outputFile;
+
+    /** The last settings line read, or null. */
+    private String _settings;
+
+    /** Version of the configuration of the machine in use, when
+     *  _watch. */
+    private int _version;
+
+    /** True iff message lines start with indicators. */
+    private boolean _indicators;
+
+    /** Rotor positions set by the last settings line, when
+     *  _indicators. */
+    private int[] _dayKey = new int[0];
+
+    /** Number of slots when pipelining, or 0 to process serially. */
+    private int _pipelineSize;
+
+    /** The pipeline of the last pipelined process, or null. */
+    private Pipeline<Slot> _pipeline;
+
+    /** Size of the result cache in bytes, or 0 if none was asked for. */
+    private long _cacheBytes;
+
+    /** Directory of the result cache, or null. */
+    private Path _cacheDir;
+
+    /** The result cache, or null. */
+    private ResultCache _cache;
+
 
 }
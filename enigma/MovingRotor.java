@@ -9,13 +9,25 @@ class MovingRotor extends Rotor {
 
     /** A rotor named NAME whose permutation in its default setting is
      *  PERM, and whose notches are at the positions indicated in NOTCHES.
-     *  The Rotor is initally in its 0 setting (first character of its
-     *  alphabet).
      */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _notches = notches;
-        _permutation = perm;
+        _atNotch = new boolean[perm.size()];
+        for (int i = 0; i < notches.length(); i += 1) {
+            _atNotch[perm.alphabet().toInt(notches.charAt(i))] = true;
+        }
+        int n = _atNotch.length;
+        _stepsToNotch = new int[n];
+        int next = Integer.MAX_VALUE;
+        for (int p = 2 * n - 1; p >= 0; p -= 1) {
+            if (_atNotch[p % n]) {
+                next = p;
+            }
+            if (p < n) {
+                _stepsToNotch[p] = next == Integer.MAX_VALUE ? next : next - p;
+            }
+        }
     }
 
     @Override
@@ -24,25 +36,32 @@ class MovingRotor extends Rotor {
     }
 
     @Override
-    void advance() {
-        super.set((setting() + 1) % alphabet().size());
+    int advance(int posn) {
+        return posn + 1 == size() ? 0 : posn + 1;
     }
 
     @Override
-    boolean atNotch() {
-        for (char c : _notches.toCharArray()) {
-            if (setting() == alphabet().toInt(c)) {
-                return true;
-            }
+    boolean atNotch(int posn) {
+        return _atNotch[posn];
+    }
 
-        }
-        return false;
+    @Override
+    int stepsToNotch(int posn) {
+        return _stepsToNotch[posn];
     }
 
+    /** Return the notches of this rotor, as characters of its alphabet. */
+    String notches() {
+        return _notches;
+    }
 
     /** The notches for this rotor. */
-    private String _notches;
+    private final String _notches;
+
+    /** _atNotch[P] is true iff P is one of my notch positions. */
+    private final boolean[] _atNotch;
 
-    /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
+    /** _stepsToNotch[P] is the number of advances from position P to the
+     *  next notch position, or Integer.MAX_VALUE if I have none. */
+    private final int[] _stepsToNotch;
 }
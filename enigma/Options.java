@@ -0,0 +1,24 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Parsing of the values of command-line options shared by the tools
+ *  of this package.
+ *  @author Vidhi Chander
+ */
+final class Options {
+
+    /** Return VALUE as a positive integer. */
+    static int parseInt(String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to report the error. */
+        }
+        throw error("expected a positive number: %s", value);
+    }
+
+}
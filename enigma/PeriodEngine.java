@@ -0,0 +1,272 @@
+package enigma;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** An engine for small key spaces that precomputes the machine's output
+ *  for every stepping state.  The states are the positions of the
+ *  rotors with pawls (the others never move), numbered in mixed radix,
+ *  so there are N^P of them for an alphabet of N letters and P pawls:
+ *  17,576 for A-Z and three pawls.  For each state, a table holds the
+ *  following state and the output for every input, so converting a
+ *  character is one load for the step and one for the output.  Each
+ *  state's entries are filled in the first time the state is reached,
+ *  at the cost of converting every input in that state.  That only pays
+ *  off over long runs of characters, so each set-up is first converted
+ *  as by the table engine, and switches to its table once it has
+ *  converted as many characters as the table has entries (at most
+ *  twice the cost of the better choice, whatever the input).
+ *
+ *  Tables depend only on the set-up and on the positions of the rotors
+ *  without pawls, and are shared by all engines and messages that use
+ *  the same ones.  The most recently used tables are kept, up to a total
+ *  size of enigma.period.budget bytes (a system property; 64 MiB by
+ *  default).  A set-up whose table would
+ *  exceed the budget is converted as by the table engine, and
+ *  calibration does not consider this engine for it.
+ *  @author Vidhi Chander
+ */
+class PeriodEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "period";
+    }
+
+    @Override
+    public Engine copy() {
+        return new PeriodEngine();
+    }
+
+    @Override
+    public boolean suits(Machine m) {
+        return tableBytes(m.tables()) <= BUDGET;
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int from, int to) {
+        MachineTables t = m.tables();
+        if (_pos.length != t.slots()) {
+            _pos = new int[t.slots()];
+        }
+        int[] pos = _pos;
+        t.loadPositions(m, pos);
+        if (t != _tables || (_table != null && !_table.fits(pos))) {
+            _table = tableBytes(t) <= BUDGET ? table(t, pos) : null;
+            _tables = t;
+        }
+        if (_table == null || _table._converted < _table._out.length) {
+            if (_table != null) {
+                _table._converted += to - from;
+            }
+            _fallback.convert(m, msg, from, to);
+            return;
+        }
+        int[] next = _table._next;
+        char[] out = _table._out;
+        int n = t.size();
+        int s = _table.state(pos);
+        for (int i = from; i < to; i += 1) {
+            int after = (int) NEXT.getAcquire(next, s);
+            s = after >= 0 ? after : _table.fill(s);
+            msg[i] = out[s * n + msg[i]];
+        }
+        _table.positions(s, pos);
+        t.storePositions(m, pos);
+    }
+
+    /** Return the number of bytes in a table for set-up T, or
+     *  Long.MAX_VALUE if it is too large to build. */
+    static long tableBytes(MachineTables t) {
+        long states = 1;
+        for (int j = 0; j < t.slots(); j += 1) {
+            if (t.rotates(j)) {
+                states *= t.size();
+                if (states > Integer.MAX_VALUE / t.size()) {
+                    return Long.MAX_VALUE;
+                }
+            }
+        }
+        return states * (2L * t.size() + 5);
+    }
+
+    /** Return the table for set-up T, with the rotors without pawls at
+     *  the positions in POS, building it if necessary. */
+    private static Table table(MachineTables t, int[] pos) {
+        Table key = new Table(t, pos);
+        synchronized (TABLES) {
+            Table table = TABLES.get(key);
+            if (table == null) {
+                table = key;
+                TABLES.put(table, table);
+                _cached += tableBytes(t);
+                for (Table old : TABLES.keySet().toArray(new Table[0])) {
+                    if (_cached <= BUDGET || old == table) {
+                        break;
+                    }
+                    TABLES.remove(old);
+                    _cached -= tableBytes(old._tables);
+                }
+            }
+            return table;
+        }
+    }
+
+    /** The precomputed states of one set-up with fixed positions for the
+     *  rotors without pawls.  Tables are equal iff they are for equal
+     *  MachineTables and fixed positions. */
+    private static final class Table {
+
+        /** An unbuilt table for set-up T with the rotors without pawls
+         *  at the positions in POS. */
+        Table(MachineTables t, int[] pos) {
+            _tables = t;
+            _fixed = pos.clone();
+            int pawls = 0;
+            for (int j = 0; j < pos.length; j += 1) {
+                if (t.rotates(j)) {
+                    _fixed[j] = 0;
+                    pawls += 1;
+                }
+            }
+            _moving = new int[pawls];
+            for (int j = 0, k = 0; j < pos.length; j += 1) {
+                if (t.rotates(j)) {
+                    _moving[k] = j;
+                    k += 1;
+                }
+            }
+            int states = 1;
+            for (int k = 0; k < pawls; k += 1) {
+                states *= t.size();
+            }
+            _next = new int[states];
+            Arrays.fill(_next, -1);
+            _out = new char[states * t.size()];
+            _filled = new boolean[states];
+            _scratch = new int[pos.length];
+        }
+
+        /** Fill in the state after state S, and the outputs of that
+         *  state, if not yet done, and return it.  Once _next[S] is set
+         *  (with release semantics) the outputs are complete, so other
+         *  threads may read them without locking. */
+        synchronized int fill(int s) {
+            if (_next[s] >= 0) {
+                return _next[s];
+            }
+            int n = _tables.size();
+            int[] pos = _scratch;
+            positions(s, pos);
+            _tables.step(pos);
+            int next = state(pos);
+            if (!_filled[next]) {
+                for (int c = 0; c < n; c += 1) {
+                    _out[next * n + c] = (char) _tables.convert(c, pos);
+                }
+                _filled[next] = true;
+            }
+            NEXT.setRelease(_next, s, next);
+            return next;
+        }
+
+        /** Return true iff I am for positions POS of the rotors without
+         *  pawls. */
+        boolean fits(int[] pos) {
+            for (int j = 0; j < pos.length; j += 1) {
+                if (!_tables.rotates(j) && pos[j] != _fixed[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return the number of the state whose rotor positions are
+         *  POS. */
+        int state(int[] pos) {
+            int s = 0;
+            for (int k = _moving.length - 1; k >= 0; k -= 1) {
+                s = s * _tables.size() + pos[_moving[k]];
+            }
+            return s;
+        }
+
+        /** Set POS to the rotor positions of state S. */
+        void positions(int s, int[] pos) {
+            System.arraycopy(_fixed, 0, pos, 0, pos.length);
+            for (int k = 0; k < _moving.length; k += 1) {
+                pos[_moving[k]] = s % _tables.size();
+                s /= _tables.size();
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Table
+                && _tables.equals(((Table) obj)._tables)
+                && Arrays.equals(_fixed, ((Table) obj)._fixed);
+        }
+
+        @Override
+        public int hashCode() {
+            return _tables.hashCode() * 31 + Arrays.hashCode(_fixed);
+        }
+
+        /** The set-up. */
+        private final MachineTables _tables;
+
+        /** Positions of the rotors without pawls (0 for the others). */
+        private final int[] _fixed;
+
+        /** Slots of the rotors with pawls, least significant first. */
+        private final int[] _moving;
+
+        /** _next[S] is the state after stepping from state S, or -1 if
+         *  not yet filled in. */
+        private final int[] _next;
+
+        /** _out[S * N + C] is the output for input C in state S, where N
+         *  is the alphabet size, once _filled[S]. */
+        private final char[] _out;
+
+        /** _filled[S] is true iff the outputs of state S are filled in. */
+        private final boolean[] _filled;
+
+        /** Number of characters converted with my set-up, which may be
+         *  low if several threads have used it at once. */
+        private long _converted;
+
+        /** Rotor positions for fill. */
+        private final int[] _scratch;
+    }
+
+    /** Access to the elements of _next, with memory ordering. */
+    private static final VarHandle NEXT =
+        MethodHandles.arrayElementVarHandle(int[].class);
+
+    /** Total bytes of tables kept. */
+    static final long BUDGET =
+        Long.getLong("enigma.period.budget", 64L << 20);
+
+    /** Tables kept, least recently used first. */
+    private static final Map<Table, Table> TABLES =
+        new LinkedHashMap<Table, Table>(16, 0.75f, true);
+
+    /** Total bytes of the tables in TABLES. */
+    private static long _cached;
+
+    /** The set-up for which _table was found, or null. */
+    private MachineTables _tables;
+
+    /** The table in use, or null to use _fallback. */
+    private Table _table;
+
+    /** The engine used when the table would exceed the budget. */
+    private final TableEngine _fallback = new TableEngine();
+
+    /** Rotor positions during conversion. */
+    private int[] _pos = new int[0];
+}
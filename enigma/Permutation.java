@@ -1,5 +1,9 @@
 package enigma;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -15,124 +19,120 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = cycles;
-        addCycle(_cycles);
-    }
-
-    /** Add the cycle c0->c1->...->cm->c0 to an array, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        String[] cyclesList;
-        cyclesList = cycle.split("()");
-        int j = 0;
-        for (String s : cyclesList) {
-            if (s.equals("(")) {
-                j += 1;
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i += 1) {
+            _forward[i] = _inverse[i] = i;
+        }
+        int open = -1;
+        for (int i = 0; i < cycles.length(); i += 1) {
+            char c = cycles.charAt(i);
+            if (c == '(') {
+                open = i;
+            } else if (c == ')' && open >= 0) {
+                addCycle(cycles, open + 1, i);
+                open = -1;
             }
         }
-        int y = 0;
-        int k = 0;
-        if (j != 0) {
-            cycleAlist = new String[j][];
-            for (int i = 0; i < cyclesList.length; i++) {
-                if (!cyclesList[i].equals("(") && !cyclesList[i].equals(" ")) {
-                    if (cyclesList[i].equals(")")) {
-                        cycleAlist[k] = new String[y];
-                        y = -1;
-                        k += 1;
-                    }
-                    y += 1;
+    }
 
-                }
+    /** Set this Permutation to the one whose table is TABLE, a
+     *  permutation of 0 .. ALPHABET.size()-1 (TABLE[P] is the image of
+     *  P). */
+    Permutation(int[] table, Alphabet alphabet) {
+        if (table.length != alphabet.size()) {
+            throw error("permutation table has wrong size");
+        }
+        _alphabet = alphabet;
+        setTable(table.clone());
+        for (int c = 0; c < table.length; c += 1) {
+            if (_inverse[c] < 0) {
+                throw error("not a permutation");
             }
-            y = 0;
-            k = 0;
-            for (int i = 0; i < cyclesList.length; i++) {
-                if (!cyclesList[i].equals("(") && !cyclesList[i].equals(" ")) {
-                    if (cyclesList[i].equals(")")) {
-                        y = 0;
-                        k += 1;
-                    } else {
-                        cycleAlist[k][y] = cyclesList[i];
-                        y++;
-                    }
-                }
+        }
+    }
+
+    /** A permutation with no alphabet or table yet (see ofTable). */
+    private Permutation() {
+    }
+
+    /** Return the permutation of ALPHABET whose table is FORWARD, a
+     *  permutation of 0 .. ALPHABET.size()-1, which is neither copied
+     *  nor checked. */
+    private static Permutation ofTable(Alphabet alphabet, int[] forward) {
+        Permutation result = new Permutation();
+        result._alphabet = alphabet;
+        result.setTable(forward);
+        return result;
+    }
+
+    /** Set my table to FORWARD, which is not copied, and my inverse to
+     *  match.  Elements of FORWARD not in range, and values not in
+     *  FORWARD, have inverse -1. */
+    private void setTable(int[] forward) {
+        _forward = forward;
+        _inverse = new int[forward.length];
+        Arrays.fill(_inverse, -1);
+        for (int p = 0; p < forward.length; p += 1) {
+            if (forward[p] >= 0 && forward[p] < forward.length) {
+                _inverse[forward[p]] = p;
             }
         }
     }
 
+    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where
+     *  CYCLES[START .. END-1] is c0c1...cm, possibly with interspersed
+     *  whitespace. */
+    private void addCycle(String cycles, int start, int end) {
+        int first = -1, prev = -1;
+        for (int i = start; i < end; i += 1) {
+            char c = cycles.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int to = _alphabet.toInt(c);
+            if (prev == -1) {
+                first = to;
+            } else {
+                _forward[prev] = to;
+                _inverse[to] = prev;
+            }
+            prev = to;
+        }
+        if (prev != -1) {
+            _forward[prev] = first;
+            _inverse[first] = prev;
+        }
+    }
+
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
-        int r = p % size();
+        int n = _forward.length;
+        if (p >= 0 && p < n) {
+            return p;
+        }
+        int r = p % n;
         if (r < 0) {
-            r += size();
+            r += n;
         }
         return r;
     }
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int newp = wrap(p);
-        int k = 0;
-        int int2string;
-        if (cycleAlist != null) {
-            while (k < cycleAlist.length) {
-                for (int i = 0; i < cycleAlist[k].length; i++) {
-                    int2string = _alphabet.toInt(cycleAlist[k][i].charAt(0));
-                    if (int2string == newp) {
-                        if ((i + 1) >= cycleAlist[k].length) {
-                            return _alphabet.toInt(cycleAlist[k][0].charAt(0));
-                        } else {
-                            return _alphabet.toInt
-                                    (cycleAlist[k][i + 1].charAt(0));
-
-                        }
-                    }
-
-
-                }
-                k += 1;
-            }
-        }
-        return newp;
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int newp = wrap(c);
-        int k = 0;
-        boolean found = false;
-        int int2string;
-        if (cycleAlist != null) {
-            while (k < cycleAlist.length) {
-                for (int i = 0; i < cycleAlist[k].length; i++) {
-                    int2string = _alphabet.toInt(cycleAlist[k][i].charAt(0));
-                    if (int2string == newp) {
-                        found = true;
-                        if (i == 0) {
-                            return _alphabet.toInt
-                                    (cycleAlist[k][cycleAlist[k].length - 1]
-                                            .charAt(0));
-                        } else {
-                            return _alphabet.toInt
-                                    (cycleAlist[k][i - 1].charAt(0));
-
-                        }
-                    }
-
-
-                }
-                k += 1;
-            }
-        }
-        return newp;
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -154,12 +154,145 @@ class Permutation {
         return _alphabet;
     }
 
+    /** Return my table: element P is the image of P. */
+    int[] table() {
+        return _forward.clone();
+    }
+
+    /** Return the permutation that applies me and then NEXT. */
+    Permutation then(Permutation next) {
+        checkSize(next);
+        int[] result = new int[_forward.length];
+        for (int p = 0; p < result.length; p += 1) {
+            result[p] = next._forward[_forward[p]];
+        }
+        return ofTable(_alphabet, result);
+    }
+
+    /** Return my inverse. */
+    Permutation inverse() {
+        return ofTable(_alphabet, _inverse.clone());
+    }
+
+    /** Return my conjugate by a shift of K: the permutation taking P to
+     *  permute(P + K) - K, modulo the alphabet size.  This is the
+     *  mapping of a rotor with my wiring at setting K. */
+    Permutation shifted(int k) {
+        int n = _forward.length;
+        k = wrap(k);
+        int[] result = new int[n];
+        for (int p = 0, q = k; p < n; p += 1, q = q + 1 == n ? 0 : q + 1) {
+            int c = _forward[q] - k;
+            result[p] = c < 0 ? c + n : c;
+        }
+        return ofTable(_alphabet, result);
+    }
+
+    /** Return my Eth power (the inverse of my -Eth power, if E is
+     *  negative). */
+    Permutation power(int e) {
+        int[] result = new int[_forward.length];
+        for (int[] cycle : cycles()) {
+            int len = cycle.length;
+            int shift = e % len < 0 ? e % len + len : e % len;
+            for (int i = 0; i < len; i += 1) {
+                result[cycle[i]] = cycle[(i + shift) % len];
+            }
+        }
+        return ofTable(_alphabet, result);
+    }
+
+    /** Return my cycles, including those of length 1, each starting with
+     *  its least element, in order of their first elements. */
+    int[][] cycles() {
+        boolean[] seen = new boolean[_forward.length];
+        List<int[]> result = new ArrayList<int[]>();
+        int[] cycle = new int[_forward.length];
+        for (int p = 0; p < _forward.length; p += 1) {
+            int len = 0;
+            for (int q = p; !seen[q]; q = _forward[q]) {
+                seen[q] = true;
+                cycle[len] = q;
+                len += 1;
+            }
+            if (len > 0) {
+                result.add(Arrays.copyOf(cycle, len));
+            }
+        }
+        return result.toArray(new int[0][]);
+    }
+
+    /** Return my cycle type: the lengths of my cycles (including those
+     *  of length 1), longest first.  Conjugate permutations, such as the
+     *  same product with different plugboards, have equal types. */
+    int[] cycleType() {
+        int[] counts = new int[_forward.length + 1];
+        boolean[] seen = new boolean[_forward.length];
+        int cycles = 0;
+        for (int p = 0; p < _forward.length; p += 1) {
+            int len = 0;
+            for (int q = p; !seen[q]; q = _forward[q]) {
+                seen[q] = true;
+                len += 1;
+            }
+            if (len > 0) {
+                counts[len] += 1;
+                cycles += 1;
+            }
+        }
+        int[] result = new int[cycles];
+        int i = 0;
+        for (int len = counts.length - 1; len > 0; len -= 1) {
+            for (int c = 0; c < counts[len]; c += 1) {
+                result[i] = len;
+                i += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return my cycles in the notation of the constructor, omitting
+     *  cycles of length 1. */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int[] cycle : cycles()) {
+            if (cycle.length > 1) {
+                result.append(result.length() == 0 ? "(" : " (");
+                for (int p : cycle) {
+                    result.append(_alphabet.toChar(p));
+                }
+                result.append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Permutations are equal iff they have the same table. */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Permutation
+            && Arrays.equals(_forward, ((Permutation) obj)._forward);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_forward);
+    }
+
+    /** Check that OTHER permutes an alphabet of my size. */
+    private void checkSize(Permutation other) {
+        if (other.size() != size()) {
+            throw error("permutations of different sizes");
+        }
+    }
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** Cycles of this permutation. */
-    private String _cycles;
+    /** My mapping as a table: _forward[P] is the image of P. */
+    private int[] _forward;
 
-    /** Cycles of this permutation sorted into a 2D array. */
-    private String [][] cycleAlist;
+    /** The inverse of _forward: _inverse[C] is the preimage of C. */
+    private int[] _inverse;
 }
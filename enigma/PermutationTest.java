@@ -5,6 +5,8 @@ import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import static enigma.TestUtils.*;
 
 /** The suite of all JUnit tests for the Permutation class.
@@ -97,6 +99,47 @@ public class PermutationTest {
         assertEquals(p.permute('J'), 'C');
     }
 
+    @Test
+    public void checkAlgebra() {
+        Permutation p = new Permutation("(PNH) (ABDFIKLZYXW) (JC)", UPPER);
+        Permutation q = new Permutation("(AELTPHQXRU) (BKNW) (CMOY)", UPPER);
+        Permutation pq = p.then(q);
+        for (int x = 0; x < 26; x += 1) {
+            assertEquals(q.permute(p.permute(x)), pq.permute(x));
+            assertEquals(x, p.inverse().permute(p.permute(x)));
+            assertEquals(p.wrap(p.permute(x + 3) - 3),
+                         p.shifted(3).permute(x));
+        }
+        assertEquals(p.then(p).then(p), p.power(3));
+        assertEquals(p.inverse().then(p.inverse()), p.power(-2));
+        assertEquals(new Permutation("", UPPER), p.power(66));
+        assertEquals(p, new Permutation(p.table(), UPPER));
+        assertEquals(p.hashCode(), new Permutation(p.table(), UPPER)
+                     .hashCode());
+        assertNotEquals(p, q);
+    }
+
+    @Test
+    public void checkCycles() {
+        Permutation p = new Permutation("(PNH) (ABDFIKLZYXW) (JC)", UPPER);
+        assertEquals("(ABDFIKLZYXW) (CJ) (HPN)", p.toString());
+        assertEquals(p, new Permutation(p.toString(), UPPER));
+        assertArrayEquals(new int[] { 11, 3, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                                      1 },
+                          p.cycleType());
+        Permutation r = new Permutation("(PN) (AB)", UPPER);
+        Permutation s = new Permutation("(AZ) (QN)", UPPER);
+        assertArrayEquals(p.cycleType(),
+                          s.then(p).then(s.inverse()).cycleType());
+        assertArrayEquals(new int[] { 2, 2 },
+                          Arrays.copyOf(r.cycleType(), 2));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadTable() {
+        new Permutation(new int[] { 0, 0, 1 }, new CharacterRange('A', 'C'));
+    }
+
 
 
 
@@ -0,0 +1,174 @@
+package enigma;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/** A ring of preallocated slots through which a fixed number of stages,
+ *  each running on its own thread, pass items in order.  Stage 0 fills
+ *  slot number S (for S = 0, 1, ...), then stage 1 processes it, and so
+ *  on; the last stage's release of slot S lets stage 0 reuse it for
+ *  slot S + capacity().  Each stage publishes the number of slots it has
+ *  finished in a cursor, written only by that stage (with release
+ *  semantics) and read by the stage after it (with acquire semantics),
+ *  so each adjacent pair of stages communicates as a single producer and
+ *  single consumer, with no locks and no allocation per item.
+ *
+ *  A stage waiting for its predecessor (or, for stage 0, for the last
+ *  stage to free a slot) spins briefly, then yields, then parks for
+ *  short intervals.  The time each stage spends waiting and the number
+ *  of slots queued before it are recorded, for tuning.
+ *  @author Vidhi Chander
+ */
+final class Pipeline<T> {
+
+    /** A pipeline of STAGES stages over a ring of CAPACITY (a power of
+     *  two) slots, which are SLOTS[0 .. CAPACITY-1]. */
+    Pipeline(int stages, T[] slots) {
+        int capacity = slots.length;
+        if (capacity < 2 || Integer.bitCount(capacity) != 1 || stages < 2) {
+            throw new IllegalArgumentException("bad pipeline shape");
+        }
+        _slots = slots;
+        _mask = capacity - 1;
+        _stages = stages;
+        _cursors = new long[stages * PAD];
+        _stallNanos = new long[stages * PAD];
+        _depthSum = new long[stages * PAD];
+        _waits = new long[stages * PAD];
+        _maxDepth = new long[stages * PAD];
+    }
+
+    /** Return the number of slots. */
+    int capacity() {
+        return _slots.length;
+    }
+
+    /** Return slot number SEQ. */
+    T slot(long seq) {
+        return _slots[(int) seq & _mask];
+    }
+
+    /** Wait until stage STAGE may process slot number SEQ, and return
+     *  the number of slots it may then process before waiting again
+     *  (SEQ and the ones after it), or 0 if the pipeline was stopped. */
+    long await(int stage, long seq) {
+        long available = available(stage, seq);
+        if (available == 0) {
+            long start = System.nanoTime();
+            for (int spins = 0; available == 0; spins += 1) {
+                if (_stopped) {
+                    return 0;
+                }
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                } else if (spins < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+                available = available(stage, seq);
+            }
+            _stallNanos[stage * PAD] += System.nanoTime() - start;
+        }
+        int k = stage * PAD;
+        long depth = stage == 0 ? capacity() - available : available;
+        _depthSum[k] += depth;
+        _waits[k] += 1;
+        _maxDepth[k] = Math.max(_maxDepth[k], depth);
+        return available;
+    }
+
+    /** Return the number of slots from SEQ on that STAGE may process
+     *  now. */
+    private long available(int stage, long seq) {
+        if (stage == 0) {
+            long freed = (long) CURSOR.getAcquire(_cursors,
+                                                  (_stages - 1) * PAD);
+            return freed + capacity() - seq;
+        }
+        return (long) CURSOR.getAcquire(_cursors, (stage - 1) * PAD) - seq;
+    }
+
+    /** Record that stage STAGE has finished with all slots before number
+     *  SEQ. */
+    void release(int stage, long seq) {
+        CURSOR.setRelease(_cursors, stage * PAD, seq);
+    }
+
+    /** Make any stage that is waiting, or waits from now on, give up. */
+    void stop() {
+        _stopped = true;
+    }
+
+    /** Return the total time stage STAGE has spent waiting, in
+     *  nanoseconds.  Valid once the stage's thread has finished. */
+    long stallNanos(int stage) {
+        return _stallNanos[stage * PAD];
+    }
+
+    /** Return the mean number of slots queued for stage STAGE (for stage
+     *  0, the number in use) when it looked for more.  Valid once the
+     *  stage's thread has finished. */
+    double meanDepth(int stage) {
+        int k = stage * PAD;
+        return _waits[k] == 0 ? 0 : (double) _depthSum[k] / _waits[k];
+    }
+
+    /** Return the largest number of slots queued for stage STAGE (as for
+     *  meanDepth). */
+    long maxDepth(int stage) {
+        return _maxDepth[stage * PAD];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("ring of %d slots:", capacity()));
+        for (int s = 0; s < _stages; s += 1) {
+            result.append(String.format(" stage %d stalled %.1f ms, "
+                                        + "depth %.1f (max %d);", s,
+                                        stallNanos(s) * 1e-6, meanDepth(s),
+                                        maxDepth(s)));
+        }
+        result.setLength(result.length() - 1);
+        return result.toString();
+    }
+
+    /** Stride between the array elements of different stages, so that
+     *  they lie on different cache lines. */
+    private static final int PAD = 16;
+
+    /** Number of times to spin before yielding. */
+    private static final int SPINS = 100;
+
+    /** Number of times to yield before parking. */
+    private static final int YIELDS = 10;
+
+    /** Time to park for at a time when waiting. */
+    private static final long PARK_NANOS = 20_000;
+
+    /** Access to the elements of _cursors, with memory ordering. */
+    private static final VarHandle CURSOR =
+        MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** The slots. */
+    private final T[] _slots;
+
+    /** capacity() - 1. */
+    private final int _mask;
+
+    /** Number of stages. */
+    private final int _stages;
+
+    /** _cursors[S * PAD] is the number of slots stage S has finished. */
+    private final long[] _cursors;
+
+    /** Statistics of each stage, at index S * PAD, each written only by
+     *  stage S: total waiting time, sum of and number of depth samples,
+     *  and maximum depth. */
+    private final long[] _stallNanos, _depthSum, _waits, _maxDepth;
+
+    /** True iff the pipeline has been stopped. */
+    private volatile boolean _stopped;
+}
@@ -0,0 +1,139 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Pipeline class and pipelined
+ *  runs of Main.
+ *  @author Vidhi Chander
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void stagesSeeSlotsInOrder() throws InterruptedException {
+        final int items = 100000;
+        long[][] slots = new long[4][1];
+        Pipeline<long[]> pipeline = new Pipeline<long[]>(3, slots);
+        Thread producer = new Thread(() -> {
+            for (long seq = 0; seq < items; seq += 1) {
+                pipeline.await(0, seq);
+                pipeline.slot(seq)[0] = seq;
+                pipeline.release(0, seq + 1);
+            }
+        });
+        Thread doubler = new Thread(() -> {
+            for (long seq = 0; seq < items; seq += 1) {
+                pipeline.await(1, seq);
+                pipeline.slot(seq)[0] *= 2;
+                pipeline.release(1, seq + 1);
+            }
+        });
+        producer.start();
+        doubler.start();
+        for (long seq = 0; seq < items; seq += 1) {
+            assertTrue(pipeline.await(2, seq) > 0);
+            assertEquals(2 * seq, pipeline.slot(seq)[0]);
+            pipeline.release(2, seq + 1);
+        }
+        producer.join();
+        doubler.join();
+        assertTrue(pipeline.maxDepth(0) <= 4);
+        assertTrue(pipeline.maxDepth(2) <= 4);
+        pipeline.stop();
+        assertEquals(0, pipeline.await(2, items));
+    }
+
+    @Test
+    public void pipelinedRunMatchesSerialRun() throws IOException {
+        File[] files = traffic("--seed=44", "--settings=30",
+                               "--messages=10");
+        File conf = files[0], input = files[1];
+        File expected = tempFile(".out"), output = tempFile(".out");
+        assertNull(runMain(conf.getPath(), input.getPath(),
+                           expected.getPath()).pipelineStats());
+        assertNotNull(runMain("--pipeline=8", "--engine=table",
+                              conf.getPath(), input.getPath(),
+                              output.getPath()).pipelineStats());
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void pipelinedErrorFollowsEarlierOutput() throws IOException {
+        File[] files = traffic("--seed=45", "--settings=30",
+                               "--messages=10");
+        File conf = files[0], input = files[1];
+        String good = new String(Files.readAllBytes(input.toPath()),
+                                 StandardCharsets.UTF_8);
+        int bad = good.indexOf("* REF", good.length() / 2);
+        Files.write(input.toPath(),
+                    good.substring(0, bad).getBytes(StandardCharsets.UTF_8));
+        File expected = tempFile(".out");
+        runMain(conf.getPath(), input.getPath(), expected.getPath());
+
+        Files.write(input.toPath(), (good.substring(0, bad) + "* XXX"
+                                     + good.substring(bad + 5)).getBytes());
+        File output = tempFile(".out");
+        try {
+            runMain("--pipeline=4", conf.getPath(), input.getPath(),
+                    output.getPath());
+            fail("bad settings line accepted");
+        } catch (EnigmaException excp) {
+            assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                              Files.readAllBytes(output.toPath()));
+        }
+    }
+
+    @Test
+    public void errorDoesNotWaitForInput() throws IOException {
+        File conf = traffic("--seed=46", "--settings=1")[0];
+        PipedOutputStream feed = new PipedOutputStream();
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        Main main;
+        System.setIn(new PipedInputStream(feed));
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            main = new Main(new String[] { "--pipeline", conf.getPath() });
+        } finally {
+            System.setIn(stdin);
+            System.setOut(stdout);
+        }
+        feed.write("* XXX\n".getBytes(StandardCharsets.UTF_8));
+        feed.flush();
+        try {
+            main.process();
+            fail("bad settings line accepted");
+        } catch (EnigmaException excp) {
+            /* Expected, with the input still open. */
+        } finally {
+            feed.close();
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void pipelineSizeMustBePowerOfTwo() {
+        new Main(new String[] { "--pipeline=6", "x.conf" });
+    }
+
+}
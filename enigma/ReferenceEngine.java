@@ -0,0 +1,27 @@
+package enigma;
+
+/** The reference engine, which converts each character by walking the
+ *  machine's Rotor and Permutation objects.  It is the oracle against
+ *  which the other engines are checked.
+ *  @author Vidhi Chander
+ */
+class ReferenceEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "reference";
+    }
+
+    @Override
+    public Engine copy() {
+        return new ReferenceEngine();
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            msg[i] = m.convert(msg[i]);
+        }
+    }
+
+}
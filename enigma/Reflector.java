@@ -12,16 +12,15 @@ class Reflector extends FixedRotor {
     Reflector(String name, Permutation perm) {
         super(name, perm);
     }
+
     @Override
     boolean reflecting() {
         return true;
     }
 
     @Override
-    void set(int posn) {
-        if (posn != 0) {
-            throw error("reflector has only one position");
-        }
+    boolean canBeAt(int posn) {
+        return posn == 0;
     }
 
 }
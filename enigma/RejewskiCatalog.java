@@ -0,0 +1,536 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** A catalogue of Rejewski characteristics.  A ground setting with
+ *  K = numRotors() - 1 setting letters is used to encipher a doubled
+ *  message key of 2K letters.  If P1 .. P2K are the machine's
+ *  permutations at those 2K positions, the characteristic of the ground
+ *  setting is the list of cycle types of the K products P1 P(K+1),
+ *  P2 P(K+2), ... (for the classic three-rotor machine, AD, BE and CF).
+ *  Cycle types do not depend on the plugboard.
+ *
+ *  A catalogue holds the characteristic of every rotor order and every
+ *  position of the moving rotors (stationary rotors are at their 0
+ *  setting) in a memory-mapped file that maps each characteristic
+ *  signature to the ground settings having it, in constant time.
+ *  Signatures are 64-bit hashes of the cycle types, so distinct
+ *  characteristics collide only with negligible probability.
+ *  @author Vidhi Chander
+ */
+public final class RejewskiCatalog {
+
+    /** Build or query catalogues, as specified by ARGS:
+     *      build CONF INDEX [ROTOR ...]
+     *  writes the catalogue of configuration file CONF to file INDEX,
+     *  using only the named rotors if any are given;
+     *      lookup INDEX CHARACTERISTIC
+     *  prints the ground settings in INDEX having CHARACTERISTIC, written
+     *  as for describe (e.g. "13 13/10 10 3 3/7 7 6 6"). */
+    public static void main(String... args) {
+        try {
+            if (args.length >= 3 && args[0].equals("build")) {
+                List<String> pool = new ArrayList<String>();
+                for (int i = 3; i < args.length; i += 1) {
+                    pool.add(args[i]);
+                }
+                long start = System.nanoTime();
+                int distinct =
+                    build(Main.readConfig(args[1]), pool, Paths.get(args[2]));
+                System.out.printf("%d characteristics in %.2f s%n", distinct,
+                                  (System.nanoTime() - start) * 1e-9);
+            } else if (args.length == 3 && args[0].equals("lookup")) {
+                RejewskiCatalog cat = open(Paths.get(args[1]));
+                for (String setting : cat.lookup(parse(args[2]))) {
+                    System.out.println(setting);
+                }
+            } else {
+                throw error("Usage: build CONF INDEX [ROTOR ...]"
+                            + " | lookup INDEX CHARACTERISTIC");
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write the catalogue of TEMPLATE's rotors (restricted to POOL, if
+     *  non-empty) to the file at PATH, using all available processors.
+     *  Returns the number of distinct characteristics. */
+    static int build(Machine template, List<String> pool, Path path) {
+        List<String[]> orders = KeySpace.rotorOrders(template, pool);
+        if (orders.isEmpty()) {
+            throw error("no valid rotor orders");
+        }
+        int n = template.alphabet().size();
+        long positions = 1;
+        for (int i = 0; i < template.numPawls(); i += 1) {
+            positions *= n;
+        }
+        if (positions * orders.size() > Integer.MAX_VALUE) {
+            throw error("catalogue too large");
+        }
+        int npos = (int) positions;
+        long[] sigs = new long[npos * orders.size()];
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> work = new ArrayList<Future<?>>();
+            for (int o = 0; o < orders.size(); o += 1) {
+                final int order = o;
+                work.add(executor.submit(() -> characterize(template.copy(),
+                    orders.get(order), sigs, order * npos, npos)));
+            }
+            for (Future<?> f : work) {
+                f.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("catalogue build interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("catalogue build failed: %s", excp.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return write(template, orders, npos, sigs, path);
+    }
+
+    /** Store in SIGS[BASE + P], for 0 <= P < NPOS, the characteristic
+     *  signature of machine M with rotors ORDER and moving-rotor
+     *  positions P (a base-alphabet-size numeral, last slot least
+     *  significant). */
+    private static void characterize(Machine m, String[] order, long[] sigs,
+                                     int base, int npos) {
+        Alphabet alpha = m.alphabet();
+        int n = alpha.size();
+        int k = m.numRotors() - 1;
+        int firstMoving = m.numRotors() - m.numPawls() - 1;
+        m.insertRotors(order);
+        m.setPlugboard(null);
+        int[][] perms = new int[2 * k][n];
+        int[][] products = new int[k][n];
+        char[] setting = new char[k];
+        for (int p = 0; p < npos; p += 1) {
+            int rest = p;
+            for (int i = k - 1; i >= 0; i -= 1) {
+                if (i >= firstMoving) {
+                    setting[i] = alpha.toChar(rest % n);
+                    rest /= n;
+                } else {
+                    setting[i] = alpha.toChar(0);
+                }
+            }
+            m.setRotors(new String(setting));
+            for (int j = 0; j < 2 * k; j += 1) {
+                m.advanceRotors();
+                for (int x = 0; x < n; x += 1) {
+                    perms[j][x] = m.permute(x);
+                }
+            }
+            for (int j = 0; j < k; j += 1) {
+                for (int x = 0; x < n; x += 1) {
+                    products[j][x] = perms[j + k][perms[j][x]];
+                }
+            }
+            sigs[base + p] = signature(products);
+        }
+    }
+
+    /** Return the signature of the cycle types of PRODUCTS, each a
+     *  permutation of 0 .. n-1 given as a table. */
+    static long signature(int[][] products) {
+        int n = products[0].length;
+        int[] counts = new int[n + 1];
+        boolean[] seen = new boolean[n];
+        long h = FNV_OFFSET;
+        for (int[] perm : products) {
+            Arrays.fill(counts, 0);
+            Arrays.fill(seen, false);
+            for (int x = 0; x < n; x += 1) {
+                int len = 0;
+                for (int y = x; !seen[y]; y = perm[y]) {
+                    seen[y] = true;
+                    len += 1;
+                }
+                counts[len] += 1;
+            }
+            h = hashCounts(h, counts);
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    /** Return H updated with the cycle-length histogram COUNTS (COUNTS[L]
+     *  is the number of cycles of length L), longest cycles first, and a
+     *  group separator. */
+    private static long hashCounts(long h, int[] counts) {
+        for (int len = counts.length - 1; len > 0; len -= 1) {
+            for (int c = 0; c < counts[len]; c += 1) {
+                h = (h ^ len) * FNV_PRIME;
+            }
+        }
+        return (h ^ 0xff) * FNV_PRIME;
+    }
+
+    /** Return the signature of CHARACTERISTIC, written as groups of
+     *  cycle lengths separated by whitespace, with groups separated by
+     *  '/'. */
+    static long parse(String characteristic) {
+        String[] groups = characteristic.trim().split("/");
+        long h = FNV_OFFSET;
+        for (String group : groups) {
+            String[] lengths = group.trim().split("\\s+");
+            int max = 0;
+            int[] values = new int[lengths.length];
+            try {
+                for (int i = 0; i < lengths.length; i += 1) {
+                    values[i] = Integer.parseInt(lengths[i]);
+                    if (values[i] <= 0) {
+                        throw error("bad cycle length: %s", lengths[i]);
+                    }
+                    max = Math.max(max, values[i]);
+                }
+            } catch (NumberFormatException excp) {
+                throw error("bad characteristic: %s", characteristic);
+            }
+            int[] counts = new int[max + 1];
+            for (int v : values) {
+                counts[v] += 1;
+            }
+            h = hashCounts(h, counts);
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    /** Return the characteristic of PRODUCTS (as for signature) written
+     *  as for parse. */
+    static String describe(int[][] products) {
+        StringBuilder out = new StringBuilder();
+        int n = products[0].length;
+        boolean[] seen = new boolean[n];
+        for (int[] perm : products) {
+            int[] counts = new int[n + 1];
+            Arrays.fill(seen, false);
+            for (int x = 0; x < n; x += 1) {
+                int len = 0;
+                for (int y = x; !seen[y]; y = perm[y]) {
+                    seen[y] = true;
+                    len += 1;
+                }
+                counts[len] += 1;
+            }
+            if (out.length() > 0) {
+                out.append('/');
+            }
+            String sep = "";
+            for (int len = n; len > 0; len -= 1) {
+                for (int c = 0; c < counts[len]; c += 1) {
+                    out.append(sep).append(len);
+                    sep = " ";
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /** Return the products P1 P(K+1), ..., PK P(2K) determined by
+     *  INDICATORS, a collection of doubled message keys of 2K letters
+     *  each enciphered at the same ground setting in ALPHA.  Throws an
+     *  exception if the indicators do not determine every product
+     *  completely. */
+    static int[][] products(Alphabet alpha, List<String> indicators) {
+        if (indicators.isEmpty()) {
+            throw error("no indicators");
+        }
+        int n = alpha.size();
+        int k = indicators.get(0).length() / 2;
+        int[][] products = new int[k][n];
+        for (int[] p : products) {
+            Arrays.fill(p, -1);
+        }
+        for (String ind : indicators) {
+            if (ind.length() != 2 * k) {
+                throw error("indicators of different lengths");
+            }
+            for (int j = 0; j < k; j += 1) {
+                int from = alpha.toInt(ind.charAt(j));
+                int to = alpha.toInt(ind.charAt(j + k));
+                if (products[j][from] != -1 && products[j][from] != to) {
+                    throw error("inconsistent indicators");
+                }
+                products[j][from] = to;
+            }
+        }
+        for (int[] p : products) {
+            for (int to : p) {
+                if (to == -1) {
+                    throw error("indicators do not determine the "
+                                + "characteristic");
+                }
+            }
+        }
+        return products;
+    }
+
+    /** Write the catalogue for TEMPLATE's rotor ORDERS with NPOS
+     *  positions each, whose signatures are SIGS, to PATH.  Returns the
+     *  number of distinct signatures. */
+    private static int write(Machine template, List<String[]> orders,
+                             int npos, long[] sigs, Path path) {
+        int[] counts = new int[tableSize(sigs.length)];
+        long[] keys = new long[counts.length];
+        int distinct = 0;
+        for (long sig : sigs) {
+            int b = probe(keys, sig);
+            if (keys[b] == 0) {
+                keys[b] = sig;
+                distinct += 1;
+            }
+            counts[b] += 1;
+        }
+
+        int buckets = tableSize(distinct);
+        long[] finalKeys = new long[buckets];
+        int[] starts = new int[buckets];
+        int[] sizes = new int[buckets];
+        int next = 0;
+        for (int i = 0; i < keys.length; i += 1) {
+            if (keys[i] != 0) {
+                int b = probe(finalKeys, keys[i]);
+                finalKeys[b] = keys[i];
+                starts[b] = next;
+                next += counts[i];
+            }
+        }
+        int[] fill = starts.clone();
+        int[] entries = new int[sigs.length];
+        for (int e = 0; e < sigs.length; e += 1) {
+            int b = probe(finalKeys, sigs[e]);
+            entries[fill[b]] = e;
+            fill[b] += 1;
+            sizes[b] += 1;
+        }
+
+        byte[] header = header(template, orders, npos, buckets,
+                               entries.length);
+        long size = (long) header.length + (long) buckets * BUCKET_BYTES
+            + 4L * entries.length;
+        try (FileChannel ch = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0,
+                                          size);
+            buf.put(header);
+            for (int b = 0; b < buckets; b += 1) {
+                buf.putLong(finalKeys[b]);
+                buf.putInt(starts[b]);
+                buf.putInt(sizes[b]);
+            }
+            buf.asIntBuffer().put(entries);
+            buf.force();
+        } catch (IOException excp) {
+            throw error("could not write %s", path);
+        }
+        return distinct;
+    }
+
+    /** Return the header of a catalogue file for TEMPLATE, ORDERS, NPOS,
+     *  BUCKETS and NENTRIES. */
+    private static byte[] header(Machine template, List<String[]> orders,
+                                 int npos, int buckets, int nentries) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            Alphabet alpha = template.alphabet();
+            out.writeInt(MAGIC);
+            out.writeInt(alpha.size());
+            for (int i = 0; i < alpha.size(); i += 1) {
+                out.writeChar(alpha.toChar(i));
+            }
+            out.writeInt(template.numRotors());
+            out.writeInt(template.numPawls());
+            out.writeInt(orders.size());
+            for (String[] order : orders) {
+                for (String name : order) {
+                    out.writeUTF(name);
+                }
+            }
+            out.writeInt(npos);
+            out.writeInt(buckets);
+            out.writeInt(nentries);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("could not write catalogue header");
+        }
+    }
+
+    /** Return the smallest power of two at least twice N. */
+    private static int tableSize(int n) {
+        int size = 2;
+        while (size < 2 * n) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /** Return the index in the open-addressed table KEYS (whose length is
+     *  a power of two) of SIG, or of the empty slot where it belongs. */
+    private static int probe(long[] keys, long sig) {
+        int mask = keys.length - 1;
+        int b = mix(sig) & mask;
+        while (keys[b] != 0 && keys[b] != sig) {
+            b = (b + 1) & mask;
+        }
+        return b;
+    }
+
+    /** Return a well-distributed bucket hash of SIG. */
+    private static int mix(long sig) {
+        long h = sig * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Return the catalogue in the file at PATH. */
+    static RejewskiCatalog open(Path path) {
+        try (FileChannel ch = FileChannel.open(path,
+                                               StandardOpenOption.READ)) {
+            return new RejewskiCatalog(
+                ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } catch (IOException excp) {
+            throw error("could not open %s", path);
+        }
+    }
+
+    /** A catalogue whose file contents are BUF. */
+    private RejewskiCatalog(ByteBuffer buf) {
+        if (buf.getInt() != MAGIC) {
+            throw error("not a catalogue file");
+        }
+        _letters = new char[buf.getInt()];
+        for (int i = 0; i < _letters.length; i += 1) {
+            _letters[i] = buf.getChar();
+        }
+        int numRotors = buf.getInt();
+        _pawls = buf.getInt();
+        _orders = new String[buf.getInt()][numRotors];
+        for (String[] order : _orders) {
+            for (int i = 0; i < numRotors; i += 1) {
+                int len = buf.getShort() & 0xffff;
+                byte[] utf = new byte[len];
+                buf.get(utf);
+                order[i] = new String(utf, StandardCharsets.UTF_8);
+            }
+        }
+        _npos = buf.getInt();
+        _buckets = buf.getInt();
+        int nentries = buf.getInt();
+        _table = buf.slice(buf.position(), _buckets * BUCKET_BYTES);
+        _entries = buf.slice(buf.position() + _buckets * BUCKET_BYTES,
+                             4 * nentries).asIntBuffer();
+    }
+
+    /** Return the number of distinct characteristics in this
+     *  catalogue. */
+    int size() {
+        int count = 0;
+        for (int b = 0; b < _buckets; b += 1) {
+            if (_table.getLong(b * BUCKET_BYTES) != 0) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Return the ground settings with signature SIG, each in the
+     *  format of a settings line without a plugboard. */
+    List<String> lookup(long sig) {
+        List<String> result = new ArrayList<String>();
+        int mask = _buckets - 1;
+        for (int b = mix(sig) & mask;; b = (b + 1) & mask) {
+            long key = _table.getLong(b * BUCKET_BYTES);
+            if (key == 0) {
+                return result;
+            } else if (key == sig) {
+                int start = _table.getInt(b * BUCKET_BYTES + 8);
+                int count = _table.getInt(b * BUCKET_BYTES + 12);
+                for (int i = 0; i < count; i += 1) {
+                    result.add(setting(_entries.get(start + i)));
+                }
+                return result;
+            }
+        }
+    }
+
+    /** Return the settings line of catalogue entry E. */
+    private String setting(int e) {
+        String[] order = _orders[e / _npos];
+        int p = e % _npos;
+        int k = order.length - 1;
+        char[] posn = new char[k];
+        for (int i = k - 1; i >= 0; i -= 1) {
+            if (i >= k - _pawls) {
+                posn[i] = _letters[p % _letters.length];
+                p /= _letters.length;
+            } else {
+                posn[i] = _letters[0];
+            }
+        }
+        return "* " + String.join(" ", order) + " " + new String(posn);
+    }
+
+    /** Magic number identifying catalogue files. */
+    private static final int MAGIC = 0x454e5243;
+
+    /** Size in bytes of a bucket: signature, start and count. */
+    private static final int BUCKET_BYTES = 16;
+
+    /** FNV-1a hash parameters. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L,
+        FNV_PRIME = 0x100000001b3L;
+
+    /** The characters of the catalogue's alphabet, in order. */
+    private final char[] _letters;
+
+    /** Number of moving rotors. */
+    private final int _pawls;
+
+    /** Rotor orders, in entry order. */
+    private final String[][] _orders;
+
+    /** Number of positions per rotor order. */
+    private final int _npos;
+
+    /** Number of buckets in _table (a power of two). */
+    private final int _buckets;
+
+    /** Signature table: (signature, start, count) per bucket. */
+    private final ByteBuffer _table;
+
+    /** Entry numbers, grouped by signature. */
+    private final IntBuffer _entries;
+}
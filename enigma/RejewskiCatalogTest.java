@@ -0,0 +1,97 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the RejewskiCatalog class.
+ *  @author Vidhi Chander
+ */
+public class RejewskiCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private Alphabet alpha = new CharacterRange('H', 'Q');
+
+    /** Return a machine like that of testing/correct/reduced.conf. */
+    private Machine reduced() {
+        Rotor[] rotors = {
+            new Reflector("RF", new Permutation("(HI) (JK) (LM) (NO) (PQ)",
+                                                alpha)),
+            new MovingRotor("Rot1", new Permutation("(HIJK) (LMNOPQ)", alpha),
+                            "J"),
+            new MovingRotor("Rot2", new Permutation("(IHKJMLONQP)", alpha),
+                            "N"),
+        };
+        return new Machine(alpha, 3, 2,
+                           new ArrayList<>(Arrays.asList(rotors)));
+    }
+
+    /** Return the doubled indicators of every message key, enciphered
+     *  on M at ground setting GROUND with rotors ORDER. */
+    private List<String> indicators(Machine m, String[] order,
+                                    String ground) {
+        List<String> result = new ArrayList<>();
+        m.insertRotors(order);
+        for (int a = 0; a < alpha.size(); a += 1) {
+            for (int b = 0; b < alpha.size(); b += 1) {
+                String key = "" + alpha.toChar(a) + alpha.toChar(b);
+                m.setRotors(ground);
+                result.add(m.convert(key + key));
+            }
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRotorOrders() {
+        List<String[]> orders =
+            KeySpace.rotorOrders(reduced(), new ArrayList<>());
+        assertEquals(2, orders.size());
+        assertEquals("RF Rot1 Rot2", String.join(" ", orders.get(0)));
+        assertEquals("RF Rot2 Rot1", String.join(" ", orders.get(1)));
+    }
+
+    @Test
+    public void checkDescribeAndParse() {
+        int[][] products = { { 1, 0, 3, 4, 2, 5 }, { 0, 1, 2, 3, 4, 5 } };
+        String text = RejewskiCatalog.describe(products);
+        assertEquals("3 2 1/1 1 1 1 1 1", text);
+        assertEquals(RejewskiCatalog.signature(products),
+                     RejewskiCatalog.parse(text));
+    }
+
+    @Test
+    public void checkLookup() throws IOException {
+        File index = tempFile(".idx");
+        Machine m = reduced();
+        RejewskiCatalog.build(m, new ArrayList<>(), index.toPath());
+        RejewskiCatalog cat = RejewskiCatalog.open(index.toPath());
+
+        String[] order = { "RF", "Rot2", "Rot1" };
+        int[][] products = RejewskiCatalog.products(alpha,
+            indicators(m.copy(), order, "KM"));
+        List<String> found =
+            cat.lookup(RejewskiCatalog.parse(
+                           RejewskiCatalog.describe(products)));
+        assertTrue(found.contains("* RF Rot2 Rot1 KM"));
+        assertTrue(cat.size() > 0);
+        assertTrue(cat.lookup(RejewskiCatalog.parse("10/10")).isEmpty());
+    }
+
+}
@@ -0,0 +1,399 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+
+/** A cache of message conversions, for traffic that repeats messages.
+ *  An entry is keyed by the SHA-256 digest of the configuration (its
+ *  alphabet and the names, kinds, notches and wirings of its rotors),
+ *  the settings line (with its whitespace normalized), the machine's
+ *  state (rotors and positions) at the start of the message, and the
+ *  message; it holds the converted message and the rotor positions at
+ *  its end, so that a hit leaves the machine exactly where converting
+ *  would have.
+ *
+ *  Entries are held in memory up to a total size in bytes, evicting the
+ *  least recently used.  Optionally, every entry is also written to a
+ *  file, named by its key, in a directory shared by later runs; a file
+ *  is written under a temporary name of its own and then renamed, so
+ *  readers see only complete entries and runs sharing the directory do
+ *  not disturb each other's writes.  An entry that cannot be written is
+ *  counted (see writeFailures) and kept only in memory, as if there
+ *  were no directory.  A cache is used by one thread at a time.
+ *  @author Vidhi Chander
+ */
+final class ResultCache {
+
+    /** A cache holding up to about MAXBYTES bytes of entries in memory,
+     *  and every entry in DIR as well, unless DIR is null. */
+    ResultCache(long maxBytes, Path dir) {
+        _maxBytes = maxBytes;
+        _dir = dir;
+        try {
+            _digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-256 is not available");
+        }
+        if (dir != null) {
+            try {
+                Files.createDirectories(dir);
+            } catch (IOException excp) {
+                throw error("could not create cache directory %s", dir);
+            }
+        }
+    }
+
+    /** If I hold the conversion of MSG[FROM .. TO-1] by M, set up by the
+     *  settings line SETTINGS, from M's current state, replace
+     *  MSG[FROM .. TO-1] with it, set M's rotors to their positions
+     *  after it, and return true.  Otherwise, return false, and remember
+     *  the key for a following call to store. */
+    boolean lookup(Machine M, String settings, char[] msg, int from,
+                   int to) {
+        _key = key(M, settings, msg, from, to);
+        Entry entry = _entries.get(_key);
+        if (entry == null && _dir != null) {
+            entry = read(_key);
+            if (entry != null) {
+                _diskHits += 1;
+                put(_key, entry);
+            }
+        }
+        if (entry == null || entry.text.length != to - from
+            || entry.positions.length != M.numRotors()) {
+            _misses += 1;
+            return false;
+        }
+        _hits += 1;
+        System.arraycopy(entry.text, 0, msg, from, to - from);
+        for (int j = 0; j < entry.positions.length; j += 1) {
+            M.setPosition(j, entry.positions[j]);
+        }
+        return true;
+    }
+
+    /** Record that MSG[FROM .. TO-1] is the conversion of the message of
+     *  the last lookup that failed, after which M's rotors are at their
+     *  current positions. */
+    void store(Machine M, char[] msg, int from, int to) {
+        int[] positions = new int[M.numRotors()];
+        for (int j = 0; j < positions.length; j += 1) {
+            positions[j] = M.position(j);
+        }
+        Entry entry = new Entry(Arrays.copyOfRange(msg, from, to),
+                                positions);
+        put(_key, entry);
+        if (_dir != null) {
+            write(_key, entry);
+        }
+    }
+
+    /** Return the number of lookups that found an entry. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that found an entry only on disk. */
+    long diskHits() {
+        return _diskHits;
+    }
+
+    /** Return the number of lookups that found no entry. */
+    long misses() {
+        return _misses;
+    }
+
+    /** Return the number of entries evicted from memory. */
+    long evictions() {
+        return _evictions;
+    }
+
+    /** Return the number of entries that could not be written to disk. */
+    long writeFailures() {
+        return _writeFailures;
+    }
+
+    @Override
+    public String toString() {
+        long lookups = _hits + _misses;
+        return String.format("%d hits (%d from disk), %d misses (%.1f%% "
+                             + "hit), %d entries (%d bytes), %d evicted, "
+                             + "%d not written",
+                             _hits, _diskHits, _misses,
+                             lookups == 0 ? 0.0 : 100.0 * _hits / lookups,
+                             _entries.size(), _bytes, _evictions,
+                             _writeFailures);
+    }
+
+    /** Return the key of the conversion of MSG[FROM .. TO-1] by M, set
+     *  up by SETTINGS, from M's current state.  The message is digested
+     *  one byte per character if every character fits in a byte, and
+     *  otherwise two. */
+    private ByteBuffer key(Machine M, String settings, char[] msg, int from,
+                       int to) {
+        if (M.allRotors() != _configRotors) {
+            _configRotors = M.allRotors();
+            _config = configDigest(M);
+        }
+        if (settings != _settings) {
+            _settings = settings;
+            _normalized = settings == null ? new byte[0]
+                : String.join(" ", WHITESPACE.split(settings.trim()))
+                .getBytes(StandardCharsets.UTF_8);
+        }
+        int[] state = M.state();
+        int len = to - from;
+        int size = Math.max(4 * (state.length + 2) + _normalized.length,
+                            2 * len);
+        if (_buffer.length < size) {
+            _buffer = new byte[Math.max(size, 2 * _buffer.length)];
+        }
+        _digest.reset();
+        _digest.update(_config);
+        ByteBuffer header = ByteBuffer.wrap(_buffer);
+        header.putInt(_normalized.length).put(_normalized);
+        header.putInt(state.length);
+        for (int s : state) {
+            header.putInt(s);
+        }
+        _digest.update(_buffer, 0, header.position());
+        char high = 0;
+        for (int i = 0; i < len; i += 1) {
+            char c = msg[from + i];
+            high |= c;
+            _buffer[i] = (byte) c;
+        }
+        if (high >= 0x100) {
+            for (int i = 0; i < len; i += 1) {
+                char c = msg[from + i];
+                _buffer[2 * i] = (byte) (c >> 8);
+                _buffer[2 * i + 1] = (byte) c;
+            }
+            len *= 2;
+        }
+        _digest.update(_buffer, 0, len);
+        return ByteBuffer.wrap(_digest.digest());
+    }
+
+    /** Return the SHA-256 digest of the configuration of M. */
+    private byte[] configDigest(Machine M) {
+        StringBuilder config = new StringBuilder();
+        Alphabet alpha = M.alphabet();
+        for (int c = 0; c < alpha.size(); c += 1) {
+            config.append(alpha.toChar(c));
+        }
+        config.append('\n').append(M.numRotors()).append(' ')
+            .append(M.numPawls()).append('\n');
+        Collection<Rotor> rotors = M.allRotors();
+        for (Rotor r : rotors) {
+            config.append(r.name()).append(' ');
+            if (r.reflecting()) {
+                config.append('R');
+            } else if (r.rotates()) {
+                config.append('M').append(((MovingRotor) r).notches());
+            } else {
+                config.append('N');
+            }
+            for (int p : r.permutation().table()) {
+                config.append(' ').append(p);
+            }
+            config.append('\n');
+        }
+        _digest.reset();
+        return _digest.digest(config.toString()
+                              .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Add ENTRY to memory under KEY, evicting the least recently used
+     *  entries as needed. */
+    private void put(ByteBuffer key, Entry entry) {
+        long size = entry.size();
+        if (size > _maxBytes) {
+            return;
+        }
+        Entry old = _entries.put(key, entry);
+        if (old != null) {
+            _bytes -= old.size();
+        }
+        _bytes += size;
+        Iterator<Map.Entry<ByteBuffer, Entry>> oldest =
+            _entries.entrySet().iterator();
+        while (_bytes > _maxBytes) {
+            _bytes -= oldest.next().getValue().size();
+            oldest.remove();
+            _evictions += 1;
+        }
+    }
+
+    /** Return the file holding the entry with KEY, named by KEY in
+     *  hexadecimal. */
+    private Path file(ByteBuffer key) {
+        StringBuilder hex = new StringBuilder(2 * key.remaining());
+        for (int i = 0; i < key.remaining(); i += 1) {
+            byte b = key.get(i);
+            hex.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+        String name = hex.toString();
+        return _dir.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    /** Return the entry with KEY from disk, or null if there is none (or
+     *  it cannot be read). */
+    private Entry read(ByteBuffer key) {
+        try (DataInputStream in = new DataInputStream(
+                 Files.newInputStream(file(key)))) {
+            int[] positions = new int[in.readInt()];
+            for (int j = 0; j < positions.length; j += 1) {
+                positions[j] = in.readInt();
+            }
+            char[] text = new char[in.readInt()];
+            for (int i = 0; i < text.length; i += 1) {
+                text[i] = in.readChar();
+            }
+            return new Entry(text, positions);
+        } catch (IOException | NegativeArraySizeException excp) {
+            return null;
+        }
+    }
+
+    /** Write ENTRY to disk under KEY, replacing any file atomically,
+     *  or count a failure if it cannot be written. */
+    private void write(ByteBuffer key, Entry entry) {
+        Path file = file(key);
+        Path temp = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(entry.positions.length);
+            for (int p : entry.positions) {
+                out.writeInt(p);
+            }
+            out.writeInt(entry.text.length);
+            for (char c : entry.text) {
+                out.writeChar(c);
+            }
+            Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(file.getParent(),
+                                        file.getFileName().toString(),
+                                        ".tmp");
+            try (FileChannel ch = FileChannel.open(temp,
+                     StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            _writeFailures += 1;
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    /* Ignore: the entry is already lost. */
+                }
+            }
+        }
+    }
+
+    /** A converted message and the rotor positions after it. */
+    private static final class Entry {
+        /** An entry for the converted message TEXT, after which the
+         *  rotors are at POSITIONS. */
+        Entry(char[] text, int[] positions) {
+            this.text = text;
+            this.positions = positions;
+        }
+
+        /** Return the approximate number of bytes I occupy, with my
+         *  key. */
+        long size() {
+            return 2L * text.length + 4L * positions.length + OVERHEAD;
+        }
+
+        /** The converted message. */
+        final char[] text;
+        /** Rotor positions after the message, leftmost first. */
+        final int[] positions;
+    }
+
+    /** Approximate bytes occupied by an entry and its key, besides its
+     *  text and positions. */
+    private static final int OVERHEAD = 256;
+
+    /** Hexadecimal digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Separator of the fields of a settings line. */
+    private static final Pattern WHITESPACE =
+        Pattern.compile("\\p{javaWhitespace}+");
+
+    /** Most bytes of entries to hold in memory. */
+    private final long _maxBytes;
+
+    /** Directory holding every entry, or null. */
+    private final Path _dir;
+
+    /** Entries in memory, least recently used first. */
+    private final LinkedHashMap<ByteBuffer, Entry> _entries =
+        new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true);
+
+    /** Bytes of the entries in memory. */
+    private long _bytes;
+
+    /** Computes keys. */
+    private final MessageDigest _digest;
+
+    /** Scratch space for computing keys. */
+    private byte[] _buffer = new byte[256];
+
+    /** The rotors of the configuration whose digest is _config. */
+    private Collection<Rotor> _configRotors;
+
+    /** Digest of the configuration last used. */
+    private byte[] _config;
+
+    /** The settings line last used. */
+    private String _settings;
+
+    /** The normalized form of _settings, in UTF-8. */
+    private byte[] _normalized = new byte[0];
+
+    /** Key of the last lookup. */
+    private ByteBuffer _key;
+
+    /** Number of lookups that found an entry. */
+    private long _hits;
+
+    /** Number of lookups that found an entry only on disk. */
+    private long _diskHits;
+
+    /** Number of lookups that found no entry. */
+    private long _misses;
+
+    /** Number of entries evicted from memory. */
+    private long _evictions;
+
+    /** Number of entries that could not be written to disk. */
+    private long _writeFailures;
+}
@@ -0,0 +1,191 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ResultCache class and runs of
+ *  Main with a cache.
+ *  @author Vidhi Chander
+ */
+public class ResultCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a new configuration file and input file of generated
+     *  traffic, as for TestUtils.traffic, with each segment of the input
+     *  sent twice. */
+    private static File[] retransmitted() throws IOException {
+        File[] files = traffic("--seed=50", "--settings=15",
+                               "--messages=6");
+        File input = files[1];
+        List<String> lines = new ArrayList<String>();
+        List<String> segment = new ArrayList<String>();
+        for (String line : Files.readAllLines(input.toPath())) {
+            if (line.startsWith("*") && !segment.isEmpty()) {
+                lines.addAll(segment);
+                lines.addAll(segment);
+                segment.clear();
+            }
+            segment.add(line);
+        }
+        lines.addAll(segment);
+        lines.addAll(segment);
+        Files.write(input.toPath(), lines);
+        return files;
+    }
+
+    /** Delete DIR and everything in it. */
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void cachedRunMatchesUncachedRun() throws IOException {
+        File[] files = retransmitted();
+        File conf = files[0], input = files[1];
+        File expected = tempFile(".out"), output = tempFile(".out");
+        assertNull(runMain(conf.getPath(), input.getPath(),
+                           expected.getPath()).cache());
+        ResultCache cache = runMain("--cache", conf.getPath(),
+                                    input.getPath(),
+                                    output.getPath()).cache();
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(output.toPath()));
+        assertEquals(cache.misses(), cache.hits());
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test
+    public void hitLeavesRotorsAsConversionWould() throws IOException {
+        File[] files = retransmitted();
+        File conf = files[0];
+        List<String> lines = new ArrayList<String>();
+        for (String line : Files.readAllLines(files[1].toPath())) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line);
+            }
+        }
+        String settings = lines.get(0);
+        String a = lines.get(1), b = lines.get(2), c = lines.get(3);
+        File input = tempFile(".inp");
+        Files.write(input.toPath(), List.of(settings, a, b, settings, a, c,
+                                            settings, a, b, c));
+        File expected = tempFile(".out"), output = tempFile(".out");
+        runMain(conf.getPath(), input.getPath(), expected.getPath());
+        ResultCache cache = runMain("--cache", conf.getPath(),
+                                    input.getPath(),
+                                    output.getPath()).cache();
+        assertEquals(3, cache.hits());
+        assertEquals(4, cache.misses());
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void smallCacheEvictsLeastRecentlyUsed() throws IOException {
+        File[] files = retransmitted();
+        File conf = files[0], input = files[1];
+        File expected = tempFile(".out"), output = tempFile(".out");
+        runMain(conf.getPath(), input.getPath(), expected.getPath());
+        ResultCache cache = runMain("--cache=2000", conf.getPath(),
+                                    input.getPath(),
+                                    output.getPath()).cache();
+        assertTrue(cache.evictions() > 0);
+        assertTrue(cache.hits() > 0);
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void diskTierServesLaterRuns() throws IOException {
+        File[] files = retransmitted();
+        File conf = files[0], input = files[1];
+        Path dir = Files.createTempDirectory("cache");
+        File first = tempFile(".out"), second = tempFile(".out");
+        ResultCache cache = runMain("--cache-dir=" + dir, conf.getPath(),
+                                    input.getPath(),
+                                    first.getPath()).cache();
+        assertEquals(0, cache.diskHits());
+        cache = runMain("--cache-dir=" + dir, conf.getPath(),
+                        input.getPath(), second.getPath()).cache();
+        assertEquals(0, cache.misses());
+        assertEquals(cache.hits(), 2 * cache.diskHits());
+        assertArrayEquals(Files.readAllBytes(first.toPath()),
+                          Files.readAllBytes(second.toPath()));
+        deleteTree(dir);
+    }
+
+    @Test
+    public void concurrentRunsShareDirectory() throws Exception {
+        File[] files = retransmitted();
+        Path dir = Files.createTempDirectory("cache");
+        File[] outputs = { tempFile(".out"), tempFile(".out"),
+                           tempFile(".out") };
+        ResultCache[] caches = new ResultCache[outputs.length];
+        Thread[] runs = new Thread[outputs.length];
+        for (int i = 0; i < runs.length; i += 1) {
+            final int k = i;
+            runs[k] = new Thread(() -> {
+                caches[k] = runMain("--cache-dir=" + dir,
+                                    files[0].getPath(), files[1].getPath(),
+                                    outputs[k].getPath()).cache();
+            });
+            runs[k].start();
+        }
+        for (Thread run : runs) {
+            run.join();
+        }
+        for (int i = 0; i < runs.length; i += 1) {
+            assertEquals(0, caches[i].writeFailures());
+            assertArrayEquals(Files.readAllBytes(outputs[0].toPath()),
+                              Files.readAllBytes(outputs[i].toPath()));
+        }
+        deleteTree(dir);
+    }
+
+    @Test
+    public void failedWritesOnlyCounted() throws IOException {
+        File[] files = retransmitted();
+        File conf = files[0], input = files[1];
+        File expected = tempFile(".out"), output = tempFile(".out");
+        runMain(conf.getPath(), input.getPath(), expected.getPath());
+        Path dir = Files.createTempDirectory("cache");
+        Main main = new Main(new String[] {
+            "--cache-dir=" + dir, conf.getPath(), input.getPath(),
+            output.getPath() });
+        Files.delete(dir);
+        Files.write(dir, new byte[0]);
+        try {
+            main.process();
+        } finally {
+            main.close();
+            Files.delete(dir);
+        }
+        assertTrue(main.cache().writeFailures() > 0);
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(output.toPath()));
+    }
+
+}
@@ -2,7 +2,10 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine.  A rotor is
+ *  an immutable definition (its wiring and notches) that may be shared
+ *  by any number of machines and threads; the positions of the rotors in
+ *  a machine belong to the Machine.
  *  @author Vidhi Chander
  */
 class Rotor {
@@ -43,43 +46,43 @@ class Rotor {
         return false;
     }
 
-    /** Return my current setting. */
-    int setting() {
-        return _setting;
-    }
-
-    /** Set setting() to POSN.  */
-    void set(int posn) {
-        _setting = posn;
-    }
-
-    /** Set setting() to character CPOSN. */
-    void set(char cposn) {
-        _setting = alphabet().toInt(cposn);
+    /** Return true iff POSN is a position I can be set to. */
+    boolean canBeAt(int posn) {
+        return posn >= 0 && posn < size();
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
-     *  according to my permutation. */
-    int convertForward(int p) {
-        int perm = permutation().permute(permutation().wrap(p + setting()));
-        return permutation().wrap(perm - setting());
+     *  according to my permutation, when I am at position POSN. */
+    int convertForward(int p, int posn) {
+        int perm = permutation().permute(permutation().wrap(p + posn));
+        return permutation().wrap(perm - posn);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
-     *  according to the inverse of my permutation. */
-    int convertBackward(int e) {
-        int inv = permutation().invert(permutation().wrap(e + setting()));
-        return permutation().wrap(inv - setting());
+     *  according to the inverse of my permutation, when I am at position
+     *  POSN. */
+    int convertBackward(int e, int posn) {
+        int inv = permutation().invert(permutation().wrap(e + posn));
+        return permutation().wrap(inv - posn);
     }
 
-    /** Returns true iff I am positioned to allow the rotor to my left
-     *  to advance. */
-    boolean atNotch() {
+    /** Returns true iff I would allow the rotor to my left to advance
+     *  when at position POSN. */
+    boolean atNotch(int posn) {
         return false;
     }
 
-    /** Advance me one position, if possible. By default, does nothing. */
-    void advance() {
+    /** Return the number of advances from position POSN after which I
+     *  will next be at a notch (0 if POSN is one), or Integer.MAX_VALUE
+     *  if never. */
+    int stepsToNotch(int posn) {
+        return Integer.MAX_VALUE;
+    }
+
+    /** Return my position after advancing from POSN, if possible. By
+     *  default, I do not move. */
+    int advance(int posn) {
+        return posn;
     }
 
     @Override
@@ -91,8 +94,5 @@ class Rotor {
     private final String _name;
 
     /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
-
-    /** The current setting of the rotor. */
-    private int _setting;
+    private final Permutation _permutation;
 }
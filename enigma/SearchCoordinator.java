@@ -0,0 +1,424 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static enigma.EnigmaException.*;
+
+/** Hands out the key space of a KeySearch to SearchWorkers in leases of
+ *  consecutive keys, and collects their candidates.  Workers talk to the
+ *  coordinator over a socket, one request line and one reply line at a
+ *  time:
+ *      HELLO                      -> JOB ARG<tab>ARG...
+ *      LEASE                      -> LEASE ID TOKEN FROM TO | WAIT MS | DONE
+ *      HEARTBEAT ID TOKEN         -> OK | ABANDON
+ *      RESULT ID TOKEN SCORE KEY  -> OK
+ *      COMPLETE ID TOKEN [SKIPPED] -> OK
+ *  A lease not heard from (by HEARTBEAT, RESULT or COMPLETE) within the
+ *  timeout expires and is handed out again under a new token; messages
+ *  bearing an old token are then told to ABANDON the lease (their
+ *  results are still kept, since every score is genuine).  SKIPPED is
+ *  the number of the lease's keys that the worker skipped as
+ *  equivalent to lower ones.
+ *
+ *  The coordinator's progress may be checkpointed to a file, from which
+ *  a later coordinator for the same search resumes.  A checkpoint
+ *  records the search, the lowest lease never handed out, the completed
+ *  leases, the keys they skipped and the best candidates so far, one
+ *  item per line:
+ *      enigma-search 1
+ *      job ARG<tab>ARG...
+ *      next LEASE
+ *      completed ID|FIRST-LAST...
+ *      pruned SKIPPED
+ *      candidate SCORE KEY * SETTINGS
+ *  Leases outstanding at the time of the checkpoint are searched again
+ *  after resuming.
+ *  @author Vidhi Chander
+ */
+class SearchCoordinator {
+
+    /** A coordinator for SEARCH handing out leases of LEASESIZE keys,
+     *  which expire after TIMEOUT milliseconds of silence. */
+    SearchCoordinator(KeySearch search, long leaseSize, long timeout) {
+        _spec = String.join("\t", search.spec());
+        _space = search.space();
+        _size = _space.size();
+        _leaseSize = leaseSize;
+        _timeout = timeout;
+        _numLeases = (int) ((_size + leaseSize - 1) / leaseSize);
+        _best = new Candidates(search.top());
+    }
+
+    /** Return the candidates found so far. */
+    Candidates best() {
+        return _best;
+    }
+
+    /** Return true iff every lease has been completed. */
+    synchronized boolean finished() {
+        return _completed.cardinality() == _numLeases;
+    }
+
+    /** Return the number of leases. */
+    int numLeases() {
+        return _numLeases;
+    }
+
+    /** Return the number of keys of completed leases skipped as
+     *  equivalent. */
+    synchronized long pruned() {
+        return _pruned;
+    }
+
+    /** Return the number of completed leases. */
+    synchronized int completed() {
+        return _completed.cardinality();
+    }
+
+    /** Checkpoint my progress to FILE at least every INTERVAL
+     *  milliseconds while serving, and when done. */
+    void checkpointTo(Path file, long interval) {
+        _checkpoint = file;
+        _checkpointInterval = interval;
+    }
+
+    /** Serve workers connecting to SERVER until every lease is
+     *  complete.  LOCAL tells whether each worker started for this
+     *  search (empty if all workers are started elsewhere) is still
+     *  running.  If every local worker has stopped before the search is
+     *  complete, and no other worker has ever connected, no one is left
+     *  to finish it, and it fails rather than waiting forever. */
+    void serve(ServerSocket server, List<BooleanSupplier> local)
+        throws IOException {
+        server.setSoTimeout(POLL_MILLIS);
+        long lastCheckpoint = System.currentTimeMillis();
+        int connections = 0;
+        while (!finished()) {
+            try {
+                Socket socket = server.accept();
+                connections += 1;
+                Thread handler = new Thread(() -> converse(socket),
+                                            "enigma-search-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (SocketTimeoutException excp) {
+                /* Check for a due checkpoint below. */
+            }
+            if (!local.isEmpty() && connections <= local.size()
+                && local.stream().noneMatch(BooleanSupplier::getAsBoolean)
+                && !finished()) {
+                throw error("all %d workers stopped with %d of %d leases "
+                            + "done", local.size(), completed(),
+                            _numLeases);
+            }
+            long now = System.currentTimeMillis();
+            if (_checkpoint != null
+                && now - lastCheckpoint >= _checkpointInterval) {
+                writeCheckpoint(_checkpoint);
+                lastCheckpoint = now;
+            }
+        }
+        if (_checkpoint != null) {
+            writeCheckpoint(_checkpoint);
+        }
+    }
+
+    /** Write a checkpoint of my progress to FILE, replacing it
+     *  atomically, so that a crash leaves either the previous checkpoint
+     *  or the new one. */
+    void writeCheckpoint(Path file) throws IOException {
+        byte[] contents = checkpoint().getBytes(StandardCharsets.UTF_8);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(temp,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(contents);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+        Path dir = file.toAbsolutePath().getParent();
+        try (FileChannel ch = FileChannel.open(dir,
+                                               StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            /* Not all systems can synchronize a directory. */
+        }
+        _checkpoints += 1;
+    }
+
+    /** Return the text of a checkpoint of my current progress. */
+    synchronized String checkpoint() {
+        StringBuilder out = new StringBuilder();
+        out.append(CHECKPOINT_HEADER).append('\n');
+        out.append("job ").append(_spec).append('\n');
+        out.append("next ").append(_nextLease).append('\n');
+        out.append("completed");
+        for (int id = _completed.nextSetBit(0); id >= 0;
+             id = _completed.nextSetBit(id + 1)) {
+            int last = _completed.nextClearBit(id) - 1;
+            out.append(' ').append(id);
+            if (last > id) {
+                out.append('-').append(last);
+            }
+            id = last;
+        }
+        out.append('\n');
+        out.append("pruned ").append(_pruned).append('\n');
+        for (int i = 0; i < _best.size(); i += 1) {
+            long key = _best.key(i);
+            out.append(String.format("candidate %d %d %s%n", _best.score(i),
+                                     key, _space.settings(key)));
+        }
+        return out.toString();
+    }
+
+    /** Resume from the checkpoint in FILE, written by a coordinator for
+     *  the same search.  Must be called before any leases are handed
+     *  out. */
+    synchronized void resume(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(CHECKPOINT_HEADER)) {
+            throw error("%s is not a search checkpoint", file);
+        }
+        try {
+            for (String line : lines.subList(1, lines.size())) {
+                int sp = line.indexOf(' ');
+                String kind = sp < 0 ? line : line.substring(0, sp);
+                String rest = sp < 0 ? "" : line.substring(sp + 1);
+                switch (kind) {
+                case "job":
+                    if (!rest.equals(_spec)) {
+                        throw error("checkpoint %s is for a different search",
+                                    file);
+                    }
+                    break;
+                case "next":
+                    _nextLease = Math.min(_numLeases, Integer.parseInt(rest));
+                    break;
+                case "completed":
+                    for (String range : rest.trim().split(" +")) {
+                        if (range.isEmpty()) {
+                            continue;
+                        }
+                        int dash = range.indexOf('-');
+                        int first = Integer.parseInt(
+                            dash < 0 ? range : range.substring(0, dash));
+                        int last = dash < 0 ? first
+                            : Integer.parseInt(range.substring(dash + 1));
+                        _completed.set(first, Math.min(_numLeases, last + 1));
+                    }
+                    break;
+                case "pruned":
+                    _pruned = Long.parseLong(rest);
+                    break;
+                case "candidate":
+                    String[] words = rest.split(" ", 3);
+                    _best.add(Long.parseLong(words[0]),
+                              Long.parseLong(words[1]));
+                    break;
+                default:
+                    throw error("malformed checkpoint line: %s", line);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw error("malformed checkpoint %s", file);
+        }
+        for (int id = _completed.nextClearBit(0); id < _nextLease;
+             id = _completed.nextClearBit(id + 1)) {
+            _pending.add(id);
+        }
+    }
+
+    /** Return the number of checkpoints written. */
+    int checkpoints() {
+        return _checkpoints;
+    }
+
+    /** Answer the requests of the worker connected to SOCKET until it
+     *  disconnects. */
+    private void converse(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(s.getInputStream()));
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.println(handle(line, System.currentTimeMillis()));
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Return the reply to the request LINE received at time NOW (in
+     *  milliseconds). */
+    synchronized String handle(String line, long now) {
+        String[] words = line.trim().split(" ");
+        try {
+            switch (words[0]) {
+            case "HELLO":
+                return "JOB " + _spec;
+            case "LEASE":
+                return lease(now);
+            case "HEARTBEAT":
+                return touch(words, now) ? "OK" : "ABANDON";
+            case "RESULT":
+                touch(words, now);
+                _best.add(Long.parseLong(words[3]), Long.parseLong(words[4]));
+                return "OK";
+            case "COMPLETE":
+                if (touch(words, now)) {
+                    int id = Integer.parseInt(words[1]);
+                    _completed.set(id);
+                    if (words.length > 3) {
+                        _pruned += Long.parseLong(words[3]);
+                    }
+                    _token.remove(id);
+                    _deadline.remove(id);
+                }
+                return "OK";
+            default:
+                return "ERROR unknown request";
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return "ERROR malformed request";
+        }
+    }
+
+    /** Return the reply to a LEASE request at time NOW. */
+    private String lease(long now) {
+        for (int id : _deadline.keySet()) {
+            if (_deadline.get(id) < now && !_expired.contains(id)) {
+                _expired.add(id);
+            }
+        }
+        int id;
+        if (!_expired.isEmpty()) {
+            id = _expired.poll();
+            _reassigned += 1;
+        } else if (!_pending.isEmpty()) {
+            id = _pending.poll();
+        } else if (_nextLease < _numLeases) {
+            id = _nextLease;
+            _nextLease += 1;
+        } else if (_deadline.isEmpty() && _pending.isEmpty()) {
+            return "DONE";
+        } else {
+            return "WAIT " + POLL_MILLIS;
+        }
+        _tokens += 1;
+        _token.put(id, _tokens);
+        _deadline.put(id, now + _timeout);
+        long from = id * _leaseSize;
+        long to = Math.min(_size, from + _leaseSize);
+        return String.format("LEASE %d %d %d %d", id, _tokens, from, to);
+    }
+
+    /** Return true iff WORDS[1] and WORDS[2] name an outstanding lease
+     *  and its current token, extending its deadline from NOW if so. */
+    private boolean touch(String[] words, long now) {
+        int id = Integer.parseInt(words[1]);
+        long token = Long.parseLong(words[2]);
+        Long current = _token.get(id);
+        if (current == null || current != token) {
+            return false;
+        }
+        _deadline.put(id, now + _timeout);
+        _expired.remove(id);
+        return true;
+    }
+
+    /** Return the number of times a lease was handed out again after
+     *  expiring. */
+    synchronized int reassigned() {
+        return _reassigned;
+    }
+
+    /** Interval at which waiting parties poll, in milliseconds. */
+    static final int POLL_MILLIS = 200;
+
+    /** First line of a checkpoint file. */
+    static final String CHECKPOINT_HEADER = "enigma-search 1";
+
+    /** The search arguments, for HELLO. */
+    private final String _spec;
+
+    /** The keys searched. */
+    private final KeySpace _space;
+
+    /** Number of keys. */
+    private final long _size;
+
+    /** Keys per lease. */
+    private final long _leaseSize;
+
+    /** Lease timeout in milliseconds. */
+    private final long _timeout;
+
+    /** Number of leases. */
+    private final int _numLeases;
+
+    /** Best candidates reported. */
+    private final Candidates _best;
+
+    /** Lowest lease never handed out. */
+    private int _nextLease;
+
+    /** Completed leases. */
+    private final BitSet _completed = new BitSet();
+
+    /** Keys of completed leases skipped as equivalent. */
+    private long _pruned;
+
+    /** Current token of each outstanding lease. */
+    private final HashMap<Integer, Long> _token =
+        new HashMap<Integer, Long>();
+
+    /** Expiry time of each outstanding lease. */
+    private final HashMap<Integer, Long> _deadline =
+        new HashMap<Integer, Long>();
+
+    /** Expired leases awaiting reassignment. */
+    private final ArrayDeque<Integer> _expired = new ArrayDeque<Integer>();
+
+    /** Leases outstanding at the time of a resumed checkpoint, awaiting
+     *  reassignment. */
+    private final ArrayDeque<Integer> _pending = new ArrayDeque<Integer>();
+
+    /** Checkpoint file, or null. */
+    private Path _checkpoint;
+
+    /** Minimum milliseconds between checkpoints. */
+    private long _checkpointInterval;
+
+    /** Number of checkpoints written. */
+    private volatile int _checkpoints;
+
+    /** Last token issued. */
+    private long _tokens;
+
+    /** Number of reassignments. */
+    private int _reassigned;
+}
@@ -0,0 +1,116 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+import static enigma.EnigmaException.*;
+
+/** A worker that evaluates leases of a key search for the
+ *  SearchCoordinator at a given address, until the coordinator has no
+ *  more work.  While working on a lease, it sends a heartbeat every
+ *  HEARTBEAT_MILLIS milliseconds (checked between chunks of keys), and
+ *  drops the lease if the coordinator has reassigned it.
+ *  @author Vidhi Chander
+ */
+class SearchWorker {
+
+    /** A worker for the coordinator at HOST:PORT. */
+    SearchWorker(String host, int port) {
+        _host = host;
+        _port = port;
+    }
+
+    /** Work until the coordinator is done. */
+    void run() {
+        try (Socket socket = new Socket(_host, _port);
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream()));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                               true)) {
+            _in = in;
+            _out = out;
+            String job = request("HELLO");
+            if (!job.startsWith("JOB ")) {
+                throw error("unexpected reply: %s", job);
+            }
+            KeySearch search = new KeySearch(job.substring(4).split("\t"));
+            Machine m = search.newMachine();
+            while (true) {
+                String[] reply = request("LEASE").split(" ");
+                if (reply[0].equals("DONE")) {
+                    return;
+                } else if (reply[0].equals("WAIT")) {
+                    Thread.sleep(Long.parseLong(reply[1]));
+                } else if (reply[0].equals("LEASE")) {
+                    work(search, m, reply[1] + " " + reply[2],
+                         Long.parseLong(reply[3]), Long.parseLong(reply[4]));
+                } else {
+                    throw error("unexpected reply: %s", String.join(" ",
+                                                                    reply));
+                }
+            }
+        } catch (IOException excp) {
+            throw error("lost coordinator: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Evaluate keys FROM .. TO-1 of SEARCH on M for the lease whose id
+     *  and token are LEASE, and report the results. */
+    private void work(KeySearch search, Machine m, String lease, long from,
+                      long to) throws IOException {
+        CandidateCollector collector = new CandidateCollector(search.top());
+        CandidateCollector.Local local = collector.local();
+        long lastBeat = System.currentTimeMillis();
+        long skipped = 0;
+        for (long start = from; start < to; start += CHUNK) {
+            skipped += search.search(m, start, Math.min(to, start + CHUNK),
+                                     local);
+            long now = System.currentTimeMillis();
+            if (now - lastBeat >= HEARTBEAT_MILLIS) {
+                lastBeat = now;
+                if (!request("HEARTBEAT " + lease).equals("OK")) {
+                    break;
+                }
+            }
+        }
+        Candidates best = collector.snapshot();
+        for (int i = 0; i < best.size(); i += 1) {
+            request("RESULT " + lease + " " + best.score(i) + " "
+                    + best.key(i));
+        }
+        request("COMPLETE " + lease + " " + skipped);
+    }
+
+    /** Send REQUEST to the coordinator and return its reply. */
+    private String request(String request) throws IOException {
+        _out.println(request);
+        String reply = _in.readLine();
+        if (reply == null) {
+            throw new IOException("connection closed");
+        }
+        return reply;
+    }
+
+    /** Keys evaluated between heartbeat checks. */
+    private static final int CHUNK = 4096;
+
+    /** Interval between heartbeats, in milliseconds. */
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    /** Coordinator address. */
+    private final String _host;
+
+    /** Coordinator port. */
+    private final int _port;
+
+    /** Replies from the coordinator. */
+    private BufferedReader _in;
+
+    /** Requests to the coordinator. */
+    private PrintWriter _out;
+}
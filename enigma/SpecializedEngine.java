@@ -0,0 +1,287 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static enigma.EnigmaException.*;
+
+/** An engine that generates code specialized to each machine set-up.
+ *  For each shape of set-up (number of slots and which of them have
+ *  pawls), it compiles a kernel class once, with the slots unrolled and
+ *  the stepping rule reduced to the pairs of slots that can carry.  For
+ *  each set-up it then defines a hidden class from those bytes whose
+ *  class data holds the set-up's MachineTables arrays, bound to static
+ *  final fields, so that the JIT compiles a loop with no virtual calls
+ *  and the tables as constants.
+ *
+ *  Kernels are kept for the most recent CACHE_SIZE distinct set-ups.
+ *  Hidden classes are defined without the STRONG option, so a kernel
+ *  that has been evicted (and is no longer in use by any engine) can be
+ *  unloaded.  If the JDK's compiler is not available, this engine
+ *  converts as the table engine does.
+ *  @author Vidhi Chander
+ */
+class SpecializedEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "specialized";
+    }
+
+    @Override
+    public Engine copy() {
+        return new SpecializedEngine();
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int from, int to) {
+        MachineTables t = m.tables();
+        if (t != _tables) {
+            _kernel = kernel(t);
+            _tables = t;
+            _pos = new int[t.slots()];
+        }
+        if (_kernel == null) {
+            _fallback.convert(m, msg, from, to);
+            return;
+        }
+        t.loadPositions(m, _pos);
+        try {
+            _kernel.invokeExact(msg, from, to, _pos);
+        } catch (RuntimeException | Error excp) {
+            throw excp;
+        } catch (Throwable excp) {
+            throw new IllegalStateException(excp);
+        }
+        t.storePositions(m, _pos);
+    }
+
+    /** Return the kernel for the set-up compiled into T, or null if
+     *  kernels cannot be generated. */
+    static MethodHandle kernel(MachineTables t) {
+        int slots = t.slots();
+        int[][] forward = new int[slots][];
+        int[][] backward = new int[slots][];
+        boolean[][] notch = new boolean[slots][];
+        boolean[] rotates = new boolean[slots];
+        for (int j = 0; j < slots; j += 1) {
+            forward[j] = t.forward(j);
+            backward[j] = t.backward(j);
+            notch[j] = t.notch(j);
+            rotates[j] = t.rotates(j);
+        }
+        Object[] data = { t.size(), t.plug(), t.mod(), forward, backward,
+                          notch };
+        synchronized (KERNELS) {
+            MethodHandle kernel = KERNELS.get(t);
+            if (kernel != null) {
+                return kernel;
+            }
+            byte[] bytes = BYTES.get(shape(rotates));
+            if (bytes == null && !BYTES.containsKey(shape(rotates))) {
+                bytes = compile(source(rotates));
+                BYTES.put(shape(rotates), bytes);
+            }
+            if (bytes == null) {
+                return null;
+            }
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(bytes, data, true);
+                kernel = lookup.findStatic(lookup.lookupClass(), "convert",
+                                           KERNEL_TYPE);
+            } catch (ReflectiveOperationException excp) {
+                throw error("could not load specialized kernel: %s", excp);
+            }
+            KERNELS.put(t, kernel);
+            return kernel;
+        }
+    }
+
+    /** Return the shape of set-ups whose slots have pawls as given by
+     *  ROTATES. */
+    private static String shape(boolean[] rotates) {
+        return Arrays.toString(rotates);
+    }
+
+    /** Return the source of the kernel class for set-ups whose slots
+     *  have pawls as given by ROTATES. */
+    static String source(boolean[] rotates) {
+        int slots = rotates.length;
+        int last = slots - 1;
+        StringBuilder out = new StringBuilder();
+        out.append("package enigma;\n")
+            .append("import java.lang.invoke.MethodHandles;\n")
+            .append("final class SpecializedKernel {\n")
+            .append("  private static final int N;\n")
+            .append("  private static final int[] PLUG, MOD;\n");
+        for (int j = 0; j < slots; j += 1) {
+            out.append(String.format("  private static final int[] F%d;%n",
+                                     j));
+        }
+        for (int j = 1; j < slots; j += 1) {
+            out.append(String.format("  private static final int[] B%d;%n",
+                                     j));
+            out.append(String.format("  private static final boolean[] K%d;"
+                                     + "%n", j));
+        }
+        out.append("  static {\n    try {\n")
+            .append("      Object[] d = MethodHandles.classData(")
+            .append("MethodHandles.lookup(), \"_\", Object[].class);\n")
+            .append("      N = (Integer) d[0];\n")
+            .append("      PLUG = (int[]) d[1];\n")
+            .append("      MOD = (int[]) d[2];\n");
+        for (int j = 0; j < slots; j += 1) {
+            out.append(String.format("      F%d = ((int[][]) d[3])[%d];%n",
+                                     j, j));
+        }
+        for (int j = 1; j < slots; j += 1) {
+            out.append(String.format("      B%d = ((int[][]) d[4])[%d];%n",
+                                     j, j));
+            out.append(String.format("      K%d = ((boolean[][]) d[5])[%d];"
+                                     + "%n", j, j));
+        }
+        out.append("    } catch (IllegalAccessException e) {\n")
+            .append("      throw new ExceptionInInitializerError(e);\n")
+            .append("    }\n  }\n")
+            .append("  static void convert(int[] msg, int from, int to, ")
+            .append("int[] pos) {\n");
+        for (int j = 0; j < slots; j += 1) {
+            out.append(String.format("    int p%d = pos[%d];%n", j, j));
+        }
+        out.append("    for (int i = from; i < to; i += 1) {\n      ");
+        for (int i = 1; i < last; i += 1) {
+            if (rotates[i]) {
+                out.append(String.format("if (K%d[p%d]) {%n", i + 1, i + 1));
+                out.append(advance(i));
+                if (i + 1 != last) {
+                    out.append(advance(i + 1));
+                }
+                out.append("      } else ");
+            }
+        }
+        out.append("{\n      }\n");
+        if (rotates[last]) {
+            out.append(advance(last));
+        }
+        out.append("      int c = PLUG[msg[i]];\n");
+        for (int j = last; j >= 0; j -= 1) {
+            out.append(String.format("      c = MOD[F%d[c + p%d] - p%d];%n",
+                                     j, j, j));
+        }
+        for (int j = 1; j <= last; j += 1) {
+            out.append(String.format("      c = MOD[B%d[c + p%d] - p%d];%n",
+                                     j, j, j));
+        }
+        out.append("      msg[i] = PLUG[c];\n    }\n");
+        for (int j = 0; j < slots; j += 1) {
+            out.append(String.format("    pos[%d] = p%d;%n", j, j));
+        }
+        out.append("  }\n}\n");
+        return out.toString();
+    }
+
+    /** Return a statement advancing the position of slot J. */
+    private static String advance(int j) {
+        return String.format("        p%d = p%d + 1 == N ? 0 : p%d + 1;%n",
+                             j, j, j);
+    }
+
+    /** Return the class file compiled from SOURCE, which defines
+     *  enigma.SpecializedKernel, or null if there is no compiler. */
+    private static byte[] compile(String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaFileObject input =
+            new SimpleJavaFileObject(URI.create("string:///enigma/"
+                                                + "SpecializedKernel.java"),
+                                     JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignore) {
+                    return source;
+                }
+            };
+        JavaFileManager files =
+            new ForwardingJavaFileManager<StandardJavaFileManager>(
+                javac.getStandardFileManager(null, null, null)) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(
+                    Location location, String name, JavaFileObject.Kind kind,
+                    FileObject sibling) {
+                    return new SimpleJavaFileObject(
+                        URI.create("bytes:///" + name.replace('.', '/')
+                                   + kind.extension), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            return bytes;
+                        }
+                    };
+                }
+            };
+        StringWriter messages = new StringWriter();
+        boolean ok = javac.getTask(messages, files, null,
+                                   Arrays.asList("-g:none", "-proc:none"),
+                                   null, List.of(input)).call();
+        if (!ok) {
+            throw error("could not compile specialized kernel: %s",
+                        messages);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Maximum number of kernels kept. */
+    static final int CACHE_SIZE = 64;
+
+    /** Type of kernel method handles. */
+    private static final MethodType KERNEL_TYPE =
+        MethodType.methodType(void.class, int[].class, int.class,
+                              int.class, int[].class);
+
+    /** Compiled kernel classes by shape (null if there is no
+     *  compiler). */
+    private static final Map<String, byte[]> BYTES =
+        new HashMap<String, byte[]>();
+
+    /** Kernels of recent set-ups, least recently used first. */
+    private static final Map<MachineTables, MethodHandle> KERNELS =
+        new LinkedHashMap<MachineTables, MethodHandle>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<MachineTables, MethodHandle> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    /** The tables for which _kernel was made, or null. */
+    private MachineTables _tables;
+
+    /** The kernel for _tables, or null to use _fallback. */
+    private MethodHandle _kernel;
+
+    /** The engine used when kernels cannot be generated. */
+    private final TableEngine _fallback = new TableEngine();
+
+    /** Rotor positions during conversion. */
+    private int[] _pos = new int[0];
+}
@@ -0,0 +1,37 @@
+package enigma;
+
+/** A scalar engine that converts one character at a time using the
+ *  machine's compiled MachineTables and a private array of rotor
+ *  positions, which it copies back into the rotors when done.
+ *  @author Vidhi Chander
+ */
+class TableEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "table";
+    }
+
+    @Override
+    public Engine copy() {
+        return new TableEngine();
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int from, int to) {
+        MachineTables t = m.tables();
+        if (_pos.length != t.slots()) {
+            _pos = new int[t.slots()];
+        }
+        int[] pos = _pos;
+        t.loadPositions(m, pos);
+        for (int i = from; i < to; i += 1) {
+            t.step(pos);
+            msg[i] = t.convert(msg[i], pos);
+        }
+        t.storePositions(m, pos);
+    }
+
+    /** Rotor positions during conversion. */
+    private int[] _pos = new int[0];
+}
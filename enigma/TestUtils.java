@@ -1,5 +1,10 @@
 package enigma;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /** Utility definitions for use in unit tests.
@@ -18,6 +23,44 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** Return a new temporary file with suffix SUFFIX, which is deleted
+     *  when the JVM exits. */
+    static File tempFile(String suffix) throws IOException {
+        File file = File.createTempFile("enigma", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** Return a new temporary file containing TEXT. */
+    static File fileContaining(String text) throws IOException {
+        File file = tempFile(".txt");
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /** Return a new configuration file and input file, in that order,
+     *  written by a TrafficGenerator with OPTIONS. */
+    static File[] traffic(String... options) throws IOException {
+        File conf = tempFile(".conf"), input = tempFile(".inp");
+        String[] args = Arrays.copyOf(options, options.length + 2);
+        args[options.length] = conf.getPath();
+        args[options.length + 1] = input.getPath();
+        new TrafficGenerator(args).generate();
+        return new File[] { conf, input };
+    }
+
+    /** Run Main with ARGS to completion, closing its files whether or
+     *  not it succeeds, and return it. */
+    static Main runMain(String... args) {
+        Main main = new Main(args);
+        try {
+            main.process();
+        } finally {
+            main.close();
+        }
+        return main;
+    }
+
     /** The naval rotors in the A (0) setting. */
     static final HashMap<String, String> NAVALA = new HashMap<>();
     static {
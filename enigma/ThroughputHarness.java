@@ -0,0 +1,186 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** An end-to-end throughput harness for Main.  It runs Main over a
+ *  configuration and input (such as those written by TrafficGenerator)
+ *  several times in this JVM, and reports for each run the characters
+ *  and message lines processed per second, percentiles of the time
+ *  taken by each message line, and the garbage-collection time, and
+ *  then the peak resident set size of the process.
+ *
+ *  Message lines are timed from the start of their conversion to the
+ *  end of their output (reading is not included); characters per second
+ *  counts the characters of message lines, over the whole run.
+ *  @author Vidhi Chander
+ */
+public final class ThroughputHarness {
+
+    /** Run the harness as specified by ARGS, which consist of options
+     *  followed by a configuration file and an input file.  The options
+     *  are
+     *      --runs=R       run R times (default 5), the first being
+     *                     a warm-up;
+     *      --output=FILE  send Main's output to FILE (by default, a
+     *                     temporary file);
+     *  and any options of Main (such as --engine=NAME), which are
+     *  passed on.  Exits normally if there are no errors; otherwise
+     *  with code 1. */
+    public static void main(String... args) {
+        try {
+            new ThroughputHarness(args).run();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A harness as specified by ARGS (see main). */
+    ThroughputHarness(String[] args) {
+        int first;
+        for (first = 0; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            if (args[first].startsWith("--runs=")) {
+                _runs = Options.parseInt(args[first].substring(7));
+            } else if (args[first].startsWith("--output=")) {
+                _output = args[first].substring(9);
+            } else {
+                _mainOptions.add(args[first]);
+            }
+        }
+        if (args.length - first != 2) {
+            throw error("Usage: java enigma.ThroughputHarness [OPTIONS] "
+                        + "CONF INPUT");
+        }
+        _conf = args[first];
+        _input = args[first + 1];
+    }
+
+    /** Do all the runs and print the results. */
+    void run() {
+        String output = _output;
+        try {
+            if (output == null) {
+                File temp = File.createTempFile("enigma", ".out");
+                temp.deleteOnExit();
+                output = temp.getPath();
+            }
+            _chars = messageChars(_input);
+        } catch (IOException excp) {
+            throw error("could not read %s", _input);
+        }
+        System.out.printf("%3s %8s %9s %9s %8s %8s %8s %8s %8s %7s%n",
+                          "run", "seconds", "Mchars/s", "msgs/s",
+                          "p50_us", "p90_us", "p99_us", "p999_us",
+                          "max_us", "gc_ms");
+        String stats = null;
+        String cache = null;
+        for (int run = 0; run < _runs; run += 1) {
+            List<String> args = new ArrayList<String>(_mainOptions);
+            args.addAll(Arrays.asList(_conf, _input, output));
+            long gcBefore = gcMillis();
+            long start = System.nanoTime();
+            Main main = new Main(args.toArray(new String[0]));
+            main.timeMessages();
+            main.process();
+            main.close();
+            double seconds = (System.nanoTime() - start) * 1e-9;
+            long gc = gcMillis() - gcBefore;
+            long[] times = main.messageNanos();
+            stats = main.pipelineStats();
+            cache = main.cache() == null ? null : main.cache().toString();
+            Arrays.sort(times);
+            System.out.printf("%3s %8.3f %9.2f %9.0f %8.1f %8.1f %8.1f "
+                              + "%8.1f %8.1f %7d%n",
+                              run == 0 ? "w" : String.valueOf(run), seconds,
+                              _chars / seconds * 1e-6, times.length / seconds,
+                              percentile(times, 0.5), percentile(times, 0.9),
+                              percentile(times, 0.99),
+                              percentile(times, 0.999),
+                              percentile(times, 1.0), gc);
+        }
+        if (stats != null) {
+            System.out.printf("pipeline (last run): %s%n", stats);
+        }
+        if (cache != null) {
+            System.out.printf("cache (last run): %s%n", cache);
+        }
+        System.out.printf("peak RSS: %s%n", peakRss());
+    }
+
+    /** Return the number of characters in the message lines of the input
+     *  file named NAME (those that are neither blank nor settings
+     *  lines). */
+    static long messageChars(String name) throws IOException {
+        long result = 0;
+        for (String line : Files.readAllLines(Paths.get(name))) {
+            if (!line.isEmpty() && line.charAt(0) != '*') {
+                result += line.length();
+            }
+        }
+        return result;
+    }
+
+    /** Return the value at fraction P of the sorted array SORTED, in
+     *  microseconds, or 0 if it is empty. */
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int k = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, k))] * 1e-3;
+    }
+
+    /** Return the total time this JVM has spent collecting garbage, in
+     *  milliseconds. */
+    private static long gcMillis() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionTime());
+        }
+        return result;
+    }
+
+    /** Return the peak resident set size of this process, as reported by
+     *  the operating system, or "unavailable". */
+    private static String peakRss() {
+        try {
+            for (String line
+                     : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return line.substring(6).trim();
+                }
+            }
+        } catch (IOException excp) {
+            /* Fall through: not on Linux. */
+        }
+        return "unavailable";
+    }
+
+    /** Number of runs. */
+    private int _runs = 5;
+
+    /** Output file, or null for a temporary file. */
+    private String _output;
+
+    /** Options passed on to Main. */
+    private final List<String> _mainOptions = new ArrayList<String>();
+
+    /** Configuration and input file names. */
+    private final String _conf, _input;
+
+    /** Number of message characters in the input. */
+    private long _chars;
+}
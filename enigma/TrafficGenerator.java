@@ -0,0 +1,315 @@
+package enigma;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A generator of synthetic, reproducible workloads for Main: a
+ *  configuration file and an input file of settings lines, message
+ *  lines and blank lines.  The same options and seed always produce the
+ *  same files.
+ *
+ *  The alphabet consists of the last K characters of the range 0-Z (so
+ *  A-Z for the usual K = 26), which contains no characters that are
+ *  special in configuration files or changed by upper-casing.  Message
+ *  lengths are exponentially distributed, and messages contain spaces
+ *  and (where the alphabet has letters) lower-case letters, as real
+ *  input does.
+ *  @author Vidhi Chander
+ */
+public final class TrafficGenerator {
+
+    /** Generate a workload as specified by ARGS, which consist of
+     *  options followed by the names of the configuration and input
+     *  files to write.  The options are
+     *      --seed=S        random seed (default 1);
+     *      --alphabet=K    alphabet size, even and at most 42 (default 26);
+     *      --slots=N       rotor slots (default 5);
+     *      --pawls=P       pawls (default 3);
+     *      --settings=M    number of settings lines (default 100);
+     *      --messages=L    mean message lines per settings line
+     *                      (default 20);
+     *      --length=C      mean message length in characters (default 60);
+     *      --long=C        add one message line of C characters;
+     *      --blank=PCT     percentage of blank lines (default 5);
+     *      --plugs=W       plugboard pairs per settings line (default 10,
+     *                      or fewer for small alphabets).
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            new TrafficGenerator(args).generate();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A generator as specified by ARGS (see main). */
+    TrafficGenerator(String[] args) {
+        int first;
+        for (first = 0; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            option(args[first]);
+        }
+        if (args.length - first != 2) {
+            throw error("Usage: java enigma.TrafficGenerator [OPTIONS] "
+                        + "CONF INPUT");
+        }
+        _confName = args[first];
+        _inputName = args[first + 1];
+        if (_size < 2 || _size > MAX_ALPHABET || _size % 2 != 0) {
+            throw error("alphabet size must be even, from 2 to %d",
+                        MAX_ALPHABET);
+        }
+        if (_slots < 2 || _pawls >= _slots) {
+            throw error("need 1 < slots and pawls < slots");
+        }
+        if (_plugs < 0) {
+            _plugs = Math.min(10, _size / 4);
+        } else if (2 * _plugs > _size) {
+            throw error("too many plugboard pairs");
+        }
+        _first = (char) ('Z' - _size + 1);
+        _random = new Random(_seed);
+    }
+
+    /** Record the option OPT (see main). */
+    private void option(String opt) {
+        int eq = opt.indexOf('=');
+        String name = eq < 0 ? opt : opt.substring(0, eq);
+        String value = eq < 0 ? "" : opt.substring(eq + 1);
+        switch (name) {
+        case "--seed":
+            try {
+                _seed = Long.parseLong(value);
+            } catch (NumberFormatException excp) {
+                throw error("bad seed: %s", value);
+            }
+            break;
+        case "--alphabet":
+            _size = Options.parseInt(value);
+            break;
+        case "--slots":
+            _slots = Options.parseInt(value);
+            break;
+        case "--pawls":
+            _pawls = Options.parseInt(value);
+            break;
+        case "--settings":
+            _settings = Options.parseInt(value);
+            break;
+        case "--messages":
+            _messages = Options.parseInt(value);
+            break;
+        case "--length":
+            _length = Options.parseInt(value);
+            break;
+        case "--long":
+            _long = Options.parseInt(value);
+            break;
+        case "--blank":
+            _blank = value.equals("0") ? 0 : Options.parseInt(value);
+            break;
+        case "--plugs":
+            _plugs = value.equals("0") ? 0 : Options.parseInt(value);
+            break;
+        default:
+            throw error("unknown option: %s", opt);
+        }
+    }
+
+    /** Write the configuration and input files. */
+    void generate() {
+        try (PrintWriter conf = new PrintWriter(_confName);
+             PrintWriter input = new PrintWriter(_inputName)) {
+            writeConfig(conf);
+            writeInput(input);
+        } catch (FileNotFoundException excp) {
+            throw error("could not write %s", excp.getMessage());
+        }
+    }
+
+    /** Write a configuration to OUT: two reflectors, one more fixed rotor
+     *  than there are fixed slots, and three more moving rotors than
+     *  there are pawls. */
+    void writeConfig(PrintWriter out) {
+        out.printf("%c-Z%n %d %d%n", _first, _slots, _pawls);
+        for (int i = 0; i < 2; i += 1) {
+            _reflectors.add("REF" + i);
+            out.printf(" %s R %s%n", _reflectors.get(i), reflector());
+        }
+        for (int i = 0; i < _slots - _pawls; i += 1) {
+            _fixed.add("FIX" + i);
+            out.printf(" %s N %s%n", _fixed.get(i), cycles());
+        }
+        for (int i = 0; i < _pawls + 3; i += 1) {
+            _moving.add("ROT" + i);
+            String notches = String.valueOf(letter());
+            if (_random.nextInt(4) == 0) {
+                char second = letter();
+                if (notches.indexOf(second) < 0) {
+                    notches += second;
+                }
+            }
+            out.printf(" %s M%s %s%n", _moving.get(i), notches, cycles());
+        }
+    }
+
+    /** Write an input to OUT, for the configuration written by
+     *  writeConfig. */
+    void writeInput(PrintWriter out) {
+        for (int s = 0; s < _settings; s += 1) {
+            out.println(settingsLine());
+            if (s == 0 && _long > 0) {
+                out.println(message(_long));
+            }
+            int messages = 1 + _random.nextInt(2 * _messages - 1);
+            for (int i = 0; i < messages; i += 1) {
+                if (_random.nextInt(100) < _blank) {
+                    out.println();
+                }
+                double u = _random.nextDouble();
+                out.println(message(1 + (int) (-_length * Math.log(1 - u))));
+            }
+        }
+    }
+
+    /** Return a random settings line for my configuration. */
+    private String settingsLine() {
+        StringBuilder line = new StringBuilder("*");
+        line.append(' ').append(pick(_reflectors, 1).get(0));
+        for (String name : pick(_fixed, _slots - _pawls - 1)) {
+            line.append(' ').append(name);
+        }
+        for (String name : pick(_moving, _pawls)) {
+            line.append(' ').append(name);
+        }
+        line.append(' ');
+        for (int i = 1; i < _slots; i += 1) {
+            line.append(letter());
+        }
+        List<Character> letters = shuffledLetters();
+        for (int i = 0; i < _plugs; i += 1) {
+            line.append(String.format(" (%c%c)", letters.get(2 * i),
+                                      letters.get(2 * i + 1)));
+        }
+        return line.toString();
+    }
+
+    /** Return a message line of LEN characters: letters, with a space
+     *  after about every fifth, some of them in lower case. */
+    private String message(int len) {
+        StringBuilder line = new StringBuilder(len);
+        while (line.length() < len) {
+            if (line.length() > 0 && _random.nextInt(5) == 0) {
+                line.append(' ');
+            } else {
+                char c = letter();
+                line.append(_random.nextInt(4) == 0
+                            ? Character.toLowerCase(c) : c);
+            }
+        }
+        return line.toString();
+    }
+
+    /** Return N distinct names chosen at random from NAMES. */
+    private List<String> pick(List<String> names, int n) {
+        List<String> result = new ArrayList<String>(names);
+        Collections.shuffle(result, _random);
+        return result.subList(0, n);
+    }
+
+    /** Return a random letter of my alphabet. */
+    private char letter() {
+        return (char) (_first + _random.nextInt(_size));
+    }
+
+    /** Return the letters of my alphabet in random order. */
+    private List<Character> shuffledLetters() {
+        List<Character> letters = new ArrayList<Character>();
+        for (int i = 0; i < _size; i += 1) {
+            letters.add((char) (_first + i));
+        }
+        Collections.shuffle(letters, _random);
+        return letters;
+    }
+
+    /** Return the cycles of a random permutation of my alphabet. */
+    private String cycles() {
+        List<Character> letters = shuffledLetters();
+        StringBuilder result = new StringBuilder();
+        int start = 0;
+        while (start < _size) {
+            int len = 1 + _random.nextInt(_size - start);
+            result.append('(');
+            for (int i = start; i < start + len; i += 1) {
+                result.append(letters.get(i));
+            }
+            result.append(") ");
+            start += len;
+        }
+        return result.toString().trim();
+    }
+
+    /** Return the cycles of a random reflector: a permutation of my
+     *  alphabet made of 2-cycles. */
+    private String reflector() {
+        List<Character> letters = shuffledLetters();
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < _size; i += 2) {
+            result.append(String.format("(%c%c) ", letters.get(i),
+                                        letters.get(i + 1)));
+        }
+        return result.toString().trim();
+    }
+
+    /** Largest alphabet size supported (the largest even size that fits
+     *  in 0-Z). */
+    static final int MAX_ALPHABET = 42;
+
+    /** Names of the files to write. */
+    private final String _confName, _inputName;
+
+    /** Random seed. */
+    private long _seed = 1;
+
+    /** Alphabet size. */
+    private int _size = 26;
+
+    /** First character of the alphabet. */
+    private final char _first;
+
+    /** Number of slots and pawls. */
+    private int _slots = 5, _pawls = 3;
+
+    /** Number of settings lines. */
+    private int _settings = 100;
+
+    /** Mean message lines per settings line. */
+    private int _messages = 20;
+
+    /** Mean message length. */
+    private int _length = 60;
+
+    /** Length of the single long message line, or 0. */
+    private int _long;
+
+    /** Percentage of blank lines. */
+    private int _blank = 5;
+
+    /** Plugboard pairs per settings line, or -1 for the default. */
+    private int _plugs = -1;
+
+    /** Source of randomness. */
+    private final Random _random;
+
+    /** Names of the generated rotors of each kind. */
+    private final List<String> _reflectors = new ArrayList<String>(),
+        _fixed = new ArrayList<String>(), _moving = new ArrayList<String>();
+}
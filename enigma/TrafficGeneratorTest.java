@@ -0,0 +1,67 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the TrafficGenerator class.
+ *  @author Vidhi Chander
+ */
+public class TrafficGeneratorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the contents of FILE. */
+    private static String contents(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void sameSeedSameFiles() throws IOException {
+        File[] a = traffic("--seed=7", "--settings=5");
+        File[] b = traffic("--seed=7", "--settings=5");
+        File[] c = traffic("--seed=8", "--settings=5");
+        assertEquals(contents(a[0]), contents(b[0]));
+        assertEquals(contents(a[1]), contents(b[1]));
+        assertNotEquals(contents(a[1]), contents(c[1]));
+    }
+
+    @Test
+    public void mainAcceptsWorkloads() throws IOException {
+        for (String size : new String[] { "2", "26", "42" }) {
+            File[] files = traffic("--alphabet=" + size, "--slots=6",
+                                   "--pawls=4", "--settings=20",
+                                   "--long=5000", "--blank=20");
+            File out = tempFile(".out");
+            Main main = new Main(new String[] {
+                "--engine=table", "--check", files[0].getPath(),
+                files[1].getPath(), out.getPath() });
+            main.timeMessages();
+            try {
+                main.process();
+            } finally {
+                main.close();
+            }
+            assertTrue(main.messageNanos().length > 20);
+            String messages =
+                contents(files[1]).replaceAll("(?m)^\\*.*$", "");
+            assertEquals(messages.replaceAll("[ \n]", "").length(),
+                         contents(out).replaceAll("[ \n]", "")
+                         .length());
+        }
+    }
+
+}
@@ -11,7 +11,15 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         textui.runClasses(PermutationTest.class,
-                MovingRotorTest.class, IntegrationTests.class);
+                MovingRotorTest.class, IntegrationTests.class,
+                RejewskiCatalogTest.class, ConfigRegistryTest.class,
+                AllocationTest.class, EngineTest.class,
+                KeySearchTest.class, CribScannerTest.class,
+                TrafficGeneratorTest.class, JournalTest.class,
+                EnigmaProcessorTest.class, CiphertextStatsTest.class,
+                PipelineTest.class, DepthFinderTest.class,
+                FanOutTest.class, WiringRecoveryTest.class,
+                ResultCacheTest.class, BatchTest.class);
     }
 
 }
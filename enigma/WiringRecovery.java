@@ -0,0 +1,630 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** Recovers the wiring of one rotor of a configuration from messages
+ *  whose plaintext, ciphertext and settings are all known, taking every
+ *  other rotor (and the rotor's own notches) from the configuration.
+ *
+ *  Let W be the unknown permutation.  Each letter of a message in which
+ *  the rotor is in slot J at position P passes forward through the
+ *  known slots to the right of J to some A, through the rotor, through
+ *  the known slots to its left and back (an involution M), back through
+ *  the rotor, and on to the ciphertext; running the ciphertext letter
+ *  forward through the slots to the right of J gives the D that left
+ *  the rotor on the way back.  Hence W(D + P) = S(W(A + P)), where
+ *  S(Z) = M(Z - P) + P.  Each distinct such constraint is kept as an
+ *  edge between the two letters A + P and D + P of W's domain, labeled
+ *  with S.
+ *
+ *  The candidate images of each letter form a bitset (a long, so the
+ *  alphabet may have at most 64 characters).  Propagation narrows each
+ *  letter's set to the images under S of its neighbors' sets, removes
+ *  the images already taken by other letters, and assigns any image
+ *  that only one letter can still take.  A backtracking search over the
+ *  remaining freedom is split into subproblems that are solved in
+ *  parallel.
+ *  @author Vidhi Chander
+ */
+public final class WiringRecovery {
+
+    /** Recover a wiring as specified by ARGS, which consist of options
+     *  followed by a configuration file, the name of the rotor whose
+     *  wiring is unknown (its wiring in the configuration is ignored)
+     *  and a file of messages.  Each message is three lines: a settings
+     *  line, the plaintext and the ciphertext; blank lines are skipped.
+     *  Each candidate wiring is printed as a rotor description line for
+     *  the configuration file.  The options are
+     *      --threads=N   search with N threads (default: one per
+     *                    processor);
+     *      --max=K       stop after K candidates (default 10).
+     *  Exits normally if there are no errors and some wiring fits;
+     *  otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            int threads = Runtime.getRuntime().availableProcessors();
+            int max = 10;
+            int first;
+            for (first = 0; first < args.length
+                     && args[first].startsWith("--"); first += 1) {
+                String opt = args[first];
+                if (opt.startsWith("--threads=")) {
+                    threads = Options.parseInt(opt.substring(10));
+                } else if (opt.startsWith("--max=")) {
+                    max = Options.parseInt(opt.substring(6));
+                } else {
+                    throw error("unknown option: %s", opt);
+                }
+            }
+            if (args.length - first != 3) {
+                throw error("Usage: java enigma.WiringRecovery [OPTIONS] "
+                            + "CONF ROTOR MESSAGES");
+            }
+            long start = System.nanoTime();
+            WiringRecovery recovery =
+                new WiringRecovery(Main.readConfig(args[first]),
+                                   args[first + 1]);
+            recovery.addAll(readLines(args[first + 2]));
+            List<Permutation> found = recovery.solve(threads, max);
+            if (found.isEmpty()) {
+                throw error("no wiring of %s fits the messages",
+                            args[first + 1]);
+            }
+            for (Permutation wiring : found) {
+                System.out.println(recovery.description(wiring));
+            }
+            System.err.printf("%d candidate%s%s; %d constraints from %d "
+                              + "letters; %d nodes in %.2f s%n",
+                              found.size(), found.size() == 1 ? "" : "s",
+                              found.size() == max ? " (stopped)" : "",
+                              recovery.constraints(), recovery.letters(),
+                              recovery.nodes(),
+                              (System.nanoTime() - start) * 1e-9);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A recovery of the wiring of the rotor named ROTOR among the
+     *  rotors of TEMPLATE, with no messages yet. */
+    WiringRecovery(Machine template, String rotor) {
+        _machine = template.copy();
+        _alphabet = template.alphabet();
+        _size = _alphabet.size();
+        if (_size > Long.SIZE) {
+            throw error("alphabets of more than %d characters are not "
+                        + "supported", Long.SIZE);
+        }
+        for (Rotor r : template.allRotors()) {
+            if (r.name().equalsIgnoreCase(rotor)) {
+                _rotor = r;
+            }
+        }
+        if (_rotor == null) {
+            throw error("no rotor named %s", rotor);
+        } else if (_rotor.reflecting()) {
+            throw error("cannot recover a reflector's wiring");
+        }
+        _domains = new long[_size];
+        Arrays.fill(_domains, _size == Long.SIZE ? -1L
+                    : (1L << _size) - 1);
+        _edges = new int[_size][];
+        _labels = new int[_size][];
+        _degree = new int[_size];
+        for (int u = 0; u < _size; u += 1) {
+            _edges[u] = new int[4];
+            _labels[u] = new int[4];
+        }
+    }
+
+    /** Add the messages in LINES: a settings line, plaintext and
+     *  ciphertext for each, skipping blank lines. */
+    void addAll(List<String> lines) {
+        List<String> message = new ArrayList<String>();
+        for (String line : lines) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            message.add(line);
+            if (message.size() == 3) {
+                add(message.get(0), message.get(1), message.get(2));
+                message.clear();
+            }
+        }
+        if (!message.isEmpty()) {
+            throw error("incomplete message at end of input");
+        }
+    }
+
+    /** Add the constraints of PLAIN enciphered as CIPHER from the
+     *  settings line SETTINGS.  Messages that do not use my rotor add
+     *  nothing. */
+    void add(String settings, String plain, String cipher) {
+        if (!settings.startsWith("*")) {
+            throw error("expected a settings line: %s", settings);
+        }
+        int[] x = letters(plain), y = letters(cipher);
+        if (x.length != y.length) {
+            throw error("plaintext and ciphertext lengths differ: %s",
+                        settings);
+        }
+        Main.applySettings(_machine, settings);
+        List<Rotor> rotors = _machine.machineRotors();
+        int j = rotors.indexOf(_rotor);
+        if (j < 0) {
+            return;
+        }
+        HashMap<IntBuffer, Integer> sigmas =
+            new HashMap<IntBuffer, Integer>();
+        for (int i = 0; i < x.length; i += 1) {
+            _machine.advanceRotors();
+            int[] positions = new int[j + 1];
+            for (int k = 0; k <= j; k += 1) {
+                positions[k] = _machine.position(k);
+            }
+            IntBuffer state = IntBuffer.wrap(positions);
+            Integer sigma = sigmas.get(state);
+            if (sigma == null) {
+                sigma = sigma(rotors, j);
+                sigmas.put(state, sigma);
+            }
+            int p = _machine.position(j);
+            int u = wrap(right(rotors, j, x[i]) + p);
+            int v = wrap(right(rotors, j, y[i]) + p);
+            constrain(u, v, sigma);
+            _letters += 1;
+        }
+    }
+
+    /** Return the result of passing C through the plugboard and then
+     *  forward through ROTORS to the right of slot J. */
+    private int right(List<Rotor> rotors, int j, int c) {
+        Permutation plugboard = _machine.plugboard();
+        if (plugboard != null) {
+            c = plugboard.permute(c);
+        }
+        for (int k = rotors.size() - 1; k > j; k -= 1) {
+            c = rotors.get(k).convertForward(c, _machine.position(k));
+        }
+        return c;
+    }
+
+    /** Return the number of the table S(Z) = M(Z - P) + P for my rotor
+     *  in slot J of ROTORS at position P, where M passes forward through
+     *  ROTORS to the left of J, off the reflector and back, adding the
+     *  table (and its inverse) if it is new. */
+    private int sigma(List<Rotor> rotors, int j) {
+        int p = _machine.position(j);
+        int[] table = new int[_size];
+        for (int z = 0; z < _size; z += 1) {
+            int c = wrap(z - p);
+            for (int k = j - 1; k >= 0; k -= 1) {
+                c = rotors.get(k).convertForward(c, _machine.position(k));
+            }
+            for (int k = 1; k < j; k += 1) {
+                c = rotors.get(k).convertBackward(c, _machine.position(k));
+            }
+            table[z] = wrap(c + p);
+        }
+        String key = Arrays.toString(table);
+        Integer number = _tableNumbers.get(key);
+        if (number == null) {
+            int[] inverse = new int[_size];
+            for (int z = 0; z < _size; z += 1) {
+                inverse[table[z]] = z;
+            }
+            number = _tables.size();
+            _tables.add(table);
+            _tables.add(inverse);
+            _tableNumbers.put(key, number);
+        }
+        return number;
+    }
+
+    /** Record that W(V) = T(W(U)), where T is table number SIGMA. */
+    private void constrain(int u, int v, int sigma) {
+        if (!_constraints.add(((long) sigma * _size + u) * _size + v)) {
+            return;
+        }
+        if (u == v) {
+            int[] table = _tables.get(sigma);
+            long fixed = 0;
+            for (int z = 0; z < _size; z += 1) {
+                if (table[z] == z) {
+                    fixed |= 1L << z;
+                }
+            }
+            _domains[u] &= fixed;
+            return;
+        }
+        edge(u, v, sigma);
+        edge(v, u, sigma + 1);
+    }
+
+    /** Add an edge from U to V labeled with table number TABLE. */
+    private void edge(int u, int v, int table) {
+        int d = _degree[u];
+        if (d == _edges[u].length) {
+            _edges[u] = Arrays.copyOf(_edges[u], 2 * d);
+            _labels[u] = Arrays.copyOf(_labels[u], 2 * d);
+        }
+        _edges[u][d] = v;
+        _labels[u][d] = table;
+        _degree[u] = d + 1;
+    }
+
+    /** Return up to MAX wirings consistent with my messages, in
+     *  increasing order of their tables, searching with THREADS
+     *  threads. */
+    List<Permutation> solve(int threads, int max) {
+        _tableArray = _tables.toArray(new int[0][]);
+        long[] root = _domains.clone();
+        List<long[]> found = new ArrayList<long[]>();
+        if (new Solver(found, max, new AtomicBoolean()).propagate(root)) {
+            search(root, threads, max, found);
+        }
+        List<Permutation> result = new ArrayList<Permutation>();
+        for (long[] domains : found) {
+            int[] table = new int[_size];
+            for (int u = 0; u < _size; u += 1) {
+                table[u] = Long.numberOfTrailingZeros(domains[u]);
+            }
+            result.add(new Permutation(table, _alphabet));
+        }
+        result.sort((a, b) -> Arrays.compare(a.table(), b.table()));
+        return result.subList(0, Math.min(max, result.size()));
+    }
+
+    /** Search from the propagated domains ROOT with THREADS threads,
+     *  adding up to MAX solutions to FOUND. */
+    private void search(long[] root, int threads, int max,
+                        List<long[]> found) {
+        AtomicBoolean stop = new AtomicBoolean();
+        Solver splitter = new Solver(found, max, stop);
+        ArrayDeque<long[]> frontier = new ArrayDeque<long[]>();
+        frontier.add(root);
+        List<long[]> tasks = new ArrayList<long[]>();
+        while (!frontier.isEmpty()
+               && frontier.size() + tasks.size() < SPLIT * threads) {
+            long[] node = frontier.poll();
+            int u = splitter.choose(node);
+            if (u < 0) {
+                splitter.solution(node);
+                continue;
+            }
+            for (long m = node[u]; m != 0; m &= m - 1) {
+                long[] child = node.clone();
+                child[u] = Long.lowestOneBit(m);
+                if (splitter.propagate(child)) {
+                    frontier.add(child);
+                }
+            }
+        }
+        tasks.addAll(frontier);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (long[] task : tasks) {
+                results.add(pool.submit(() ->
+                    new Solver(found, max, stop).search(task)));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            throw error("search failed: %s", excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** A depth-first search for wirings, with its own scratch space. */
+    private final class Solver {
+
+        /** A solver adding up to MAX solutions to FOUND, and giving up
+         *  once STOP is set. */
+        Solver(List<long[]> found, int max, AtomicBoolean stop) {
+            _found = found;
+            _max = max;
+            _stop = stop;
+        }
+
+        /** Add every solution within the propagated DOMAINS. */
+        void search(long[] domains) {
+            if (_stop.get()) {
+                return;
+            }
+            _nodes.incrementAndGet();
+            int u = choose(domains);
+            if (u < 0) {
+                solution(domains);
+                return;
+            }
+            for (long m = domains[u]; m != 0 && !_stop.get(); m &= m - 1) {
+                long[] child = domains.clone();
+                child[u] = Long.lowestOneBit(m);
+                if (propagate(child)) {
+                    search(child);
+                }
+            }
+        }
+
+        /** Return the letter with the fewest candidate images, but more
+         *  than one, in DOMAINS, or -1 if every letter has one. */
+        int choose(long[] domains) {
+            int best = -1, fewest = Integer.MAX_VALUE;
+            for (int u = 0; u < domains.length; u += 1) {
+                int count = Long.bitCount(domains[u]);
+                if (count > 1 && count < fewest) {
+                    best = u;
+                    fewest = count;
+                }
+            }
+            return best;
+        }
+
+        /** Record the solution DOMAINS. */
+        void solution(long[] domains) {
+            synchronized (_found) {
+                if (_found.size() < _max) {
+                    _found.add(domains);
+                }
+                if (_found.size() >= _max) {
+                    _stop.set(true);
+                }
+            }
+        }
+
+        /** Narrow DOMAINS until no rule changes them.  Return false iff
+         *  some letter is left without a candidate image. */
+        boolean propagate(long[] domains) {
+            for (int u = 0; u < _size; u += 1) {
+                enqueue(u);
+            }
+            while (true) {
+                while (_count > 0) {
+                    int u = dequeue();
+                    long du = domains[u];
+                    if (du == 0) {
+                        return clear();
+                    }
+                    int[] edges = _edges[u], labels = _labels[u];
+                    for (int e = _degree[u] - 1; e >= 0; e -= 1) {
+                        int[] table = _tableArray[labels[e]];
+                        long image = 0;
+                        for (long m = du; m != 0; m &= m - 1) {
+                            image |= 1L << table[Long
+                                                 .numberOfTrailingZeros(m)];
+                        }
+                        if (!narrow(domains, edges[e], image)) {
+                            return clear();
+                        }
+                    }
+                    if (Long.bitCount(du) == 1) {
+                        for (int v = 0; v < _size; v += 1) {
+                            if (v != u && !narrow(domains, v, ~du)) {
+                                return clear();
+                            }
+                        }
+                    }
+                }
+                int forced = hiddenSingle(domains);
+                if (forced == -2) {
+                    return false;
+                } else if (forced < 0) {
+                    return true;
+                }
+            }
+        }
+
+        /** Assign the first image that only one letter of DOMAINS can
+         *  still take to that letter, and return the letter (queued).
+         *  Return -1 if there is none, or -2 if some image can be taken
+         *  by no letter. */
+        private int hiddenSingle(long[] domains) {
+            long once = 0, twice = 0;
+            for (long d : domains) {
+                twice |= once & d;
+                once |= d;
+            }
+            long all = _size == Long.SIZE ? -1L : (1L << _size) - 1;
+            if (once != all) {
+                return -2;
+            }
+            long single = once & ~twice;
+            for (int u = 0; u < _size; u += 1) {
+                long d = domains[u] & single;
+                if (d != 0 && domains[u] != d) {
+                    domains[u] = Long.lowestOneBit(d);
+                    enqueue(u);
+                    return u;
+                }
+            }
+            return -1;
+        }
+
+        /** Intersect the candidates of letter V in DOMAINS with MASK,
+         *  queueing V if that changes them.  Return false iff none are
+         *  left. */
+        private boolean narrow(long[] domains, int v, long mask) {
+            long d = domains[v] & mask;
+            if (d != domains[v]) {
+                domains[v] = d;
+                enqueue(v);
+            }
+            return d != 0;
+        }
+
+        /** Queue letter U, unless it is already queued. */
+        private void enqueue(int u) {
+            if (!_queued[u]) {
+                _queued[u] = true;
+                _queue[(_head + _count) % _size] = u;
+                _count += 1;
+            }
+        }
+
+        /** Remove and return the first queued letter. */
+        private int dequeue() {
+            int u = _queue[_head];
+            _queued[u] = false;
+            _head = (_head + 1) % _size;
+            _count -= 1;
+            return u;
+        }
+
+        /** Empty the queue and return false. */
+        private boolean clear() {
+            while (_count > 0) {
+                dequeue();
+            }
+            return false;
+        }
+
+        /** Where to add solutions. */
+        private final List<long[]> _found;
+
+        /** Most solutions wanted. */
+        private final int _max;
+
+        /** Set once enough solutions are found. */
+        private final AtomicBoolean _stop;
+
+        /** Letters whose candidates have changed, as a circular queue. */
+        private final int[] _queue = new int[_size];
+
+        /** _queued[U] is true iff U is in _queue. */
+        private final boolean[] _queued = new boolean[_size];
+
+        /** Index of the first queued letter. */
+        private int _head;
+
+        /** Number of queued letters. */
+        private int _count;
+    }
+
+    /** Return a rotor description line for the configuration file giving
+     *  my rotor the wiring WIRING. */
+    String description(Permutation wiring) {
+        String kind = _rotor.rotates()
+            ? "M" + ((MovingRotor) _rotor).notches() : "N";
+        return String.format("%s %s %s", _rotor.name(), kind, wiring);
+    }
+
+    /** Return the number of distinct constraints. */
+    int constraints() {
+        return _constraints.size();
+    }
+
+    /** Return the number of message letters that used my rotor. */
+    long letters() {
+        return _letters;
+    }
+
+    /** Return the number of search nodes visited. */
+    long nodes() {
+        return _nodes.get();
+    }
+
+    /** Return the alphabet indices of the characters of upper-cased TEXT
+     *  that are in my alphabet. */
+    private int[] letters(String text) {
+        text = text.toUpperCase();
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (_alphabet.contains(text.charAt(i))) {
+                result[n] = _alphabet.toInt(text.charAt(i));
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return P modulo the alphabet size. */
+    private int wrap(int p) {
+        int r = p % _size;
+        return r < 0 ? r + _size : r;
+    }
+
+    /** Return the lines of the file named NAME. */
+    private static List<String> readLines(String name) {
+        try {
+            return Files.readAllLines(Paths.get(name),
+                                      StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Subproblems per thread into which the search is split. */
+    private static final int SPLIT = 8;
+
+    /** Machine used to follow the messages. */
+    private final Machine _machine;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** The rotor whose wiring is sought. */
+    private Rotor _rotor;
+
+    /** Candidate images of each letter, before searching. */
+    private final long[] _domains;
+
+    /** _edges[U][0 .. _degree[U]-1] are the letters constrained by U. */
+    private final int[][] _edges;
+
+    /** _labels[U][E] is the number of the table relating the image of
+     *  _edges[U][E] to that of U. */
+    private final int[][] _labels;
+
+    /** Number of edges from each letter. */
+    private final int[] _degree;
+
+    /** Tables S (even numbers) and their inverses (odd numbers). */
+    private final List<int[]> _tables = new ArrayList<int[]>();
+
+    /** _tables, as an array, while solving. */
+    private int[][] _tableArray;
+
+    /** Table numbers, by Arrays.toString of the table. */
+    private final HashMap<String, Integer> _tableNumbers =
+        new HashMap<String, Integer>();
+
+    /** Constraints already recorded, encoded as (S * size + U) * size +
+     *  V. */
+    private final HashSet<Long> _constraints = new HashSet<Long>();
+
+    /** Number of message letters that used my rotor. */
+    private long _letters;
+
+    /** Number of search nodes visited. */
+    private final AtomicLong _nodes = new AtomicLong();
+}
@@ -0,0 +1,111 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the WiringRecovery class.
+ *  @author Vidhi Chander
+ */
+public class WiringRecoveryTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the naval machine, but with the wiring of the rotor NAME
+     *  replaced by WIRING. */
+    private static Machine rewired(String name, Permutation wiring) {
+        List<Rotor> rotors = new ArrayList<Rotor>();
+        for (Rotor r : EngineTest.naval().allRotors()) {
+            if (r.name().equals(name)) {
+                r = new MovingRotor(name, wiring,
+                                    ((MovingRotor) r).notches());
+            }
+            rotors.add(r);
+        }
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /** Return COUNT messages of LENGTH letters from RANDOM, enciphered by
+     *  M, as settings, plaintext and ciphertext lines. */
+    private static List<String> messages(Machine m, Random random,
+                                         int count, int length) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < count; i += 1) {
+            String settings = FanOutTest.randomSettings(random);
+            char[] plain = new char[length];
+            for (int k = 0; k < length; k += 1) {
+                plain[k] = (char) ('A' + random.nextInt(26));
+            }
+            Main.applySettings(m, settings);
+            result.add(settings);
+            result.add(new String(plain));
+            result.add(m.convert(new String(plain)));
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void recoversWiring() {
+        List<String> lines = messages(EngineTest.naval(), new Random(49),
+                                      40, 30);
+        WiringRecovery recovery =
+            new WiringRecovery(rewired("VI", new Permutation("", UPPER)),
+                               "VI");
+        recovery.addAll(lines);
+        List<Permutation> found = recovery.solve(3, 10);
+        assertEquals(1, found.size());
+        assertEquals(new Permutation(NAVALA.get("VI"), UPPER), found.get(0));
+        assertEquals("VI MZM " + found.get(0), recovery.description(
+                         found.get(0)));
+    }
+
+    @Test
+    public void everyCandidateReproducesMessages() {
+        List<String> lines = messages(EngineTest.naval(), new Random(50),
+                                      2, 12);
+        WiringRecovery recovery =
+            new WiringRecovery(EngineTest.naval(), "II");
+        recovery.addAll(lines);
+        List<Permutation> found = recovery.solve(2, 5);
+        assertEquals(5, found.size());
+        for (Permutation wiring : found) {
+            Machine m = rewired("II", wiring);
+            for (int i = 0; i < lines.size(); i += 3) {
+                Main.applySettings(m, lines.get(i));
+                assertEquals(lines.get(i + 2), m.convert(lines.get(i + 1)));
+            }
+        }
+    }
+
+    @Test
+    public void inconsistentMessagesHaveNoWiring() {
+        List<String> lines = messages(EngineTest.naval(), new Random(51),
+                                      40, 30);
+        String cipher = lines.get(2);
+        lines.set(2, (cipher.charAt(0) == 'A' ? "B" : "A")
+                  + cipher.substring(1));
+        WiringRecovery recovery =
+            new WiringRecovery(EngineTest.naval(), "III");
+        recovery.addAll(lines);
+        assertTrue(recovery.solve(2, 10).isEmpty());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void reflectorIsRejected() {
+        new WiringRecovery(EngineTest.naval(), "B");
+    }
+
+}